@@ -0,0 +1,58 @@
+package com.solacesystems.poc.bench;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listener-dispatch overhead: the same two-member failover with listeners bound directly on the backend
+ * versus through a {@link com.solacesystems.poc.FTMgr}. The difference between the two layers is the cost
+ * the manager adds between a flow event and the application's listener.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+
+    @Param({"backend", "ftmgr"})
+    public String layer;
+
+    private LoopbackCluster cluster;
+
+    @Setup(Level.Trial)
+    public void setup() throws JCSMPException {
+        cluster = new LoopbackCluster(2, LoopbackCluster.Layer.valueOf(layer), false);
+    }
+
+    @TearDown(Level.Invocation)
+    public void rejoin() throws JCSMPException {
+        cluster.rejoin();
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        cluster.stop();
+    }
+
+    @Benchmark
+    public BytesXMLMessage dispatch() {
+        return cluster.failover();
+    }
+}
@@ -0,0 +1,62 @@
+package com.solacesystems.poc.bench;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full failover gap: the time from the Active member's binding being released to <code>onActive</code> firing on its
+ * successor, excluding the rest of the leaving member's shutdown, through {@link com.solacesystems.poc.FTMgr#start} and {@link com.solacesystems.poc.FTMgr#startStateful},
+ * for cluster sizes from 2 up to 64 members. Sample-time mode reports the gap's percentile distribution.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FailoverBenchmark {
+
+    @Param({"2", "4", "8", "16", "32", "64"})
+    public int clusterSize;
+
+    @Param({"false", "true"})
+    public boolean stateful;
+
+    private LoopbackCluster cluster;
+
+    @Setup(Level.Trial)
+    public void setup() throws JCSMPException {
+        cluster = new LoopbackCluster(clusterSize, LoopbackCluster.Layer.ftmgr, stateful);
+        cluster.publishState(new byte[256]);
+    }
+
+    @TearDown(Level.Invocation)
+    public void rejoin() throws JCSMPException {
+        cluster.rejoin();
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        cluster.stop();
+    }
+
+    @Benchmark
+    public BytesXMLMessage failoverGap() {
+        return cluster.failover();
+    }
+}
@@ -0,0 +1,127 @@
+package com.solacesystems.poc.bench;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.poc.FTEventListener;
+import com.solacesystems.poc.FTMgr;
+import com.solacesystems.poc.LoopbackBroker;
+import com.solacesystems.poc.LoopbackConnection;
+
+import java.util.ArrayDeque;
+
+/**
+ * A FT-Cluster of members sharing one in-process {@link LoopbackBroker}, kept at a fixed size by
+ * rejoining a fresh member at the back of the line after every failover.
+ */
+class LoopbackCluster {
+    static final String CLUSTER_NAME = "bench/cluster";
+    static final String OUTPUT_TOPIC = "bench/output/state";
+    static final String OUTPUT_SUBSCRIPTION = "bench/output/>";
+
+    /**
+     * How members join the cluster: directly through the backend, or through a {@link FTMgr}.
+     */
+    enum Layer { backend, ftmgr }
+
+    LoopbackCluster(int size, Layer layer, boolean stateful) throws JCSMPException {
+        this.layer = layer;
+        this.stateful = stateful;
+        for (int i = 0; i < size; i++)
+            rejoin();
+        awaitActive(members.peekFirst());
+    }
+
+    void publishState(byte[] payload) {
+        broker.publish(OUTPUT_TOPIC, payload);
+    }
+
+    /**
+     * Releases the Active member's binding and spins until its successor's listener has been told it is Active.
+     * The released member is only stopped by {@link #rejoin()}, so that its teardown stays out of the gap.
+     * @return The state handed to the successor.
+     */
+    BytesXMLMessage failover() {
+        released = members.pollFirst();
+        released.connection.unbind(CLUSTER_NAME);
+        final Member successor = members.peekFirst();
+        awaitActive(successor);
+        return successor.state;
+    }
+
+    /**
+     * Stops the member released by the latest failover, if any, and joins a fresh member at the back of the line.
+     */
+    void rejoin() throws JCSMPException {
+        if (released != null) {
+            released.stop();
+            released = null;
+        }
+        final Member member = new Member(new LoopbackConnection(broker));
+        members.addLast(member);
+        member.start();
+    }
+
+    void stop() {
+        if (released != null)
+            released.stop();
+        while (!members.isEmpty())
+            members.pollFirst().stop();
+    }
+
+    private static void awaitActive(Member member) {
+        while (!member.active) {
+            // busy-spin: flow events may arrive on another thread
+        }
+    }
+
+    private class Member implements FTEventListener {
+        Member(LoopbackConnection connection) {
+            this.connection = connection;
+        }
+
+        void start() throws JCSMPException {
+            if (layer == Layer.backend) {
+                if (stateful)
+                    connection.bindExclusive(CLUSTER_NAME, OUTPUT_SUBSCRIPTION, this);
+                else
+                    connection.bindExclusive(CLUSTER_NAME, this);
+            }
+            else {
+                mgr = new FTMgr(connection);
+                if (stateful)
+                    mgr.startStateful(CLUSTER_NAME, OUTPUT_SUBSCRIPTION, this);
+                else
+                    mgr.start(CLUSTER_NAME, this);
+            }
+        }
+
+        void stop() {
+            if (mgr != null)
+                mgr.stop();
+            else
+                connection.stop();
+        }
+
+        @Override
+        public void onActive(BytesXMLMessage msg) {
+            state = msg;
+            active = true;
+        }
+
+        @Override
+        public void onBackup() {
+            active = false;
+        }
+
+        final LoopbackConnection connection;
+        FTMgr mgr;
+        volatile BytesXMLMessage state;
+        volatile boolean active;
+    }
+
+    final private LoopbackBroker broker = new LoopbackBroker();
+    final private ArrayDeque<Member> members = new ArrayDeque<>();
+    final private Layer layer;
+    final private boolean stateful;
+    private Member released;
+}
@@ -0,0 +1,74 @@
+package com.solacesystems.poc.bench;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import com.solacesystems.poc.FTEventListener;
+import com.solacesystems.poc.FTMgr;
+import com.solacesystems.poc.LoopbackBroker;
+import com.solacesystems.poc.LoopbackConnection;
+import com.solacesystems.poc.OutputPublisher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sustained output throughput of an Active stateful member through its {@link OutputPublisher}, by batch size.
+ * A batch size of 1 sends every message on its own, as a blocking send per update would.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PublishBenchmark {
+
+    @Param({"1", "50"})
+    public int batchSize;
+
+    private FTMgr ftMgr;
+    private OutputPublisher publisher;
+    private BytesXMLMessage msg;
+
+    @Setup(Level.Trial)
+    public void setup() throws JCSMPException {
+        ftMgr = new FTMgr(new LoopbackConnection(new LoopbackBroker()));
+        ftMgr.startStateful("bench/cluster", "bench/out/>", new FTEventListener() {
+            @Override
+            public void onActive(BytesXMLMessage msg) {
+            }
+            @Override
+            public void onBackup() {
+            }
+        });
+        publisher = ftMgr.createPublisher();
+        publisher.setBatchSize(batchSize);
+        msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        msg.writeAttachment(new byte[256]);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        publisher.flush();
+        ftMgr.stop();
+    }
+
+    @Benchmark
+    public CompletableFuture<Void> publish() throws InterruptedException {
+        return publisher.publish("bench/out/state", msg);
+    }
+}
@@ -0,0 +1,61 @@
+package com.solacesystems.poc.bench;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stateful activation overhead: promotion of a stateful member, which fetches the last output of the previous Active
+ * member before <code>onActive</code> fires, across output payload sizes. The loopback broker's browser returns
+ * straight from memory, so this measures the activation pipeline's own overhead for the fetch only, not a real
+ * browse or broker round-trip; measure those against a broker. Compare against the stateless
+ * {@link FailoverBenchmark} results for the pipeline's cost of a stateful activation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StateBrowseBenchmark {
+
+    @Param({"0", "1024", "65536"})
+    public int payloadSize;
+
+    private LoopbackCluster cluster;
+
+    @Setup(Level.Trial)
+    public void setup() throws JCSMPException {
+        cluster = new LoopbackCluster(2, LoopbackCluster.Layer.ftmgr, true);
+        cluster.publishState(new byte[payloadSize]);
+    }
+
+    @TearDown(Level.Invocation)
+    public void rejoin() throws JCSMPException {
+        cluster.rejoin();
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        cluster.stop();
+    }
+
+    @Benchmark
+    public BytesXMLMessage statefulActivationOverhead() {
+        return cluster.failover();
+    }
+}
@@ -2,6 +2,7 @@
 
 if [ "$#" -lt 2 ]; then
 	echo "	USAGE: $0 <path/to/client-connect.properties> <solace-exclusive-queue>"
+	echo "	   or: $0 <path/to/client-connect.properties> --sidecar <path/to/sidecar.properties>"
 	echo ""
 	exit 1
 fi
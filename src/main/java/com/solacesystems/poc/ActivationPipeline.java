@@ -0,0 +1,256 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Internal listener turning the raw flow events of one cluster binding into application callbacks:
+ * flow event &rarr; asynchronous fetch of the previous Active member's output (stateful bindings only)
+ * &rarr; dispatch on the application's executor. Nothing here blocks the backend's event thread.
+ *
+ * <p>Hot-standby bindings keep a {@link StateMirror} attached while Backup; on activation its mirrored output is
+ * handed over directly, and the fetch only runs as a fallback when nothing was mirrored. Likewise, state handed over
+ * by the previous Active member through a {@link HandoffChannel} is used without fetching, unless its epoch stamp
+ * shows that another activation came in between.</p>
+ *
+ * <p>Role transitions, dispatch latency, state fetch outcomes and listener time are recorded in the binding's
+ * {@link FTMetrics}, timed from the moment the backend raised the flow event.</p>
+ *
+ * <p>A binding lost by the backend makes the member Backup until the backend restores it; the time to recover is
+ * recorded in the binding's metrics.</p>
+ *
+ * <p>Every activation also advances the binding's leadership epoch, handed to the downstream listener with the state.
+ * An activation whose epoch cannot be advanced is never delivered; the downstream listener is told it failed instead.</p>
+ *
+ * <p>Flow events, state fetches and listener invocations are also emitted as Java Flight Recorder events.</p>
+ *
+ * <p>Every flow event starts a new generation; an activation whose state fetch completes after a later
+ * event is dropped, so a member that flapped back to Backup is never told it is Active. A member losing its
+ * leadership is deposed on the backend's event thread, before the role change is dispatched.</p>
+ *
+ * <p>Role changes reach the downstream listener through an {@link EventDispatcher}, in order and never on the
+ * backend's event thread unless the executor runs tasks inline. When coalescing, a role change ending in the role
+ * last delivered is not delivered again; a member that stayed Active through a flap is only told its new epoch.</p>
+ */
+class ActivationPipeline implements BindingListener {
+    private static final Logger logger = LoggerFactory.getLogger(ActivationPipeline.class);
+
+    /**
+     * @param backend Backend to fetch state from.
+     * @param clusterName Cluster this pipeline receives flow events for.
+     * @param stateful Whether to fetch the previous Active member's output on activation.
+     * @param fetchTimeoutMillis Maximum time to wait for that output.
+     * @param executor Executor to invoke the downstream listener on.
+     * @param coalesceWindowMillis Window within which role changes are coalesced, or 0 to deliver every one.
+     * @param mirror Hot-standby mirror of the Active member's output, or null to always fetch it.
+     * @param handoff Channel the previous Active member hands its final state over on, or null if not taking part.
+     * @param epochs Source of the leadership epoch started by each activation.
+     * @param metrics Metrics to record the binding's role transitions in.
+     * @param downstream Listener to invoke.
+     */
+    ActivationPipeline(FTBackend backend, String clusterName, boolean stateful, long fetchTimeoutMillis,
+                       Executor executor, long coalesceWindowMillis, StateMirror mirror, HandoffChannel handoff,
+                       EpochSource epochs, FTMetrics metrics, RoleListener downstream) {
+        this.backend = backend;
+        this.clusterName = clusterName;
+        this.stateful = stateful;
+        this.fetchTimeoutMillis = fetchTimeoutMillis;
+        this.dispatcher = new EventDispatcher(executor, coalesceWindowMillis, this::deliver);
+        this.mirror = mirror;
+        this.handoff = handoff;
+        this.epochs = epochs;
+        this.metrics = metrics;
+        this.downstream = downstream;
+    }
+
+    @Override
+    public void onActive(BytesXMLMessage ignored) {
+        final long eventNanos = System.nanoTime();
+        FlightEvents.flow(clusterName, FlightEvents.ACTIVE, latestEpoch);
+        final long generation = generations.incrementAndGet();
+        final CompletableFuture<Long> epoch = epochs.next();
+        epoch.whenComplete((e, error) -> {
+            if (error != null)
+                activationFailed(generation, error);
+        });
+        if (!stateful) {
+            epoch.thenAccept(e -> dispatchActive(generation, eventNanos, null, e));
+            return;
+        }
+        final BytesXMLMessage handedOver = handoff != null ? handoff.take() : null;
+        final BytesXMLMessage mirrored = mirror != null ? mirror.last() : null;
+        if (mirror != null)
+            mirror.detach();
+        if (handedOver != null) {
+            epoch.thenAccept(e -> {
+                if (HandoffChannel.isHandedOverTo(handedOver, e)) {
+                    dispatchActive(generation, eventNanos, handedOver, e);
+                    return;
+                }
+                logger.warn("Ignoring state handed over to cluster {} before another activation", clusterName);
+                activate(generation, eventNanos, mirrored, epoch);
+            });
+            return;
+        }
+        activate(generation, eventNanos, mirrored, epoch);
+    }
+
+    /**
+     * Activates with the mirrored output if any, or else with the output fetched from the cluster queue.
+     */
+    private void activate(final long generation, final long eventNanos, final BytesXMLMessage mirrored,
+                          final CompletableFuture<Long> epoch) {
+        if (mirrored != null) {
+            epoch.thenAccept(e -> dispatchActive(generation, eventNanos, mirrored, e));
+            return;
+        }
+        final long fetchNanos = System.nanoTime();
+        final Object fetchEvent = FlightEvents.beginStateFetch(clusterName);
+        backend.fetchLastValue(clusterName, fetchTimeoutMillis)
+                .handle((msg, error) -> {
+                    final long elapsed = System.nanoTime() - fetchNanos;
+                    FlightEvents.endStateFetch(fetchEvent, msg != null, epoch.getNow(latestEpoch));
+                    if (error != null) {
+                        metrics.stateFetchFailed(elapsed);
+                        logger.warn("Error fetching last output of cluster {}: {}", clusterName, error.getMessage());
+                    }
+                    // A fetch returning nothing only after its whole timeout is counted as timed out rather than empty
+                    else if (msg == null && elapsed >= TimeUnit.MILLISECONDS.toNanos(fetchTimeoutMillis))
+                        metrics.stateFetchTimedOut(elapsed);
+                    else
+                        metrics.stateFetched(elapsed);
+                    return msg;
+                })
+                .thenAcceptBoth(epoch, (msg, e) -> dispatchActive(generation, eventNanos, msg, e));
+    }
+
+    @Override
+    public void onBackup() {
+        FlightEvents.flow(clusterName, FlightEvents.BACKUP, latestEpoch);
+        backup();
+    }
+
+    @Override
+    public void onBindingLost() {
+        lostNanos = System.nanoTime();
+        FlightEvents.flow(clusterName, FlightEvents.LOST, latestEpoch);
+        // Output published while the binding was down may not have been mirrored
+        if (mirror != null)
+            mirror.reset();
+        backup();
+    }
+
+    @Override
+    public void onBindingRestored() {
+        FlightEvents.flow(clusterName, FlightEvents.RESTORED, latestEpoch);
+        final long lost = lostNanos;
+        if (lost != 0) {
+            lostNanos = 0;
+            metrics.recovered(System.nanoTime() - lost);
+        }
+    }
+
+    /**
+     * Drops any activation still waiting on its state fetch; used when the binding is stopped.
+     */
+    void cancel() {
+        generations.incrementAndGet();
+        if (mirror != null)
+            mirror.detach();
+    }
+
+    /**
+     * Stops the binding's role changes: drops any activation still in flight, deposes the member straight away,
+     * and tells the downstream listener it is Backup once every role change already dispatched was delivered.
+     * @return A future completed once the downstream listener was told.
+     */
+    CompletableFuture<Void> stop() {
+        cancel();
+        downstream.onDeposed();
+        return dispatcher.close(new EventDispatcher.Event(false, null, 0, System.nanoTime(), generations.get()));
+    }
+
+    /**
+     * @return Whether the calling thread is running the downstream listener, which must not wait for the pipeline.
+     */
+    boolean isDispatching() {
+        return dispatcher.isDelivering();
+    }
+
+    private void backup() {
+        final long eventNanos = System.nanoTime();
+        generations.incrementAndGet();
+        // Output is fenced straight away; only the listener callback is dispatched, and maybe coalesced
+        downstream.onDeposed();
+        if (mirror != null)
+            mirror.attach();
+        dispatcher.submit(new EventDispatcher.Event(false, null, 0, eventNanos, generations.get()));
+    }
+
+    private void activationFailed(final long generation, final Throwable error) {
+        if (generation != generations.get())
+            return;
+        logger.error("Could not start a leadership epoch for cluster {}: {}", clusterName, error.getMessage());
+        downstream.onActivationFailed(error);
+    }
+
+    private void dispatchActive(final long generation, final long eventNanos, final BytesXMLMessage msg, final long epoch) {
+        if (generation != generations.get())
+            return;
+        dispatcher.submit(new EventDispatcher.Event(true, msg, epoch, eventNanos, generation));
+    }
+
+    private void deliver(EventDispatcher.Event event) {
+        if (event.active) {
+            if (event.generation != generations.get())
+                return;
+            downstream.onPromoted(event.epoch);
+            // A flow event raised meanwhile may have deposed the member before it was promoted
+            if (event.generation != generations.get()) {
+                downstream.onDeposed();
+                return;
+            }
+        }
+        final long startNanos = System.nanoTime();
+        metrics.dispatched(startNanos - event.eventNanos);
+        metrics.roleChanged(event.active);
+        if (event.active)
+            latestEpoch = event.epoch;
+        final Object listenerEvent = FlightEvents.beginListener(clusterName,
+                event.active ? FlightEvents.ACTIVE : FlightEvents.BACKUP, latestEpoch);
+        if (dispatcher.isCoalescing() && event.active == deliveredActive) {
+            if (event.active)
+                downstream.onEpochChanged(event.epoch);
+        }
+        else if (event.active)
+            downstream.onActive(event.msg, event.epoch);
+        else
+            downstream.onBackup();
+        deliveredActive = event.active;
+        FlightEvents.end(listenerEvent);
+        metrics.listenerCompleted(System.nanoTime() - startNanos);
+    }
+
+    final private FTBackend backend;
+    final private String clusterName;
+    final private boolean stateful;
+    final private long fetchTimeoutMillis;
+    final private EventDispatcher dispatcher;
+    final private StateMirror mirror;
+    final private HandoffChannel handoff;
+    final private EpochSource epochs;
+    final private FTMetrics metrics;
+    final private RoleListener downstream;
+    final private AtomicLong generations = new AtomicLong();
+    private volatile long lostNanos;
+    // Epoch of the latest activation delivered, for diagnostics
+    private volatile long latestEpoch;
+    // Only touched by the dispatcher, one event at a time; every member starts out as Backup
+    private boolean deliveredActive;
+}
@@ -0,0 +1,42 @@
+package com.solacesystems.poc;
+
+/**
+ * One cluster to join in a bulk bind; see {@link FTBackend#bindExclusiveAll(java.util.List, int)}.
+ */
+public class BindRequest {
+
+    /**
+     * @param clusterName Exclusive cluster for FT-selection.
+     * @param outputSubscription Subscription to topic matching output from the Active FT-Cluster member,
+     *                           or null for a stateless binding.
+     * @param priority Rank among the Backups; see {@link FTBackend#bindExclusive(String, String, int, FTEventListener)}.
+     * @param listener Event listener to be invoked for any FT state event changes.
+     */
+    public BindRequest(String clusterName, String outputSubscription, int priority, FTEventListener listener) {
+        this.clusterName = clusterName;
+        this.outputSubscription = outputSubscription;
+        this.priority = priority;
+        this.listener = listener;
+    }
+
+    public String getClusterName() {
+        return clusterName;
+    }
+
+    public String getOutputSubscription() {
+        return outputSubscription;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public FTEventListener getListener() {
+        return listener;
+    }
+
+    final private String clusterName;
+    final private String outputSubscription;
+    final private int priority;
+    final private FTEventListener listener;
+}
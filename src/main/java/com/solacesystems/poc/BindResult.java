@@ -0,0 +1,43 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.JCSMPException;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-cluster outcome of a bulk bind: the clusters joined, and the error that kept each other cluster from
+ * being joined.
+ */
+public class BindResult {
+
+    BindResult(List<String> bound, Map<String, JCSMPException> failures) {
+        this.bound = Collections.unmodifiableList(bound);
+        this.failures = Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * @return The names of the clusters joined, in request order.
+     */
+    public List<String> getBound() {
+        return bound;
+    }
+
+    /**
+     * @return The error of every cluster that could not be joined, keyed by cluster name in request order.
+     */
+    public Map<String, JCSMPException> getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return true if every requested cluster was joined.
+     */
+    public boolean isComplete() {
+        return failures.isEmpty();
+    }
+
+    final private List<String> bound;
+    final private Map<String, JCSMPException> failures;
+}
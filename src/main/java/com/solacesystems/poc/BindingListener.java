@@ -0,0 +1,18 @@
+package com.solacesystems.poc;
+
+/**
+ * Internal extension of {@link com.solacesystems.poc.FTEventListener} told when a backend loses a cluster binding
+ * through no action of the member, e.g. a session or flow failure, and when the binding is restored. A member that
+ * lost its binding is Backup until the backend binds it again.
+ */
+interface BindingListener extends FTEventListener {
+    /**
+     * The binding was lost; this member is no longer Active.
+     */
+    void onBindingLost();
+
+    /**
+     * The binding was restored; role events follow as for a new binding.
+     */
+    void onBindingRestored();
+}
@@ -0,0 +1,25 @@
+package com.solacesystems.poc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Interface for applications restoring their state from a {@link com.solacesystems.poc.Checkpointer}:
+ * first every chunk of the latest snapshot, possibly several at once, then every delta published after it, in order.
+ */
+public interface CheckpointHandler {
+    /**
+     * Invoked for each chunk of the latest snapshot. Chunks are delivered concurrently and in no particular order,
+     * so implementations must be thread-safe and place each chunk by its index.
+     * @param snapshotId Identifier of the snapshot being restored.
+     * @param chunkIndex Index of the chunk within the snapshot, from <code>0</code>.
+     * @param chunk Read-only view of the chunk's bytes, valid only for the duration of the call.
+     */
+    public void onSnapshotChunk(long snapshotId, int chunkIndex, ByteBuffer chunk);
+
+    /**
+     * Invoked for each delta published after the snapshot, in publishing order, once all chunks have been delivered.
+     * @param sequence Sequence number of the delta.
+     * @param delta Read-only view of the delta's bytes, valid only for the duration of the call.
+     */
+    public void onDelta(long sequence, ByteBuffer delta);
+}
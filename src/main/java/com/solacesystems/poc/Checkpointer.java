@@ -0,0 +1,391 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import com.solacesystems.jcsmp.SDTException;
+import com.solacesystems.jcsmp.SDTMap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+
+/**
+ * <p>Checkpoints application state larger than a single message as periodic snapshots plus a journal of deltas,
+ * on three guaranteed queues named after the checkpoint: <code>name/snapshot</code>, <code>name/delta</code> and
+ * <code>name/manifest</code>. Obtain instances from {@link com.solacesystems.poc.FTMgr#createCheckpointer(String)}.</p>
+ *
+ * <p>The Active member calls {@link #appendDelta(byte[])} for every state change and {@link #writeSnapshot(InputStream)}
+ * periodically. A snapshot is streamed into fixed-size chunks, and only once the broker acknowledged every chunk is a
+ * manifest published to commit it, after which, once acknowledged too, older snapshots and the deltas it covers are
+ * removed. A newly
+ * Active member calls {@link #recover(CheckpointHandler, Executor, int)} to restore the latest committed snapshot,
+ * chunks in parallel, then replay only the deltas published since. Neither side buffers a whole snapshot in memory.</p>
+ *
+ * <p>Only the Active member writes. Deltas, snapshot chunks and manifests are stamped with the epoch the write
+ * started in, and refused once this member is no longer Active in that epoch, checked before every batch of chunks
+ * and again before the manifest commits the snapshot, so that a deposed member cannot commit a snapshot the next
+ * Active member would restore.</p>
+ */
+public class Checkpointer {
+    static final String SNAPSHOT_ID = "solft.ckpt.snapshot";
+    static final String CHUNK_INDEX = "solft.ckpt.chunk";
+    static final String CHUNK_COUNT = "solft.ckpt.chunks";
+    static final String SEQUENCE = "solft.ckpt.seq";
+
+    // Chunks published together, bounding both the sends per snapshot and the chunks held in memory at once
+    private static final int CHUNKS_PER_BATCH = 16;
+
+    Checkpointer(FTMgr ftMgr, FTBackend backend, String checkpointName) throws JCSMPException {
+        this.ftMgr = ftMgr;
+        this.backend = backend;
+        this.snapshotTopic = checkpointName + "/snapshot";
+        this.deltaTopic = checkpointName + "/delta";
+        this.manifestTopic = checkpointName + "/manifest";
+        backend.provisionQueue(snapshotTopic, snapshotTopic);
+        backend.provisionQueue(deltaTopic, deltaTopic);
+        backend.provisionQueue(manifestTopic, manifestTopic);
+    }
+
+    /**
+     * Sets the size of each snapshot chunk. Must be called before writing snapshots.
+     * @param chunkSize Chunk size in bytes; defaults to 64KB.
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Sets the maximum time to wait for the broker to return each message while recovering or trimming.
+     * @param timeoutMillis Browse timeout in milliseconds; defaults to 1000.
+     */
+    public void setBrowseTimeout(int timeoutMillis) {
+        this.browseTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Sets the maximum time to wait for the broker to acknowledge a snapshot's chunks, and then its manifest.
+     * @param timeoutMillis Acknowledgement timeout in milliseconds; defaults to 10000.
+     */
+    public void setAckTimeout(long timeoutMillis) {
+        this.ackTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Journals a state change.
+     * @param delta Bytes describing the change.
+     * @return Sequence number assigned to the delta.
+     * @throws JCSMPException In the event of any error publishing the delta.
+     */
+    public long appendDelta(byte[] delta) throws JCSMPException {
+        return appendDelta(delta, 0, delta.length);
+    }
+
+    /**
+     * Journals a state change.
+     * @param delta Buffer holding bytes describing the change.
+     * @param offset Offset of the change within the buffer.
+     * @param length Length of the change.
+     * @return Sequence number assigned to the delta.
+     * @throws JCSMPException If this member is not Active, or in the event of any error publishing the delta.
+     */
+    public synchronized long appendDelta(byte[] delta, int offset, int length) throws JCSMPException {
+        final long epoch = activeEpoch("delta");
+        final long seq = sequence + 1;
+        final BytesXMLMessage msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        msg.writeAttachment(delta, offset, length);
+        final SDTMap props = JCSMPFactory.onlyInstance().createMap();
+        props.putLong(SEQUENCE, seq);
+        props.putLong(FTMgr.EPOCH_PROPERTY, epoch);
+        msg.setProperties(props);
+        backend.publish(deltaTopic, msg);
+        sequence = seq;
+        return seq;
+    }
+
+    /**
+     * Writes a snapshot of the full state, covering every delta appended so far, then commits it and trims older
+     * snapshots and covered deltas. The state is read and published one chunk at a time. The manifest is only
+     * published once the broker acknowledged every chunk, and older snapshots and covered deltas only trimmed once
+     * it acknowledged the manifest, so a snapshot that fails to commit never costs the previous one. Deltas can be
+     * appended while the snapshot is acknowledged and the queues trimmed.
+     * @param state Stream of the serialized state; read to its end but not closed.
+     * @return Identifier of the committed snapshot.
+     * @throws JCSMPException If this member is not Active, or loses leadership before the snapshot is committed, in
+     *                        the event of any error publishing the snapshot, its chunks or manifest not being
+     *                        acknowledged within the acknowledgement timeout, or any error trimming the queues.
+     * @throws IOException In the event of any error reading the state.
+     */
+    public long writeSnapshot(InputStream state) throws JCSMPException, IOException {
+        final long snapshotId;
+        final long coveredSequence;
+        final long epoch;
+        final List<CompletableFuture<Void>> acks = new ArrayList<>();
+        int chunks = 0;
+        synchronized (this) {
+            epoch = activeEpoch("snapshot");
+            snapshotId = Math.max(lastSnapshotId + 1, System.currentTimeMillis());
+            lastSnapshotId = snapshotId;
+            coveredSequence = sequence;
+            final byte[] buffer = new byte[chunkSize];
+            final List<String> topics = Collections.nCopies(CHUNKS_PER_BATCH, snapshotTopic);
+            final List<BytesXMLMessage> batch = new ArrayList<>(CHUNKS_PER_BATCH);
+            boolean last = false;
+            while (!last) {
+                final int length = readFully(state, buffer);
+                if (length == 0 && chunks > 0)
+                    break;
+                final BytesXMLMessage chunk = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+                chunk.writeAttachment(buffer, 0, length);
+                final SDTMap props = JCSMPFactory.onlyInstance().createMap();
+                props.putLong(SNAPSHOT_ID, snapshotId);
+                props.putInteger(CHUNK_INDEX, chunks);
+                props.putLong(FTMgr.EPOCH_PROPERTY, epoch);
+                chunk.setProperties(props);
+                batch.add(chunk);
+                chunks++;
+                last = length < buffer.length;
+                if (batch.size() == CHUNKS_PER_BATCH || last) {
+                    checkEpoch(epoch, "snapshot " + snapshotId);
+                    acks.add(backend.publishAll(topics.subList(0, batch.size()), new ArrayList<>(batch)));
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                checkEpoch(epoch, "snapshot " + snapshotId);
+                acks.add(backend.publishAll(topics.subList(0, batch.size()), batch));
+            }
+        }
+        await(CompletableFuture.allOf(acks.toArray(new CompletableFuture<?>[0])), "snapshot " + snapshotId);
+
+        final BytesXMLMessage manifest = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        final SDTMap props = JCSMPFactory.onlyInstance().createMap();
+        props.putLong(SNAPSHOT_ID, snapshotId);
+        props.putInteger(CHUNK_COUNT, chunks);
+        props.putLong(SEQUENCE, coveredSequence);
+        props.putLong(FTMgr.EPOCH_PROPERTY, epoch);
+        manifest.setProperties(props);
+        checkEpoch(epoch, "manifest of snapshot " + snapshotId);
+        await(backend.publishAll(Collections.singletonList(manifestTopic), Collections.singletonList(manifest)),
+                "manifest of snapshot " + snapshotId);
+
+        // Trimming never removes a later snapshot committed meanwhile, nor the deltas it did not cover
+        synchronized (trimLock) {
+            removeWhere(snapshotTopic, msg -> longProperty(msg, SNAPSHOT_ID) < snapshotId);
+            removeWhere(manifestTopic, msg -> longProperty(msg, SNAPSHOT_ID) < snapshotId);
+            removeWhere(deltaTopic, msg -> longProperty(msg, SEQUENCE) <= coveredSequence);
+        }
+        return snapshotId;
+    }
+
+    /**
+     * Restores the latest committed snapshot and replays the deltas appended after it. Snapshot chunks are handed
+     * to the handler on the executor, at most <code>parallelism</code> at a time; deltas are handed over in order
+     * on the calling thread once every chunk has been handled. Afterwards, deltas appended through this instance
+     * continue the recovered sequence.
+     * @param handler Handler restoring the state.
+     * @param executor Executor to hand snapshot chunks to the handler on.
+     * @param parallelism Maximum number of chunks being handled at once.
+     * @return Sequence number of the last delta replayed, or covered by the snapshot.
+     * @throws JCSMPException In the event of any error browsing the queues, an incomplete snapshot, or any
+     *                        error raised by the handler.
+     */
+    public synchronized long recover(final CheckpointHandler handler, Executor executor, int parallelism) throws JCSMPException {
+        if (parallelism <= 0)
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        final BytesXMLMessage manifest = last(manifestTopic);
+        long recovered = 0;
+        if (manifest != null) {
+            final long snapshotId = longProperty(manifest, SNAPSHOT_ID);
+            final int expectedChunks = intProperty(manifest, CHUNK_COUNT);
+            recovered = longProperty(manifest, SEQUENCE);
+            final int restored = restoreSnapshot(handler, executor, parallelism, snapshotId);
+            if (restored != expectedChunks)
+                throw new JCSMPException("Snapshot " + snapshotId + " has " + restored + " of " + expectedChunks + " chunks");
+            lastSnapshotId = snapshotId;
+        }
+
+        final FTBrowser deltas = backend.browse(deltaTopic);
+        try {
+            BytesXMLMessage msg;
+            while ((msg = deltas.next(browseTimeoutMillis)) != null) {
+                final long seq = longProperty(msg, SEQUENCE);
+                if (seq > recovered) {
+                    handler.onDelta(seq, msg.getAttachmentByteBuffer().asReadOnlyBuffer());
+                    recovered = seq;
+                }
+            }
+        }
+        finally {
+            deltas.close();
+        }
+        sequence = Math.max(sequence, recovered);
+        return recovered;
+    }
+
+    /**
+     * @return Sequence number of the last delta appended or recovered through this instance.
+     */
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    private int restoreSnapshot(final CheckpointHandler handler, Executor executor, int parallelism, final long snapshotId) throws JCSMPException {
+        final Semaphore inFlight = new Semaphore(parallelism);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final FTBrowser chunks = backend.browse(snapshotTopic);
+        int dispatched = 0;
+        try {
+            BytesXMLMessage msg;
+            while (failure.get() == null && (msg = chunks.next(browseTimeoutMillis)) != null) {
+                if (longProperty(msg, SNAPSHOT_ID) != snapshotId)
+                    continue;
+                final int index = intProperty(msg, CHUNK_INDEX);
+                final ByteBuffer chunk = msg.getAttachmentByteBuffer().asReadOnlyBuffer();
+                inFlight.acquireUninterruptibly();
+                try {
+                    executor.execute(() -> {
+                        try {
+                            handler.onSnapshotChunk(snapshotId, index, chunk);
+                        }
+                        catch (RuntimeException e) {
+                            failure.compareAndSet(null, e);
+                        }
+                        finally {
+                            inFlight.release();
+                        }
+                    });
+                }
+                catch (RejectedExecutionException e) {
+                    inFlight.release();
+                    failure.compareAndSet(null, e);
+                }
+                dispatched++;
+            }
+        }
+        finally {
+            chunks.close();
+            // Wait for every chunk in flight to be handled
+            inFlight.acquireUninterruptibly(parallelism);
+            inFlight.release(parallelism);
+        }
+        if (failure.get() != null)
+            throw new JCSMPException("Error restoring snapshot " + snapshotId, failure.get());
+        return dispatched;
+    }
+
+    private BytesXMLMessage last(String queueName) throws JCSMPException {
+        final FTBrowser browser = backend.browse(queueName);
+        try {
+            BytesXMLMessage last = null, msg;
+            while ((msg = browser.next(browseTimeoutMillis)) != null)
+                last = msg;
+            return last;
+        }
+        finally {
+            browser.close();
+        }
+    }
+
+    private void removeWhere(String queueName, Predicate<BytesXMLMessage> condition) throws JCSMPException {
+        final FTBrowser browser = backend.browse(queueName);
+        try {
+            BytesXMLMessage msg;
+            while ((msg = browser.next(browseTimeoutMillis)) != null) {
+                if (condition.test(msg))
+                    browser.remove(msg);
+            }
+        }
+        finally {
+            browser.close();
+        }
+    }
+
+    /**
+     * @return The epoch of this member's leadership.
+     * @throws JCSMPException If this member is not Active.
+     */
+    private long activeEpoch(String what) throws JCSMPException {
+        final long epoch = ftMgr.getEpoch();
+        checkEpoch(epoch, what);
+        return epoch;
+    }
+
+    private void checkEpoch(long epoch, String what) throws JCSMPException {
+        if (!ftMgr.checkEpoch(epoch))
+            throw new JCSMPException("Not the Active member in epoch " + epoch + "; " + what + " refused");
+    }
+
+    private void await(CompletableFuture<Void> acked, String what) throws JCSMPException {
+        try {
+            acked.get(ackTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e) {
+            throw new JCSMPException("Timed out publishing " + what, e);
+        }
+        catch (ExecutionException e) {
+            throw new JCSMPException("Error publishing " + what, e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JCSMPException("Interrupted publishing " + what, e);
+        }
+    }
+
+    private static long longProperty(BytesXMLMessage msg, String name) {
+        try {
+            final Long value = msg.getProperties() == null ? null : msg.getProperties().getLong(name);
+            return value == null ? -1 : value;
+        }
+        catch (SDTException e) {
+            return -1;
+        }
+    }
+
+    private static int intProperty(BytesXMLMessage msg, String name) {
+        try {
+            final Integer value = msg.getProperties() == null ? null : msg.getProperties().getInteger(name);
+            return value == null ? -1 : value;
+        }
+        catch (SDTException e) {
+            return -1;
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            final int read = in.read(buffer, total, buffer.length - total);
+            if (read < 0)
+                break;
+            total += read;
+        }
+        return total;
+    }
+
+    final private FTMgr ftMgr;
+    final private FTBackend backend;
+    final private String snapshotTopic;
+    final private String deltaTopic;
+    final private String manifestTopic;
+    final private Object trimLock = new Object();
+    private int chunkSize = 64 * 1024;
+    private int browseTimeoutMillis = 1000;
+    private long ackTimeoutMillis = 10000;
+    private long sequence;
+    private long lastSnapshotId;
+}
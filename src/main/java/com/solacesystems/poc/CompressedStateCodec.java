@@ -0,0 +1,110 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Internal codec compressing the bytes of another codec with DEFLATE. The compressed bytes are preceded by the
+ * length of the uncompressed bytes, so that decoding inflates straight into a buffer of the right size. Messages
+ * are inflated straight from the array behind their attachment, which a read-only view would hide; the wrapped
+ * codec still only sees a read-only view of the inflated bytes.
+ */
+class CompressedStateCodec<T> implements StateCodec<T> {
+
+    CompressedStateCodec(StateCodec<T> codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    public ByteBuffer encode(T value) throws IOException {
+        final ByteBuffer plain = codec.encode(value);
+        final int plainLength = plain.remaining();
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            if (plain.hasArray())
+                deflater.setInput(plain.array(), plain.arrayOffset() + plain.position(), plainLength);
+            else
+                deflater.setInput(toArray(plain));
+            deflater.finish();
+            // DEFLATE never grows its input by more than a few bytes per 16K block
+            byte[] compressed = new byte[4 + plainLength + plainLength / 1000 + 64];
+            int length = 4;
+            while (!deflater.finished()) {
+                if (length == compressed.length)
+                    compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                length += deflater.deflate(compressed, length, compressed.length - length);
+            }
+            final ByteBuffer encoded = ByteBuffer.wrap(compressed, 0, length);
+            encoded.putInt(0, plainLength);
+            return encoded;
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public T fromMessage(BytesXMLMessage msg) throws IOException {
+        if (msg == null)
+            return null;
+        final ByteBuffer attachment = msg.getAttachmentByteBuffer();
+        return decode(attachment == null ? ByteBuffer.allocate(0) : attachment.duplicate());
+    }
+
+    @Override
+    public T decode(ByteBuffer state) throws IOException {
+        if (state.remaining() < 4)
+            throw new IOException("Compressed state is truncated");
+        final int length = state.getInt(state.position());
+        if (length < 0)
+            throw new IOException("Compressed state has a negative length");
+        final int compressedLength = state.remaining() - 4;
+        // Checked before allocating, so a corrupt length prefix cannot claim more memory than its bytes could fill
+        if (length > (long) compressedLength * MAX_RATIO + 64)
+            throw new IOException("Compressed state of " + compressedLength + " bytes cannot hold " + length + " bytes");
+        final byte[] plain = new byte[length];
+        final Inflater inflater = new Inflater();
+        try {
+            if (state.hasArray())
+                inflater.setInput(state.array(), state.arrayOffset() + state.position() + 4, compressedLength);
+            else {
+                final ByteBuffer compressed = state.duplicate();
+                compressed.position(state.position() + 4);
+                inflater.setInput(toArray(compressed));
+            }
+            int inflated = 0;
+            while (inflated < length && !inflater.finished()) {
+                final int n = inflater.inflate(plain, inflated, length - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IOException("Compressed state is truncated");
+                inflated += n;
+            }
+            if (inflated != length)
+                throw new IOException("Compressed state is shorter than its recorded length");
+        }
+        catch (DataFormatException e) {
+            throw new IOException("Compressed state is corrupt", e);
+        }
+        finally {
+            inflater.end();
+        }
+        return codec.decode(ByteBuffer.wrap(plain).asReadOnlyBuffer());
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    // DEFLATE inflates each byte into at most 1032 bytes
+    private static final int MAX_RATIO = 1032;
+
+    final private StateCodec<T> codec;
+}
@@ -0,0 +1,34 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+
+/**
+ * Internal pairing of a direct topic subscription with the listener it delivers to, used by backends
+ * demultiplexing one stream of direct messages across several subscribers.
+ */
+class DirectSubscription {
+    DirectSubscription(String subscription, FTMessageListener listener) {
+        this.subscription = subscription;
+        this.listener = listener;
+    }
+
+    /**
+     * Delivers the message to the listener if its topic matches this subscription.
+     * @param topic Topic the message was published on.
+     * @param msg The message.
+     * @return Whether the message matched.
+     */
+    boolean deliver(String topic, BytesXMLMessage msg) {
+        if (!TopicMatcher.matches(subscription, topic))
+            return false;
+        listener.onMessage(topic, msg);
+        return true;
+    }
+
+    boolean isFor(String subscription, FTMessageListener listener) {
+        return this.subscription.equals(subscription) && this.listener == listener;
+    }
+
+    final String subscription;
+    final FTMessageListener listener;
+}
@@ -0,0 +1,57 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.SDTException;
+import com.solacesystems.jcsmp.XMLMessage;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rejects output stamped with a stale leadership epoch. Consumers of a FT-Cluster's output pass the epoch stamped
+ * on each message (see {@link com.solacesystems.poc.FTMgr#stampEpoch(XMLMessage)}) to {@link #accept(long)}; once
+ * output from a newer epoch has been accepted, output still arriving from a deposed Active member is rejected.
+ * Lock-free and safe to share between threads. {@link #accept(long)} is allocation-free; {@link #accept(XMLMessage)}
+ * is not, as JCSMP decodes a message's user properties, and boxes their values, when they are read.
+ */
+public class EpochFence {
+
+    /**
+     * Accepts an epoch if it is at least as new as every epoch accepted so far.
+     * @param epoch Epoch stamped on the output.
+     * @return false if the output is from a stale epoch and should be discarded.
+     */
+    public boolean accept(long epoch) {
+        long highest;
+        do {
+            highest = highestEpoch.get();
+            if (epoch < highest)
+                return false;
+        } while (epoch > highest && !highestEpoch.compareAndSet(highest, epoch));
+        return true;
+    }
+
+    /**
+     * Accepts a message if the epoch stamped on it is at least as new as every epoch accepted so far.
+     * Messages without an epoch stamp are accepted. Reading the stamp allocates; consumers with an allocation-free
+     * path should carry the epoch in their own payload and pass it to {@link #accept(long)}.
+     * @param msg Output message.
+     * @return false if the output is from a stale epoch and should be discarded.
+     */
+    public boolean accept(XMLMessage msg) {
+        try {
+            final Long epoch = msg.getProperties() == null ? null : msg.getProperties().getLong(FTMgr.EPOCH_PROPERTY);
+            return epoch == null || accept(epoch.longValue());
+        }
+        catch (SDTException e) {
+            return true;
+        }
+    }
+
+    /**
+     * @return The newest epoch accepted so far.
+     */
+    public long getHighestEpoch() {
+        return highestEpoch.get();
+    }
+
+    final private AtomicLong highestEpoch = new AtomicLong();
+}
@@ -0,0 +1,23 @@
+package com.solacesystems.poc;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Internal source of leadership epochs, advanced once for every activation of a cluster binding.
+ */
+interface EpochSource {
+    /**
+     * Advances to the next epoch.
+     * @return A future completed with the new epoch, or completed exceptionally if no new epoch could be started.
+     */
+    CompletableFuture<Long> next();
+
+    /**
+     * Epochs counted by this member alone: monotonic for this member, but not comparable across members.
+     */
+    static EpochSource local() {
+        final AtomicLong epochs = new AtomicLong();
+        return () -> CompletableFuture.completedFuture(epochs.incrementAndGet());
+    }
+}
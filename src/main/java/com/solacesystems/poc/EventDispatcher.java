@@ -0,0 +1,191 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Internal dispatcher delivering the role events of one cluster binding to its listener, in the order they were
+ * submitted and one at a time, on any executor. Submitting never blocks: events queue up while the listener is busy,
+ * and each binding drains its own queue, so a slow listener only delays later events of its own cluster.
+ *
+ * <p>With a coalescing window, events are held for the window following the first event of a burst and only the
+ * last of them is delivered, so a flap from Active to Backup and back costs the listener one transition or none.
+ * An event of an earlier generation than the one it would replace, e.g. an activation whose state fetch completed
+ * after a later flow event, never replaces it.</p>
+ */
+class EventDispatcher {
+    private static final Logger logger = LoggerFactory.getLogger(EventDispatcher.class);
+
+    private static final ExecutorService sharedExecutor = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "solft-listener");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Executor listeners run on by default when the backend raises events on a thread they must not block,
+     * e.g. a Solace session's context thread. Shared by every dispatcher in the JVM; each still delivers in order.
+     */
+    static Executor sharedExecutor() {
+        return sharedExecutor;
+    }
+
+    /**
+     * One role event of a binding.
+     */
+    static final class Event {
+        Event(boolean active, BytesXMLMessage msg, long epoch, long eventNanos, long generation) {
+            this.active = active;
+            this.msg = msg;
+            this.epoch = epoch;
+            this.eventNanos = eventNanos;
+            this.generation = generation;
+        }
+
+        final boolean active;
+        final BytesXMLMessage msg;
+        final long epoch;
+        final long eventNanos;
+        final long generation;
+    }
+
+    /**
+     * @param executor Executor to deliver events on; need not run tasks one at a time.
+     * @param coalesceWindowMillis Window following the first event of a burst during which later events replace it,
+     *                             or 0 to deliver every event.
+     * @param sink Receiver of the delivered events.
+     */
+    EventDispatcher(Executor executor, long coalesceWindowMillis, Consumer<Event> sink) {
+        this.executor = executor;
+        this.coalesceWindowMillis = coalesceWindowMillis;
+        this.sink = sink;
+    }
+
+    /**
+     * @return Whether events within the coalescing window replace each other.
+     */
+    boolean isCoalescing() {
+        return coalesceWindowMillis > 0;
+    }
+
+    /**
+     * Queues an event for delivery; ignored once the dispatcher is closed.
+     */
+    void submit(Event event) {
+        synchronized (queue) {
+            if (closing)
+                return;
+            if (isCoalescing()) {
+                if (burst != null && event.generation < burst.generation)
+                    return;
+                final boolean opening = burst == null;
+                burst = event;
+                if (opening)
+                    Timeouts.schedule(this::closeBurst, coalesceWindowMillis, TimeUnit.MILLISECONDS);
+                return;
+            }
+            queue.add(event);
+        }
+        drain();
+    }
+
+    /**
+     * Delivers a last event once every event already queued was delivered, dropping any burst still being coalesced
+     * and every event submitted later.
+     * @param last The last event to deliver.
+     * @return A future completed once the last event was delivered.
+     */
+    CompletableFuture<Void> close(Event last) {
+        synchronized (queue) {
+            closing = true;
+            burst = null;
+            queue.add(last);
+        }
+        drain();
+        return closed;
+    }
+
+    /**
+     * @return Whether the calling thread is delivering an event of this dispatcher, i.e. is running its listener.
+     */
+    boolean isDelivering() {
+        return deliveringThread == Thread.currentThread();
+    }
+
+    private void closeBurst() {
+        synchronized (queue) {
+            if (burst == null)
+                return;
+            queue.add(burst);
+            burst = null;
+        }
+        drain();
+    }
+
+    private void drain() {
+        synchronized (queue) {
+            if (draining || queue.isEmpty())
+                return;
+            draining = true;
+        }
+        try {
+            executor.execute(this::deliver);
+        }
+        catch (RuntimeException e) {
+            final boolean failed;
+            synchronized (queue) {
+                draining = false;
+                failed = closing;
+            }
+            logger.error("Error submitting role events for delivery", e);
+            if (failed)
+                closed.completeExceptionally(e);
+        }
+    }
+
+    private void deliver() {
+        deliveringThread = Thread.currentThread();
+        try {
+            while (true) {
+                final Event event;
+                synchronized (queue) {
+                    event = queue.poll();
+                    if (event == null) {
+                        draining = false;
+                        if (closing)
+                            closed.complete(null);
+                        return;
+                    }
+                }
+                try {
+                    sink.accept(event);
+                }
+                catch (RuntimeException e) {
+                    logger.error("Error in role event listener", e);
+                }
+            }
+        }
+        finally {
+            deliveringThread = null;
+        }
+    }
+
+    final private Executor executor;
+    final private long coalesceWindowMillis;
+    final private Consumer<Event> sink;
+    final private ArrayDeque<Event> queue = new ArrayDeque<>();
+    final private CompletableFuture<Void> closed = new CompletableFuture<>();
+    private Event burst;
+    private boolean draining;
+    private boolean closing;
+    private volatile Thread deliveringThread;
+}
@@ -0,0 +1,190 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Election backend used by the {@link com.solacesystems.poc.FTMgr} to join FT-Clusters. A backend provides
+ * exclusive-queue semantics for each named cluster: the first member bound to a cluster is Active, the rest
+ * are Backups in the order they bound, and whenever the Active member unbinds the next Backup in line is promoted.
+ *
+ * <p>Backends only report flow events: the message passed to
+ * {@link FTEventListener#onActive(com.solacesystems.jcsmp.BytesXMLMessage)} by a backend is always <code>null</code>,
+ * and must be delivered without blocking the thread raising the event. Stateful members fetch the previous
+ * Active member's output separately, via {@link #fetchLastValue(String, long)}.</p>
+ *
+ * <p>Two implementations ship with the library: the Solace implementation created by the
+ * {@link com.solacesystems.poc.FTMgr#FTMgr(java.util.Properties)} and
+ * {@link com.solacesystems.poc.FTMgr#FTMgr(com.solacesystems.jcsmp.JCSMPSession)} constructors, and the
+ * in-process {@link com.solacesystems.poc.LoopbackConnection} which needs no Solace Message Broker at all.</p>
+ */
+public interface FTBackend {
+    /**
+     * Bind into an exclusive cluster; a leader is selected from all members bound to a given cluster.
+     * @param clusterName Exclusive cluster for FT-selection.
+     * @param listener Event listener to be invoked for any FT state event changes.
+     * @throws JCSMPException In the event of any error joining the FT-cluster.
+     */
+    void bindExclusive(String clusterName, FTEventListener listener) throws JCSMPException;
+
+    /**
+     * Bind into an exclusive cluster as in {@link #bindExclusive(String, FTEventListener)}, additionally
+     * retaining the last message published on any topic matching the output subscription, so that it can
+     * be fetched with {@link #fetchLastValue(String, long)}.
+     * @param clusterName Exclusive cluster for FT-selection.
+     * @param outputSubscription Subscription to topic matching output from the Active FT-Cluster member.
+     * @param listener Event listener to be invoked for any FT state event changes.
+     * @throws JCSMPException In the event of any error joining the FT-cluster.
+     */
+    void bindExclusive(String clusterName, String outputSubscription, FTEventListener listener) throws JCSMPException;
+
+    /**
+     * Bind into an exclusive cluster with a priority ranking this member among the Backups: a Backup binding with a
+     * higher priority is placed ahead of every Backup with a lower one, and among equal priorities Backups keep their
+     * bind order. The Active member is never displaced by a higher priority Backup. Backends that cannot rank Backups
+     * ignore the priority. Solace exclusive queues promote Backups in the order they bound, so the Solace backend
+     * has lower priority Backups bind again behind a higher priority one, which leaves them in bind order for a moment.
+     * @param clusterName Exclusive cluster for FT-selection.
+     * @param outputSubscription Subscription to topic matching output from the Active FT-Cluster member,
+     *                           or null to bind as in {@link #bindExclusive(String, FTEventListener)}.
+     * @param priority Rank among the Backups; higher is first in line.
+     * @param listener Event listener to be invoked for any FT state event changes.
+     * @throws JCSMPException In the event of any error joining the FT-cluster.
+     */
+    default void bindExclusive(String clusterName, String outputSubscription, int priority, FTEventListener listener) throws JCSMPException {
+        if (outputSubscription == null)
+            bindExclusive(clusterName, listener);
+        else
+            bindExclusive(clusterName, outputSubscription, listener);
+    }
+
+    /**
+     * Bind into many clusters at once, as if by {@link #bindExclusive(String, String, int, FTEventListener)} for each
+     * request. A failure to join one cluster does not stop the others from being joined; every failure is collected
+     * in the result. Backends may pipeline the round-trips of different clusters, up to the given concurrency, and
+     * start every flow together once all are created; this default implementation binds one cluster after another.
+     * @param requests Clusters to join.
+     * @param concurrency Maximum number of clusters provisioned and bound concurrently.
+     * @return The outcome of every request.
+     */
+    default BindResult bindExclusiveAll(List<BindRequest> requests, int concurrency) {
+        final List<String> bound = new ArrayList<>();
+        final Map<String, JCSMPException> failures = new LinkedHashMap<>();
+        for (BindRequest request : requests) {
+            try {
+                bindExclusive(request.getClusterName(), request.getOutputSubscription(), request.getPriority(), request.getListener());
+                bound.add(request.getClusterName());
+            }
+            catch (JCSMPException e) {
+                failures.put(request.getClusterName(), e);
+            }
+            catch (RuntimeException e) {
+                failures.put(request.getClusterName(), new JCSMPException("Error binding to cluster " + request.getClusterName(), e));
+            }
+        }
+        return new BindResult(bound, failures);
+    }
+
+    /**
+     * Asynchronously fetch the last output message retained by a cluster bound with an output subscription.
+     * @param clusterName Exclusive cluster for FT-selection.
+     * @param timeoutMillis Maximum time to wait for the broker to return the message.
+     * @return A future completed with the last output message, with <code>null</code> if none was found in time,
+     *         or exceptionally in the event of any error fetching it.
+     */
+    CompletableFuture<BytesXMLMessage> fetchLastValue(String clusterName, long timeoutMillis);
+
+    /**
+     * Subscribe to messages published on any topic matching a subscription, delivered directly to this member
+     * rather than retained by a cluster queue. Messages must be delivered without blocking the publisher.
+     * @param subscription Topic subscription string, possibly including wildcards.
+     * @param listener Listener to be invoked for every matching message.
+     * @throws JCSMPException In the event of any error adding the subscription.
+     */
+    void subscribe(String subscription, FTMessageListener listener) throws JCSMPException;
+
+    /**
+     * Remove a subscription made by {@link #subscribe(String, FTMessageListener)}.
+     * @param subscription Topic subscription string passed to subscribe.
+     * @param listener Listener passed to subscribe.
+     * @throws JCSMPException In the event of any error removing the subscription.
+     */
+    void unsubscribe(String subscription, FTMessageListener listener) throws JCSMPException;
+
+    /**
+     * Create a queue retaining every guaranteed message published on topics matching the subscription, in the
+     * order they were published, until removed through an {@link FTBrowser}. Nothing happens if it already exists.
+     * @param queueName Name of the queue.
+     * @param subscription Topic subscription string mapped to the queue.
+     * @throws JCSMPException In the event of any error provisioning or subscribing the queue.
+     */
+    void provisionQueue(String queueName, String subscription) throws JCSMPException;
+
+    /**
+     * Publish a guaranteed message on a topic, to be retained by every queue with a matching subscription.
+     * @param topic Topic to publish the message on.
+     * @param msg Message to publish.
+     * @throws JCSMPException In the event of any error publishing the message.
+     */
+    void publish(String topic, BytesXMLMessage msg) throws JCSMPException;
+
+    /**
+     * Publish a message on a topic for direct subscribers only, without it being retained or acknowledged; used for
+     * frequent, disposable messages such as heartbeats, which may reuse one message instance. This default
+     * implementation publishes it through {@link #publish(String, BytesXMLMessage)}.
+     * @param topic Topic to publish the message on.
+     * @param msg Message to publish.
+     * @throws JCSMPException In the event of any error publishing the message.
+     */
+    default void publishDirect(String topic, BytesXMLMessage msg) throws JCSMPException {
+        publish(topic, msg);
+    }
+
+    /**
+     * Publish a batch of guaranteed messages without waiting for each to be acknowledged before sending the next,
+     * in order. This default implementation publishes one message after another through
+     * {@link #publish(String, BytesXMLMessage)}.
+     * @param topics Topic to publish each message on, by index.
+     * @param msgs Messages to publish.
+     * @return A future completed once every message was acknowledged, or exceptionally in the event of any error
+     *         publishing them.
+     */
+    default CompletableFuture<Void> publishAll(List<String> topics, List<BytesXMLMessage> msgs) {
+        final CompletableFuture<Void> acked = new CompletableFuture<>();
+        try {
+            for (int i = 0; i < msgs.size(); i++)
+                publish(topics.get(i), msgs.get(i));
+            acked.complete(null);
+        }
+        catch (JCSMPException | RuntimeException e) {
+            acked.completeExceptionally(e);
+        }
+        return acked;
+    }
+
+    /**
+     * Open a streaming browser over the messages retained by a queue.
+     * @param queueName Name of the queue.
+     * @return A new browser positioned before the oldest message.
+     * @throws JCSMPException In the event of any error opening the browser.
+     */
+    FTBrowser browse(String queueName) throws JCSMPException;
+
+    /**
+     * Unbind from one cluster joined through this backend, leaving every other cluster and subscription in place.
+     * If this member was Active, the next Backup in line is promoted.
+     * @param clusterName Exclusive cluster to leave.
+     */
+    void unbind(String clusterName);
+
+    /**
+     * Unbind from every cluster joined through this backend and release its resources.
+     */
+    void stop();
+}
@@ -0,0 +1,43 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPException;
+
+/**
+ * Streaming, non-destructive view over the messages of a queue opened through an
+ * {@link com.solacesystems.poc.FTBackend}. Messages are returned one at a time in the order they were spooled,
+ * so arbitrarily large queues can be read without holding them all in memory.
+ */
+public interface FTBrowser {
+    /**
+     * Returns the next message on the queue. Once every message spooled before the browser was opened has been
+     * returned, null is returned without waiting out the timeout, so browsing a queue takes time proportional to its
+     * length; the timeout only bounds the wait for each message.
+     * @param timeoutMillis Maximum time to wait for the broker to return the message.
+     * @return The next message, or null if there are no more messages, or none arrived within the timeout.
+     * @throws JCSMPException In the event of any error browsing the queue.
+     */
+    BytesXMLMessage next(int timeoutMillis) throws JCSMPException;
+
+    /**
+     * Returns the topic a message returned by {@link #next(int)} was published on. This default implementation
+     * returns the name of the message's destination.
+     * @param msg The message.
+     * @return The topic.
+     */
+    default String topicOf(BytesXMLMessage msg) {
+        return msg.getDestination().getName();
+    }
+
+    /**
+     * Deletes a message returned by {@link #next(int)} from the queue.
+     * @param msg The message to delete.
+     * @throws JCSMPException In the event of any error deleting the message.
+     */
+    void remove(BytesXMLMessage msg) throws JCSMPException;
+
+    /**
+     * Releases the browser. It may no longer be used.
+     */
+    void close();
+}
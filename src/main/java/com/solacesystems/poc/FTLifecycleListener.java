@@ -0,0 +1,20 @@
+package com.solacesystems.poc;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Extension of {@link com.solacesystems.poc.FTEventListener} for members that warm up before joining the election.
+ * When an FTMgr is started with a lifecycle listener it does not bind to the FT-Cluster straight away: the member
+ * starts as Backup, is told it is ready to stand by, and only binds once its warm-up completes, so a JVM that has not
+ * yet primed its caches or compiled its hot paths can never win the election.
+ */
+public interface FTLifecycleListener extends FTEventListener {
+    /**
+     * Invoked once on the thread starting the FTMgr, right after the initial {@link #onBackup()}, to start warming
+     * up: priming caches, exercising hot paths and so on. Long warm-ups should run on another thread and complete
+     * the returned stage when done, so that the start call does not block.
+     * @return A stage completed when warm-up is done, upon which the member binds to the FT-Cluster; if it completes
+     *         exceptionally the member never binds.
+     */
+    public CompletionStage<?> onStandbyReady();
+}
@@ -0,0 +1,16 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+
+/**
+ * Interface for receiving messages published on topics matching a direct subscription made through an
+ * {@link com.solacesystems.poc.FTBackend}.
+ */
+public interface FTMessageListener {
+    /**
+     * Invoked by the backend for every message matching the subscription.
+     * @param topic Topic the message was published on.
+     * @param msg The message received.
+     */
+    public void onMessage(String topic, BytesXMLMessage msg);
+}
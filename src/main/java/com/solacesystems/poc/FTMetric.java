@@ -0,0 +1,24 @@
+package com.solacesystems.poc;
+
+/**
+ * Measurements recorded by {@link com.solacesystems.poc.FTMetrics} and passed to an
+ * {@link com.solacesystems.poc.FTMetricsSink}. All durations are in nanoseconds.
+ */
+public enum FTMetric {
+    /** This member became Active; the value is the time spent Backup before the transition. */
+    ROLE_ACTIVE,
+    /** This member became Backup; the value is the time spent Active before the transition. */
+    ROLE_BACKUP,
+    /** Time from the backend raising a flow event to the listener being invoked for it. */
+    DISPATCH_LATENCY,
+    /** Time taken by a state fetch that returned within its timeout. */
+    STATE_FETCH,
+    /** Time taken by a state fetch that timed out without returning any output. */
+    STATE_FETCH_TIMEOUT,
+    /** Time taken by a state fetch that failed. */
+    STATE_FETCH_FAILURE,
+    /** Time spent in the listener's onActive or onBackup callback. */
+    LISTENER_TIME,
+    /** Time from the backend losing this member's binding, e.g. on a session failure, to the binding being restored. */
+    RECOVERY
+}
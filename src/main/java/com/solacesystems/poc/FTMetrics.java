@@ -0,0 +1,318 @@
+package com.solacesystems.poc;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Failover and state-transfer metrics of one cluster binding: role transitions and time spent in each role,
+ * latency from a flow event to the listener being invoked, state fetch latency, timeouts and failures, time
+ * spent in the listener, and time to recover lost bindings. Counters are {@link LongAdder}s and latencies are recorded into HdrHistogram
+ * {@link Recorder}s of fixed size, so recording never locks against readers and never allocates.</p>
+ *
+ * <p>Each manager registers the metrics of its bindings with the platform MBean server as
+ * <code>com.solacesystems.poc:type=FTMgr,cluster=&lt;clusterName&gt;</code> (see {@link FTMetricsMXBean}), with a
+ * <code>member</code> key added when several members of the same cluster run in one JVM. Every measurement is also
+ * passed to the {@link FTMetricsSink}, if one was set.</p>
+ */
+public class FTMetrics implements FTMetricsMXBean {
+    private static final Logger logger = LoggerFactory.getLogger(FTMetrics.class);
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.HOURS.toNanos(1);
+
+    FTMetrics(String clusterName, FTMetricsSink sink) {
+        this.clusterName = clusterName;
+        this.sink = sink;
+        this.roleSinceNanos = System.nanoTime();
+    }
+
+    /**
+     * Records a change of role, ignoring events that leave the role unchanged.
+     */
+    void roleChanged(boolean active) {
+        final long spent;
+        synchronized (this) {
+            if (active == this.active)
+                return;
+            final long now = System.nanoTime();
+            spent = now - roleSinceNanos;
+            roleSinceNanos = now;
+            this.active = active;
+            if (active) {
+                timeBackupNanos += spent;
+                activations.increment();
+            }
+            else {
+                timeActiveNanos += spent;
+                deactivations.increment();
+            }
+        }
+        sink(active ? FTMetric.ROLE_ACTIVE : FTMetric.ROLE_BACKUP, spent);
+    }
+
+    void dispatched(long latencyNanos) {
+        record(dispatchLatency, latencyNanos);
+        sink(FTMetric.DISPATCH_LATENCY, latencyNanos);
+    }
+
+    void listenerCompleted(long nanos) {
+        record(listenerTime, nanos);
+        sink(FTMetric.LISTENER_TIME, nanos);
+    }
+
+    void stateFetched(long nanos) {
+        stateFetches.increment();
+        record(stateFetchLatency, nanos);
+        sink(FTMetric.STATE_FETCH, nanos);
+    }
+
+    void stateFetchTimedOut(long nanos) {
+        stateFetches.increment();
+        stateFetchTimeouts.increment();
+        record(stateFetchLatency, nanos);
+        sink(FTMetric.STATE_FETCH_TIMEOUT, nanos);
+    }
+
+    void stateFetchFailed(long nanos) {
+        stateFetches.increment();
+        stateFetchFailures.increment();
+        sink(FTMetric.STATE_FETCH_FAILURE, nanos);
+    }
+
+    void recovered(long nanos) {
+        recoveries.increment();
+        record(recoveryTime, nanos);
+        sink(FTMetric.RECOVERY, nanos);
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server; failures are logged and otherwise ignored.
+     */
+    void register() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final String baseName = "com.solacesystems.poc:type=FTMgr,cluster=" + ObjectName.quote(clusterName);
+        try {
+            for (int member = 1; objectName == null; member++) {
+                final ObjectName name = new ObjectName(member == 1 ? baseName : baseName + ",member=" + member);
+                try {
+                    server.registerMBean(this, name);
+                    objectName = name;
+                }
+                catch (InstanceAlreadyExistsException e) {
+                    // Another member of this cluster runs in the same JVM; try the next member number
+                }
+            }
+        }
+        catch (JMException e) {
+            logger.warn("Error registering metrics of cluster {}: {}", clusterName, e.getMessage());
+        }
+    }
+
+    void unregister() {
+        if (objectName == null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        }
+        catch (JMException e) {
+            logger.warn("Error unregistering metrics of cluster {}: {}", clusterName, e.getMessage());
+        }
+        objectName = null;
+    }
+
+    /**
+     * @return The name under which these metrics are registered, or null if they are not.
+     */
+    public ObjectName getObjectName() {
+        return objectName;
+    }
+
+    @Override
+    public String getClusterName() {
+        return clusterName;
+    }
+
+    @Override
+    public synchronized boolean isActive() {
+        return active;
+    }
+
+    @Override
+    public long getActivationCount() {
+        return activations.sum();
+    }
+
+    @Override
+    public long getDeactivationCount() {
+        return deactivations.sum();
+    }
+
+    @Override
+    public synchronized long getTimeActiveMillis() {
+        final long current = active ? System.nanoTime() - roleSinceNanos : 0;
+        return TimeUnit.NANOSECONDS.toMillis(timeActiveNanos + current);
+    }
+
+    @Override
+    public synchronized long getTimeBackupMillis() {
+        final long current = active ? 0 : System.nanoTime() - roleSinceNanos;
+        return TimeUnit.NANOSECONDS.toMillis(timeBackupNanos + current);
+    }
+
+    @Override
+    public long getDispatchLatencyP50Micros() {
+        return micros(getDispatchLatency().getValueAtPercentile(50));
+    }
+
+    @Override
+    public long getDispatchLatencyP99Micros() {
+        return micros(getDispatchLatency().getValueAtPercentile(99));
+    }
+
+    @Override
+    public long getDispatchLatencyMaxMicros() {
+        return micros(getDispatchLatency().getMaxValue());
+    }
+
+    @Override
+    public long getStateFetchCount() {
+        return stateFetches.sum();
+    }
+
+    @Override
+    public long getStateFetchTimeoutCount() {
+        return stateFetchTimeouts.sum();
+    }
+
+    @Override
+    public long getStateFetchFailureCount() {
+        return stateFetchFailures.sum();
+    }
+
+    @Override
+    public long getStateFetchLatencyP50Micros() {
+        return micros(getStateFetchLatency().getValueAtPercentile(50));
+    }
+
+    @Override
+    public long getStateFetchLatencyP99Micros() {
+        return micros(getStateFetchLatency().getValueAtPercentile(99));
+    }
+
+    @Override
+    public long getStateFetchLatencyMaxMicros() {
+        return micros(getStateFetchLatency().getMaxValue());
+    }
+
+    @Override
+    public long getListenerTimeP50Micros() {
+        return micros(getListenerTime().getValueAtPercentile(50));
+    }
+
+    @Override
+    public long getListenerTimeP99Micros() {
+        return micros(getListenerTime().getValueAtPercentile(99));
+    }
+
+    @Override
+    public long getListenerTimeMaxMicros() {
+        return micros(getListenerTime().getMaxValue());
+    }
+
+    @Override
+    public long getRecoveryCount() {
+        return recoveries.sum();
+    }
+
+    @Override
+    public long getRecoveryTimeP99Micros() {
+        return micros(getRecoveryTime().getValueAtPercentile(99));
+    }
+
+    @Override
+    public long getRecoveryTimeMaxMicros() {
+        return micros(getRecoveryTime().getMaxValue());
+    }
+
+    /**
+     * @return A copy of the histogram of flow-event-to-listener latencies in nanoseconds, since the binding started.
+     */
+    public Histogram getDispatchLatency() {
+        return dispatchLatency.total();
+    }
+
+    /**
+     * @return A copy of the histogram of state fetch latencies in nanoseconds, since the binding started.
+     */
+    public Histogram getStateFetchLatency() {
+        return stateFetchLatency.total();
+    }
+
+    /**
+     * @return A copy of the histogram of time spent in the listener in nanoseconds, since the binding started.
+     */
+    public Histogram getListenerTime() {
+        return listenerTime.total();
+    }
+
+    /**
+     * @return A copy of the histogram of times taken to restore lost bindings in nanoseconds, since the binding started.
+     */
+    public Histogram getRecoveryTime() {
+        return recoveryTime.total();
+    }
+
+    private static void record(LatencyHistogram histogram, long nanos) {
+        histogram.recorder.recordValue(Math.max(0, Math.min(nanos, HIGHEST_TRACKABLE_NANOS)));
+    }
+
+    private void sink(FTMetric metric, long value) {
+        if (sink != null)
+            sink.record(clusterName, metric, value);
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    /**
+     * A recorder written on the event path, folded into a cumulative histogram whenever it is read.
+     */
+    private static class LatencyHistogram {
+        synchronized Histogram total() {
+            interval = recorder.getIntervalHistogram(interval);
+            cumulative.add(interval);
+            return cumulative.copy();
+        }
+
+        final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_NANOS, 2);
+        final private Histogram cumulative = new Histogram(HIGHEST_TRACKABLE_NANOS, 2);
+        private Histogram interval;
+    }
+
+    final private String clusterName;
+    final private FTMetricsSink sink;
+    final private LongAdder activations = new LongAdder();
+    final private LongAdder deactivations = new LongAdder();
+    final private LongAdder stateFetches = new LongAdder();
+    final private LongAdder stateFetchTimeouts = new LongAdder();
+    final private LongAdder stateFetchFailures = new LongAdder();
+    final private LatencyHistogram dispatchLatency = new LatencyHistogram();
+    final private LatencyHistogram stateFetchLatency = new LatencyHistogram();
+    final private LatencyHistogram listenerTime = new LatencyHistogram();
+    final private LongAdder recoveries = new LongAdder();
+    final private LatencyHistogram recoveryTime = new LatencyHistogram();
+    private boolean active;
+    private long roleSinceNanos;
+    private long timeActiveNanos;
+    private long timeBackupNanos;
+    private volatile ObjectName objectName;
+}
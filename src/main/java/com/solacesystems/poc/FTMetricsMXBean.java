@@ -0,0 +1,50 @@
+package com.solacesystems.poc;
+
+/**
+ * Management interface of the {@link com.solacesystems.poc.FTMetrics} of one cluster binding, registered as
+ * <code>com.solacesystems.poc:type=FTMgr,cluster=&lt;clusterName&gt;</code>. Latency percentiles are in microseconds
+ * and cover everything recorded since the binding started.
+ */
+public interface FTMetricsMXBean {
+    String getClusterName();
+
+    boolean isActive();
+
+    long getActivationCount();
+
+    long getDeactivationCount();
+
+    long getTimeActiveMillis();
+
+    long getTimeBackupMillis();
+
+    long getDispatchLatencyP50Micros();
+
+    long getDispatchLatencyP99Micros();
+
+    long getDispatchLatencyMaxMicros();
+
+    long getStateFetchCount();
+
+    long getStateFetchTimeoutCount();
+
+    long getStateFetchFailureCount();
+
+    long getStateFetchLatencyP50Micros();
+
+    long getStateFetchLatencyP99Micros();
+
+    long getStateFetchLatencyMaxMicros();
+
+    long getListenerTimeP50Micros();
+
+    long getListenerTimeP99Micros();
+
+    long getListenerTimeMaxMicros();
+
+    long getRecoveryCount();
+
+    long getRecoveryTimeP99Micros();
+
+    long getRecoveryTimeMaxMicros();
+}
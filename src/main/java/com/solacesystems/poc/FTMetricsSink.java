@@ -0,0 +1,17 @@
+package com.solacesystems.poc;
+
+/**
+ * Interface for forwarding FT-Cluster measurements to an external metrics system, in addition to the
+ * {@link com.solacesystems.poc.FTMetrics} kept by each manager. Invoked on the thread recording the measurement,
+ * which may be the listener's executor or a state fetch thread, so implementations must be thread-safe,
+ * should not block, and should not allocate if the event path is to stay allocation-free.
+ */
+public interface FTMetricsSink {
+    /**
+     * Invoked for every measurement recorded.
+     * @param clusterName Cluster the measurement was recorded for.
+     * @param metric What was measured.
+     * @param value The measurement; a duration in nanoseconds.
+     */
+    public void record(String clusterName, FTMetric metric, long value);
+}
@@ -2,12 +2,30 @@ package com.solacesystems.poc;
 
 import com.solacesystems.jcsmp.BytesXMLMessage;
 import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.JCSMPFactory;
 import com.solacesystems.jcsmp.JCSMPSession;
+import com.solacesystems.jcsmp.SDTMap;
+import com.solacesystems.jcsmp.SessionEventArgs;
+import com.solacesystems.jcsmp.XMLMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * <p>Instances of this class bind to a FT-cluster in a Solace Message Broker and manage FT-cluster membership
@@ -20,35 +38,282 @@ import java.util.Properties;
  * from Backup to Active it also gathers the last output from the previous Leader so that the current Leader
  * can attempt to synchronize itself to that output.</p>
  *
+ * <p>Every activation starts a new leadership epoch. The current role and epoch can be queried lock-free and
+ * allocation-free from any thread via {@link #isActive()} and {@link #getEpoch()}, output can be stamped with the
+ * epoch it was produced in via {@link #stampEpoch(XMLMessage)}, and consumers can discard output from deposed
+ * Active members with an {@link EpochFence}.</p>
+ *
+ * <p>For planned switchovers, e.g. rolling deploys, the Active member can {@link #handoff(long, TimeUnit)} its
+ * leadership to a ready Backup rather than just stopping.</p>
+ *
+ * <p>Optional application heartbeats ({@link #setHeartbeat(long, long)}) make an Active member that is still bound
+ * but stalled, e.g. by a long garbage collection pause or a deadlock, give up its leadership by itself.</p>
+ *
  * <p>For details see {@link com.solacesystems.poc}. </p>
  */
 public class FTMgr {
+    private static final Logger logger = LoggerFactory.getLogger(FTMgr.class);
+    private static final AtomicLongFieldUpdater<FTMgr> ROLE_STATE =
+            AtomicLongFieldUpdater.newUpdater(FTMgr.class, "roleState");
+
+    /**
+     * Name of the user property carrying the leadership epoch stamped on output messages.
+     */
+    public static final String EPOCH_PROPERTY = "solft.epoch";
 
-    final private SolaceConnection connection;
+    final private FTBackend connection;
+    final private boolean ownsConnection;
+    private String clusterName;
+    private String keyedSubscription;
+    private KeyedStateMirror keyedMirror;
     private FTEventListener listener; // there can only be one!
+    private ActivationPipeline pipeline;
+    private long stateFetchTimeoutMillis = 1000;
+    private Executor listenerExecutor = Runnable::run;
+    private long coalesceWindowMillis;
+    private boolean hotStandby;
+    private KeyExtractor keyExtractor = KeyExtractor.TOPIC;
+    private int maxKeys = 1000000;
+    private boolean persistentEpochs;
+    private ExecutorService epochExecutor;
+    private FTMetricsSink metricsSink;
+    private FTMetrics metrics;
+    private int bindPriority;
+    private boolean stopped;
+    private boolean gracefulHandoff;
+    private HandoffChannel handoff;
+    private volatile boolean handingOff;
+    private volatile BytesXMLMessage latestOutput;
+    private long heartbeatIntervalMillis;
+    private long heartbeatTimeoutMillis;
+    private Heartbeat heartbeat;
+    private String outputSubscription;
+    final private List<OutputPublisher> publishers = new CopyOnWriteArrayList<>();
+    final private CompletableFuture<Void> bound = new CompletableFuture<>();
+    // Current epoch shifted left by one, with the lowest bit set while Active; only updated through ROLE_STATE
+    private volatile long roleState;
+    final private AtomicReference<CompletableFuture<BytesXMLMessage>> activation = new AtomicReference<>(new CompletableFuture<>());
 
     /**
-     * Creates a new Solace session connected to a Solace Message Bus for use in joining
-     * a FT-Cluster for Leader Election and role events.
+     * Joins a FT-Cluster for Leader Election and role events over a Solace session connected with the given
+     * properties. Managers created with the same properties in one JVM share a single session, which is closed
+     * when the last of them stops.
      * @param solaceConnectionProperties Properties file containing Solace session properties.
      * @throws JCSMPException In the event of any error creating the Solace session and connecting it to a Solace Message Broker.
      */
     public FTMgr(Properties solaceConnectionProperties) throws JCSMPException {
         this.connection = new SolaceConnection(solaceConnectionProperties);
+        this.ownsConnection = true;
+        this.listenerExecutor = EventDispatcher.sharedExecutor();
     }
 
     /**
      * Uses an existing Solace session connected to a Solace Message Bus for use in joining
-     * a FT-Cluster for Leader Election and role events.
+     * a FT-Cluster for Leader Election and role events. The session remains the application's: stopping this
+     * manager closes the flows and browsers it created, but never the session. Its session events go to the
+     * application's handler, which must pass them on to {@link #sessionEvent(JCSMPSession, SessionEventArgs)} for
+     * the manager to notice the session going down and bind again once the application reconnected it.
+     * <p>JCSMP allows one message consumer per session, so the manager never creates the session's consumer, and
+     * publishes through a producer of its own rather than the session's. Features relying on direct messages,
+     * i.e. heartbeats, graceful handoff, keyed state, balanced partitions and bind priority on Solace, need the
+     * application to create the session's consumer and pass every direct message on to
+     * {@link #directMessage(JCSMPSession, BytesXMLMessage)}.</p>
      * @param solaceSession An existing Solace session.
      * @throws JCSMPException In the event of any error creating the Solace session and connecting it to a Solace Message Broker.
      */
     public FTMgr(JCSMPSession solaceSession) throws JCSMPException {
         this.connection = new SolaceConnection(solaceSession);
+        this.ownsConnection = true;
+        this.listenerExecutor = EventDispatcher.sharedExecutor();
+    }
+
+    /**
+     * Passes an event of an application's session on to every manager using the session, so that they treat their
+     * clusters as lost while the session is reconnecting or down, and bind again once it is back. Call this from
+     * the {@link com.solacesystems.jcsmp.SessionEventHandler} the session was created with; events of sessions no
+     * manager uses are ignored.
+     * @param solaceSession The application's session, as passed to {@link #FTMgr(JCSMPSession)} or
+     *                      {@link PartitionedFTMgr#PartitionedFTMgr(JCSMPSession)}.
+     * @param event The session event.
+     */
+    public static void sessionEvent(JCSMPSession solaceSession, SessionEventArgs event) {
+        SessionRegistry.sessionEvent(solaceSession, event);
+    }
+
+    /**
+     * Passes a direct message received on an application's session on to the managers using the session. Call this
+     * from the listener of the session's message consumer for every message; messages no manager subscribed to are
+     * left to the application.
+     * @param solaceSession The application's session, as passed to {@link #FTMgr(JCSMPSession)} or
+     *                      {@link PartitionedFTMgr#PartitionedFTMgr(JCSMPSession)}.
+     * @param msg The direct message.
+     * @return Whether the message was for a manager.
+     */
+    public static boolean directMessage(JCSMPSession solaceSession, BytesXMLMessage msg) {
+        return SessionRegistry.directMessage(solaceSession, msg);
+    }
+
+    /**
+     * Uses an existing election backend for joining a FT-Cluster for Leader Election and role events,
+     * e.g. a {@link com.solacesystems.poc.LoopbackConnection} to run FT-Clusters without a Solace Message Broker.
+     * The backend may be shared by several managers: stopping this manager only unbinds its own cluster and
+     * removes its own subscriptions, leaving the backend running.
+     * @param backend The election backend to join FT-Clusters through.
+     */
+    public FTMgr(FTBackend backend) {
+        this.connection = backend;
+        this.ownsConnection = false;
+    }
+
+    /**
+     * Sets the maximum time a newly Active stateful member waits for the previous Active member's last output
+     * before being told it is Active with a <code>null</code> message. Must be called before starting.
+     * @param timeoutMillis Fetch timeout in milliseconds; defaults to 1000.
+     */
+    public void setStateFetchTimeout(long timeoutMillis) {
+        this.stateFetchTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Sets the executor the listener is invoked on. Role changes are delivered in order and one at a time whatever
+     * the executor, so any executor will do, including one starting a virtual thread per task on Java 21 and later.
+     * Over a Solace session the listener runs on a shared pool of daemon threads by default, never on the session's
+     * context thread; over any other backend it runs inline on the thread completing the event.
+     * Must be called before starting.
+     * @param executor Executor to invoke the listener on.
+     */
+    public void setListenerExecutor(Executor executor) {
+        this.listenerExecutor = executor;
+    }
+
+    /**
+     * Coalesces role changes: the listener is only told the role this member ends up with once no role change
+     * followed the first of a burst for the window, and is not told anything if that is the role it was last told.
+     * A flap from Active to Backup and back within the window thus costs no callback at all, although the flap still
+     * starts a new epoch, as returned by {@link #getEpoch()}. Coalescing delays every callback by up to the window,
+     * but {@link #isActive()} and {@link #checkEpoch(long)} turn false as soon as the member loses its flow.
+     * Must be called before starting.
+     * @param windowMillis Coalescing window in milliseconds; defaults to 0, delivering every role change.
+     */
+    public void setCoalesceWindow(long windowMillis) {
+        this.coalesceWindowMillis = windowMillis;
+    }
+
+    /**
+     * Enables hot-standby for stateful members: while Backup, this member subscribes directly to the output
+     * subscription and mirrors the Active member's latest output in memory, so that on promotion its listener is
+     * handed that output without any round-trip to the broker. The cluster queue is only browsed as a fallback
+     * when nothing was mirrored, e.g. when this member is promoted before the Active published anything after it
+     * joined. Because output and flow events travel separately, an output published just before the Active
+     * member failed may arrive after this member was promoted and be missed by the mirror.
+     * Must be called before starting.
+     * @param hotStandby true to mirror the Active member's output while Backup.
+     */
+    public void setHotStandby(boolean hotStandby) {
+        this.hotStandby = hotStandby;
+    }
+
+    /**
+     * Sets how keyed stateful members derive the key each output message updates; defaults to the message's topic.
+     * Must be called before starting.
+     * @param keyExtractor Extractor deriving keys from output messages.
+     */
+    public void setKeyExtractor(KeyExtractor keyExtractor) {
+        this.keyExtractor = keyExtractor;
+    }
+
+    /**
+     * Sets the maximum number of keys a keyed stateful member holds; output for further new keys is dropped
+     * and counted by {@link LastValueStore#getRejectedCount()}. Must be called before starting.
+     * @param maxKeys Maximum number of keys; defaults to 1,000,000.
+     */
+    public void setMaxKeys(int maxKeys) {
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * Enables leadership epochs shared by every member of the FT-Cluster: each newly Active member records its
+     * epoch on the guaranteed queue <code>ftClusterName/epoch</code>, provisioned on start, so epochs keep
+     * increasing across members and restarts and an {@link EpochFence} can order output from different members.
+     * By default epochs are counted by each member alone, which only orders this member's own activations.
+     * A member that cannot record its epoch is never made Active; it gives up its binding and binds again.
+     * Must be called before starting.
+     * @param persistentEpochs true to persist epochs on the cluster's epoch queue.
+     */
+    public void setPersistentEpochs(boolean persistentEpochs) {
+        this.persistentEpochs = persistentEpochs;
+    }
+
+    /**
+     * Sets a sink every failover and state-transfer measurement is passed to, in addition to the
+     * {@link FTMetrics} registered with JMX. Must be called before starting.
+     * @param sink Sink to forward measurements to.
+     */
+    public void setMetricsSink(FTMetricsSink sink) {
+        this.metricsSink = sink;
+    }
+
+    /**
+     * Enables graceful handoff: while a bound Backup, this member answers the handoff requests of the Active member
+     * and keeps the final state it hands over for its own activation, and while Active it may hand off leadership with
+     * {@link #handoff(long, TimeUnit)}. Handoff messages are exchanged as direct messages on topics under
+     * <code>ftClusterName/handoff</code>. Every member of the cluster should enable it. Must be called before starting.
+     * @param gracefulHandoff true to take part in graceful handoffs.
+     */
+    public void setGracefulHandoff(boolean gracefulHandoff) {
+        this.gracefulHandoff = gracefulHandoff;
+    }
+
+    /**
+     * Enables application heartbeats: while Active, this member publishes a direct message on
+     * <code>ftClusterName/heartbeat</code> every interval, and a watchdog relinquishes its leadership, unbinding and
+     * binding again at the back of the line so that a healthy Backup takes over, once this member stalls for longer
+     * than the timeout. A stall is a heartbeat thread running late, as it does when the whole JVM was paused or starved,
+     * or, once the application reports progress through {@link #reportAlive()}, no progress reported within the
+     * timeout. While Backup, this member tracks the Active member's heartbeats; see {@link #getHeartbeatSilence()}.
+     * The heartbeat path does not allocate. Must be called before starting.
+     * @param intervalMillis Interval between heartbeats.
+     * @param timeoutMillis Time after which a stall or a missing heartbeat counts as a failure; several intervals.
+     */
+    public void setHeartbeat(long intervalMillis, long timeoutMillis) {
+        this.heartbeatIntervalMillis = intervalMillis;
+        this.heartbeatTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Reports that the application is making progress, e.g. from its processing loop. Lock-free and allocation-free.
+     * Once called, an Active member with heartbeats enabled relinquishes its leadership when it is not called again
+     * within the heartbeat timeout; see {@link #setHeartbeat(long, long)}.
+     */
+    public void reportAlive() {
+        if (heartbeat != null)
+            heartbeat.alive();
+    }
+
+    /**
+     * Returns the time since this Backup last heard a heartbeat from the Active member of its cluster, exceeding the
+     * heartbeat timeout when the Active member is hung, or when no member is Active at all.
+     * @return Time since the latest heartbeat in milliseconds, 0 while this member is Active, or -1 if heartbeats
+     *         are not enabled.
+     */
+    public long getHeartbeatSilence() {
+        return heartbeat != null ? heartbeat.getSilenceMillis() : -1;
+    }
+
+    /**
+     * Sets this member's priority among the Backups: once bound, it is placed ahead of every Backup with a lower
+     * priority, so the best-provisioned members are first in line. On Solace, whose exclusive queues promote Backups
+     * in bind order, lower priority Backups bind again behind this member once it bound; see
+     * {@link FTBackend#bindExclusive(String, String, int, FTEventListener)}. Must be called before starting.
+     * @param priority Rank among the Backups, higher is first in line; defaults to 0.
+     */
+    public void setBindPriority(int priority) {
+        this.bindPriority = priority;
     }
 
     /**
      * Bind to a FT cluster as a cluster member for leader election, listening for FT state change events.
+     * If the listener is an {@link FTLifecycleListener}, this member only binds once its warm-up completes.
      * @param ftClusterName Exclusive cluster for FT-selection.
      * @param listener Event listener to be invoked for any FT state event changes.
      * @throws JCSMPException In the event of any failures in connecting to Solace or binding to the cluster.
@@ -57,65 +322,530 @@ public class FTMgr {
         this.listener = listener;
         // Everyone starts out as slave, Solace doesn't event for listeners initially bound as backup
         this.listener.onBackup();
-        connection.bindExclusive(
-                ftClusterName,
-                new FTEventListener() {
-                    @Override
-                    public void onActive(BytesXMLMessage msg) {
-                        listener.onActive(null);
-                    }
-                    @Override
-                    public void onBackup() {
-                        listener.onBackup();
-                    }
-                }
-        );
+        this.pipeline = pipeline(ftClusterName, false, null, listener);
+        bind(ftClusterName, null, listener);
     }
 
     /**
      * Bind to a FT cluster as a cluster member for leader election, listening for FT state change events and
-     * the latest output from the current Active member of the FT-Cluster.
+     * the latest output from the current Active member of the FT-Cluster. That output is fetched asynchronously
+     * when this member becomes Active, and the listener is only told it is Active once the fetch completes or
+     * times out; see {@link #setStateFetchTimeout(long)}. If the listener is an {@link FTLifecycleListener}, this
+     * member only binds once its warm-up completes.
      * @param ftClusterName Exclusive cluster for FT-selection.
      * @param outputSubscription Subscription to topic matching output from the Active FT-Cluster member.
      * @param listener Event listener to be invoked for any FT state event changes.
      * @throws JCSMPException In the event of any failures in connecting to Solace or binding to the cluster.
      */
     public void startStateful(String ftClusterName, String outputSubscription, final FTEventListener listener) throws JCSMPException {
+        this.listener = listener;
         // Everyone starts out as slave, Solace doesn't event for listeners initially bound as backup
         listener.onBackup();
-        connection.bindExclusiveWithState(
+        final StateMirror mirror = hotStandby ? new StateMirror(connection, outputSubscription) : null;
+        if (mirror != null)
+            mirror.attach();
+        this.pipeline = pipeline(ftClusterName, true, mirror, listener);
+        bind(ftClusterName, outputSubscription, listener);
+    }
+
+    /**
+     * Bind to a FT cluster as in {@link #startStateful(String, String, FTEventListener)}, handing the listener the
+     * latest output of the previous Active member decoded by a codec, straight from the message's attachment. The
+     * Active member should build its output with {@link StateCodec#toMessage(Object)} of the same codec. Output that
+     * cannot be decoded is logged and handed over as <code>null</code>, as if none was found.
+     * @param ftClusterName Exclusive cluster for FT-selection.
+     * @param outputSubscription Subscription to topic matching output from the Active FT-Cluster member.
+     * @param codec Codec decoding the output.
+     * @param listener Event listener to be invoked for any FT state event changes.
+     * @param <T> Type of the state.
+     * @throws JCSMPException In the event of any failures in connecting to Solace or binding to the cluster.
+     */
+    public <T> void startStateful(String ftClusterName, String outputSubscription, final StateCodec<T> codec,
+                                  final TypedFTEventListener<T> listener) throws JCSMPException {
+        startStateful(ftClusterName, outputSubscription, new FTEventListener() {
+            @Override
+            public void onActive(BytesXMLMessage msg) {
+                T state = null;
+                try {
+                    state = codec.fromMessage(msg);
+                }
+                catch (IOException | RuntimeException e) {
+                    logger.warn("Error decoding last output of cluster {}: {}", ftClusterName, e.getMessage());
+                }
+                listener.onActive(state);
+            }
+            @Override
+            public void onBackup() {
+                listener.onBackup();
+            }
+        });
+    }
+
+    /**
+     * Bind to a FT cluster as a cluster member for leader election, keeping the latest output of the Active member
+     * for every key. From the moment it starts, this member subscribes directly to the output subscription and compacts
+     * every output message into a {@link LastValueStore}, keyed by topic unless a {@link KeyExtractor} was set; a
+     * message with an empty attachment removes its key. Output published before this member started is retained on
+     * the guaranteed queue <code>ftClusterName/keyed</code>, which this call provisions and loads into the store before
+     * binding, compacting it as it goes. On activation the listener is handed a snapshot of the whole store without
+     * any I/O; {@link KeyedState#isComplete()} tells whether that load failed or timed out, in which case keys last
+     * written before this member started may be missing.
+     * @param ftClusterName Exclusive cluster for FT-selection.
+     * @param outputSubscription Subscription to topic matching output from the Active FT-Cluster member.
+     * @param listener Event listener to be invoked for any FT state event changes.
+     * @return The store of latest output values, which may also be queried directly at any time.
+     * @throws JCSMPException In the event of any failures in connecting to Solace or binding to the cluster.
+     */
+    public LastValueStore startKeyed(String ftClusterName, String outputSubscription, final KeyedFTEventListener listener) throws JCSMPException {
+        final LastValueStore store = new LastValueStore(maxKeys);
+        this.listener = new FTEventListener() {
+            @Override
+            public void onActive(BytesXMLMessage msg) {
+                listener.onActive(store.snapshot(keyedMirror.isComplete()));
+            }
+            @Override
+            public void onBackup() {
+                listener.onBackup();
+            }
+        };
+        // Everyone starts out as slave, Solace doesn't event for listeners initially bound as backup
+        this.listener.onBackup();
+        this.keyedSubscription = outputSubscription;
+        this.keyedMirror = new KeyedStateMirror(store, keyExtractor);
+        final String retainedQueue = ftClusterName + "/keyed";
+        // Subscribed before loading, so that no output falls between the retained and the live messages
+        connection.provisionQueue(retainedQueue, outputSubscription);
+        connection.subscribe(outputSubscription, keyedMirror);
+        try {
+            keyedMirror.load(connection, retainedQueue, (int) Math.min(stateFetchTimeoutMillis, Integer.MAX_VALUE));
+        }
+        catch (JCSMPException e) {
+            logger.warn("Could not load the retained output of cluster {}, its keyed state is incomplete: {}",
+                    ftClusterName, e.getMessage());
+        }
+        this.pipeline = pipeline(ftClusterName, false, null, this.listener);
+        bind(ftClusterName, null, this.listener);
+        return store;
+    }
+
+    /**
+     * Creates a publisher of this member's output, batching guaranteed messages and acknowledging them
+     * asynchronously, and refusing output as soon as this member is no longer Active. See {@link OutputPublisher}.
+     * @return A new publisher.
+     */
+    public OutputPublisher createPublisher() {
+        final OutputPublisher publisher = new OutputPublisher(this, connection);
+        publishers.add(publisher);
+        return publisher;
+    }
+
+    /**
+     * Creates a checkpointer storing snapshots and deltas of state too large for a single message on guaranteed
+     * queues named after the checkpoint, provisioning those queues if they do not exist.
+     * See {@link Checkpointer}.
+     * @param checkpointName Name of the checkpoint, shared by every member of the FT-Cluster.
+     * @return A new checkpointer.
+     * @throws JCSMPException In the event of any error provisioning the checkpoint queues.
+     */
+    public Checkpointer createCheckpointer(String checkpointName) throws JCSMPException {
+        return new Checkpointer(this, connection, checkpointName);
+    }
+
+    /**
+     * Returns a future completed when this member is next Active, with the message its listener was handed
+     * on activation. If this member is Active already the future is already complete.
+     * @return A future completed on activation.
+     */
+    public CompletableFuture<BytesXMLMessage> whenActive() {
+        return activation.get().thenApply(msg -> msg);
+    }
+
+    /**
+     * Returns a future completed once this member has bound to its FT-Cluster, which for an
+     * {@link FTLifecycleListener} happens only after its warm-up. Completed exceptionally if the warm-up
+     * or the bind failed.
+     * @return A future completed on binding.
+     */
+    public CompletableFuture<Void> whenBound() {
+        return bound.thenApply(ignored -> null);
+    }
+
+    /**
+     * Returns the failover and state-transfer metrics of this member's binding, also registered with JMX.
+     * @return The binding's metrics, or null if not started.
+     */
+    public FTMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Lock-free, allocation-free check whether this member is currently Active, safe to call from any thread
+     * on every message. Becomes true just before the listener is told it is Active.
+     * @return true if this member is Active.
+     */
+    public boolean isActive() {
+        return (roleState & 1) != 0;
+    }
+
+    /**
+     * Returns the epoch of this member's latest activation, or 0 if it has never been Active. Lock-free and allocation-free.
+     * @return The current leadership epoch.
+     */
+    public long getEpoch() {
+        return roleState >>> 1;
+    }
+
+    /**
+     * Checks that this member is still Active in the given epoch, i.e. has not lost leadership since. Lock-free
+     * and allocation-free; use it to fence side effects started in one epoch from completing after a failover.
+     * @param epoch Epoch returned by {@link #getEpoch()} when the work started.
+     * @return true if this member is Active and no newer activation has happened since.
+     */
+    public boolean checkEpoch(long epoch) {
+        return roleState == ((epoch << 1) | 1);
+    }
+
+    /**
+     * Stamps an output message with this member's current epoch in the {@link #EPOCH_PROPERTY} user property,
+     * keeping any other user properties, so that consumers can discard stale output with an {@link EpochFence}.
+     * @param msg Output message to stamp.
+     * @return The epoch stamped.
+     * @throws JCSMPException In the event of any error setting the user property.
+     */
+    public long stampEpoch(XMLMessage msg) throws JCSMPException {
+        final long epoch = getEpoch();
+        SDTMap props = msg.getProperties();
+        if (props == null) {
+            props = JCSMPFactory.onlyInstance().createMap();
+            msg.setProperties(props);
+        }
+        props.putLong(EPOCH_PROPERTY, epoch);
+        return epoch;
+    }
+
+    /**
+     * Blocks until this member is Active, or the timeout elapses.
+     * @param timeout Maximum time to wait.
+     * @param unit Unit of the timeout.
+     * @return true if this member is Active, false if the timeout elapsed first.
+     * @throws InterruptedException If the calling thread is interrupted while waiting.
+     */
+    public boolean awaitActive(long timeout, TimeUnit unit) throws InterruptedException {
+        if (isActive())
+            return true;
+        try {
+            activation.get().get(timeout, unit);
+            return true;
+        }
+        catch (TimeoutException | ExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns a future completed as {@link #whenActive()}, or exceptionally with a
+     * {@link java.util.concurrent.TimeoutException} if this member is not Active within the timeout.
+     * @param timeout Maximum time to wait.
+     * @param unit Unit of the timeout.
+     * @return A future completed on activation or timeout.
+     */
+    public CompletableFuture<BytesXMLMessage> awaitActiveAsync(long timeout, TimeUnit unit) {
+        return Timeouts.within(activation.get(), timeout, unit);
+    }
+
+    /**
+     * Hands leadership over to a Backup for a planned switchover and then stops as {@link #stop()}, so that the
+     * cluster is never left without a leader for longer than the broker takes to raise the next flow event. From the
+     * start, output published through this member's {@link OutputPublisher}s is refused; everything published before
+     * is sent and must be acknowledged, and a bound Backup must confirm it is ready to take over. The latest output
+     * acknowledged is then handed to the Backups directly, so that the Backup promoted once this member releases the
+     * cluster is told it is Active without fetching its state. Should the flow event overtake the state, the promoted
+     * member fetches it from the cluster queue as usual. Requires {@link #setGracefulHandoff(boolean)}.
+     * A Backup simply stops.
+     * @param timeout Maximum time to wait for output to be acknowledged and for a Backup to be ready.
+     * @param unit Unit of the timeout.
+     * @return true if this member stopped; false if its output was not acknowledged or no Backup was ready in time,
+     *         in which case it stays Active and accepts output again.
+     * @throws JCSMPException In the event of any error publishing the handoff messages; this member stays Active.
+     * @throws InterruptedException If interrupted while waiting; this member stays Active.
+     */
+    public boolean handoff(long timeout, TimeUnit unit) throws JCSMPException, InterruptedException {
+        if (handoff == null)
+            throw new IllegalStateException("Graceful handoff not enabled");
+        if (!isActive()) {
+            stop();
+            return true;
+        }
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        handingOff = true;
+        try {
+            final CompletableFuture<?>[] drained = new CompletableFuture<?>[publishers.size()];
+            for (int i = 0; i < drained.length; i++)
+                drained[i] = publishers.get(i).drain();
+            CompletableFuture.allOf(drained).get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            handoff.requestReady().get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            final BytesXMLMessage finalState = latestOutput;
+            if (finalState != null)
+                handoff.handOver(finalState, persistentEpochs ? getEpoch() : 0);
+        }
+        catch (TimeoutException | ExecutionException e) {
+            logger.warn("Handoff of cluster {} abandoned, staying Active: {}", clusterName,
+                    e instanceof TimeoutException ? "timed out" : e.getCause().getMessage());
+            handingOff = false;
+            return false;
+        }
+        catch (JCSMPException | InterruptedException e) {
+            handingOff = false;
+            throw e;
+        }
+        stop();
+        return true;
+    }
+
+    /**
+     * Terminate a binding to a FT-Cluster. After calling stop() this instance may no longer be used.
+     * The listener is told it is Backup on its executor, after any role change already dispatched, and stop() waits
+     * for it unless called from the listener itself.
+     */
+    public void stop() {
+        final long state = roleState;
+        final Object stopEvent = FlightEvents.beginStop(clusterName,
+                (state & 1) != 0 ? FlightEvents.ACTIVE : FlightEvents.BACKUP, state >>> 1);
+        synchronized (bound) {
+            stopped = true;
+        }
+        bound.cancel(false);
+        if (this.heartbeat != null)
+            this.heartbeat.stop();
+        if (this.clusterName != null)
+            connection.unbind(this.clusterName);
+        final CompletableFuture<Void> deposed = this.pipeline != null ? this.pipeline.stop() : null;
+        if (this.handoff != null)
+            this.handoff.close();
+        if (this.keyedMirror != null) {
+            try {
+                connection.unsubscribe(keyedSubscription, keyedMirror);
+            }
+            catch (JCSMPException e) {
+                logger.warn("Error removing subscription {}: {}", keyedSubscription, e.getMessage());
+            }
+        }
+        if (ownsConnection)
+            connection.stop();
+        if (this.epochExecutor != null)
+            this.epochExecutor.shutdown();
+        clearActive();
+        // The listener is told it is Backup after every role change already dispatched, on its own executor
+        if (deposed == null) {
+            if (this.listener != null)
+                this.listener.onBackup();
+        }
+        else if (!this.pipeline.isDispatching())
+            awaitDeposed(deposed);
+        if (this.metrics != null) {
+            this.metrics.roleChanged(false);
+            this.metrics.unregister();
+        }
+        FlightEvents.end(stopEvent);
+    }
+
+    private void awaitDeposed(CompletableFuture<Void> deposed) {
+        try {
+            deposed.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e) {
+            logger.error("Error telling the listener of cluster {} it is Backup: {}", clusterName, e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Binds straight away, or once the warm-up of a lifecycle listener completes.
+     */
+    private void bind(final String ftClusterName, final String outputSubscription, FTEventListener listener) throws JCSMPException {
+        if (!(listener instanceof FTLifecycleListener)) {
+            bindNow(ftClusterName, outputSubscription);
+            return;
+        }
+        final CompletionStage<?> warmUp = ((FTLifecycleListener) listener).onStandbyReady();
+        warmUp.whenComplete((ignored, error) -> {
+            if (error != null) {
+                logger.error("Warm-up failed, not binding to cluster {}: {}", ftClusterName, error.getMessage());
+                bound.completeExceptionally(error);
+                return;
+            }
+            try {
+                bindNow(ftClusterName, outputSubscription);
+            }
+            catch (JCSMPException e) {
+                logger.error("Error binding to cluster {} after warm-up: {}", ftClusterName, e.getMessage());
+                bound.completeExceptionally(e);
+            }
+        });
+    }
+
+    private void bindNow(String ftClusterName, String outputSubscription) throws JCSMPException {
+        synchronized (bound) {
+            // A member stopped while warming up never binds
+            if (stopped)
+                return;
+            this.outputSubscription = outputSubscription;
+            connection.bindExclusive(ftClusterName, outputSubscription, bindPriority, pipeline);
+        }
+        bound.complete(null);
+    }
+
+    /**
+     * Clears the Active bit, keeping the epoch, without losing a concurrent promotion's update.
+     */
+    private void clearActive() {
+        long state;
+        do {
+            state = roleState;
+        } while ((state & 1) != 0 && !ROLE_STATE.compareAndSet(this, state, state & ~1L));
+    }
+
+    /**
+     * Gives up the leadership of a stalled Active member: output is fenced straight away, the next Backup in line
+     * is promoted, and this member binds again behind it.
+     */
+    private void relinquish() {
+        synchronized (bound) {
+            if (stopped || !isActive())
+                return;
+            clearActive();
+            connection.unbind(clusterName);
+        }
+        pipeline.onBackup();
+        try {
+            synchronized (bound) {
+                if (stopped)
+                    return;
+                connection.bindExclusive(clusterName, outputSubscription, bindPriority, pipeline);
+            }
+        }
+        catch (JCSMPException e) {
+            logger.error("Error binding to cluster {} again after relinquishing leadership: {}", clusterName, e.getMessage());
+        }
+    }
+
+    /**
+     * Gives up a binding promoted without an epoch, so the next Backup in line is promoted, and binds again behind it.
+     */
+    private void rebind() {
+        try {
+            synchronized (bound) {
+                if (stopped)
+                    return;
+                connection.unbind(clusterName);
+                connection.bindExclusive(clusterName, outputSubscription, bindPriority, pipeline);
+            }
+        }
+        catch (JCSMPException e) {
+            logger.error("Error binding to cluster {} again after a failed activation: {}", clusterName, e.getMessage());
+        }
+    }
+
+    /**
+     * @return Whether output of the given epoch may still be published, i.e. this member is Active in that epoch
+     *         and not handing off.
+     */
+    boolean acceptsOutput(long epoch) {
+        return !handingOff && checkEpoch(epoch);
+    }
+
+    /**
+     * Records the latest output acknowledged by the broker, the state handed over in a graceful handoff.
+     */
+    void outputAcknowledged(BytesXMLMessage msg) {
+        latestOutput = msg;
+    }
+
+    private ActivationPipeline pipeline(String ftClusterName, boolean stateful, StateMirror mirror, final FTEventListener listener) throws JCSMPException {
+        clusterName = ftClusterName;
+        metrics = new FTMetrics(ftClusterName, metricsSink);
+        metrics.register();
+        if (gracefulHandoff) {
+            // Only a bound Backup is ready to take over; members bind once warm
+            handoff = new HandoffChannel(connection, ftClusterName,
+                    () -> bound.isDone() && !bound.isCompletedExceptionally() && !isActive());
+            handoff.open();
+        }
+        if (heartbeatIntervalMillis > 0) {
+            heartbeat = new Heartbeat(connection, ftClusterName, heartbeatIntervalMillis, heartbeatTimeoutMillis,
+                    this::isActive, this::relinquish);
+            heartbeat.start();
+        }
+        return new ActivationPipeline(
+                connection,
                 ftClusterName,
-                outputSubscription,
-                new FTEventListener() {
+                stateful,
+                stateFetchTimeoutMillis,
+                listenerExecutor,
+                coalesceWindowMillis,
+                mirror,
+                handoff,
+                epochSource(ftClusterName),
+                metrics,
+                new RoleListener() {
                     @Override
-                    public void onActive(BytesXMLMessage msg) {
+                    public void onPromoted(long epoch) {
+                        ROLE_STATE.set(FTMgr.this, (epoch << 1) | 1);
+                    }
+                    @Override
+                    public void onActive(BytesXMLMessage msg, long epoch) {
                         listener.onActive(msg);
+                        activation.get().complete(msg);
+                    }
+                    @Override
+                    public void onActivationFailed(Throwable error) {
+                        rebind();
+                    }
+                    @Override
+                    public void onDeposed() {
+                        clearActive();
                     }
                     @Override
                     public void onBackup() {
+                        activation.updateAndGet(f -> f.isDone() ? new CompletableFuture<>() : f);
                         listener.onBackup();
                     }
-                }
-        );
+                });
     }
 
-    /**
-     * Terminate a binding to a FT-Cluster. After calling stop() this instance may no longer be used.
-     */
-    public void stop() {
-        connection.stop();
-        this.listener.onBackup();
+    private EpochSource epochSource(String ftClusterName) throws JCSMPException {
+        if (!persistentEpochs)
+            return EpochSource.local();
+        epochExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "solft-epoch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        return new QueueEpochSource(connection, ftClusterName, epochExecutor);
     }
 
+    /**
+     * Runs a member of one cluster printing its role changes or, with <code>--sidecar</code>, a sidecar daemon
+     * joining every cluster listed in a configuration file over one session and publishing their roles in a
+     * {@link LeaderStatusFile} for the other processes of the host.
+     * @param args Command line arguments; run without any for usage.
+     */
     public static void main(String[] args) {
-        if (args.length < 2) {
+        if (args.length < 2 || (args[1].equals("--sidecar") && args.length != 3)) {
             System.out.println("    USAGE: <path/to/solace/conn.properties> <solace-exclusive-queue> {optional: output-subscription}");
+            System.out.println("       or: <path/to/solace/conn.properties> --sidecar <path/to/sidecar.properties>");
             System.out.println("");
             System.out.println("");
             System.exit(1);
         }
 
         Properties props = readPropsFile(args[0]);
+        if (args[1].equals("--sidecar")) {
+            runSidecar(props, readPropsFile(args[2]));
+            return;
+        }
         String clusterName = args[1];
         String outputSubscription = null;
         if (args.length == 3)
@@ -151,6 +881,22 @@ public class FTMgr {
         }
     }
 
+    private static void runSidecar(Properties props, Properties config) {
+        try {
+            final LeaderSidecar sidecar = LeaderSidecar.start(props, config);
+            Runtime.getRuntime().addShutdownHook(new Thread(sidecar::stop, "solft-sidecar-shutdown"));
+            while(true) {
+                Thread.sleep(Long.MAX_VALUE);
+            }
+        }
+        catch(JCSMPException | IOException e) {
+            e.printStackTrace();
+        }
+        catch(InterruptedException iex) {
+            iex.printStackTrace();
+        }
+    }
+
     static Properties readPropsFile(String name) {
         Properties props = new Properties();
         InputStream input = null;
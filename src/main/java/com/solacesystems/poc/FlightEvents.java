@@ -0,0 +1,78 @@
+package com.solacesystems.poc;
+
+/**
+ * Internal entry point for Java Flight Recorder events, safe to call on any runtime: on Java 8 releases without
+ * JFR every method does nothing, and otherwise an event not enabled in the running recording costs a single check.
+ * Timed events are begun with one of the <code>begin</code> methods, whose result is handed back on completion.
+ * Nothing here refers to a JFR type, so that this class loads and verifies where {@link JfrEvents} cannot.
+ */
+final class FlightEvents {
+    private FlightEvents() {}
+
+    static final boolean AVAILABLE = available();
+
+    static final String ACTIVE = "ACTIVE";
+    static final String BACKUP = "BACKUP";
+    static final String LOST = "LOST";
+    static final String RESTORED = "RESTORED";
+
+    private static boolean available() {
+        try {
+            Class.forName("jdk.jfr.Event", false, FlightEvents.class.getClassLoader());
+            return true;
+        }
+        catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    static void flow(String cluster, String role, long epoch) {
+        if (AVAILABLE)
+            JfrEvents.flow(cluster, role, epoch);
+    }
+
+    static Object beginStateFetch(String cluster) {
+        return AVAILABLE ? JfrEvents.beginStateFetch(cluster) : null;
+    }
+
+    /**
+     * @param epoch The epoch the activation fetching the state starts, once known.
+     */
+    static void endStateFetch(Object event, boolean found, long epoch) {
+        if (event != null)
+            JfrEvents.endStateFetch(event, found, epoch);
+    }
+
+    static Object beginBrowse(String queueName) {
+        return AVAILABLE ? JfrEvents.beginBrowse(queueName) : null;
+    }
+
+    static void endBrowse(Object event, boolean found) {
+        if (event != null)
+            JfrEvents.endBrowse(event, found);
+    }
+
+    static Object beginListener(String cluster, String role, long epoch) {
+        return AVAILABLE ? JfrEvents.beginListener(cluster, role, epoch) : null;
+    }
+
+    static Object beginProvision(String queueName, String subscription) {
+        return AVAILABLE ? JfrEvents.beginProvision(queueName, subscription) : null;
+    }
+
+    static Object beginSubscribe(String queueName, String subscription) {
+        return AVAILABLE ? JfrEvents.beginSubscribe(queueName, subscription) : null;
+    }
+
+    static Object beginStop(String cluster, String role, long epoch) {
+        return AVAILABLE ? JfrEvents.beginStop(cluster, role, epoch) : null;
+    }
+
+    /**
+     * Completes a timed event begun by any of the <code>begin</code> methods without further fields.
+     */
+    static void end(Object event) {
+        if (event != null)
+            JfrEvents.end(event);
+    }
+}
@@ -0,0 +1,159 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import com.solacesystems.jcsmp.SDTException;
+import com.solacesystems.jcsmp.SDTMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Internal channel over which the members of one cluster coordinate a graceful handoff, through direct
+ * subscriptions to topics under <code>clusterName/handoff</code>:
+ * <ul>
+ *     <li><code>request</code>: the Active member asks whether a Backup is ready to take over;</li>
+ *     <li><code>ready</code>: a bound Backup, which is warm by the time it binds, answers;</li>
+ *     <li><code>state</code>: the Active member hands its final output to the Backups before releasing the cluster;</li>
+ *     <li><code>taken</code>: a newly Active member announces that any state handed over before is spent.</li>
+ * </ul>
+ * State handed over is kept for the next activation only, and dropped on any later handoff traffic, so that a
+ * Backup that was not promoted never starts from it later. It is also stamped with the epoch of the member handing
+ * it over; with persistent epochs, an activation that does not directly follow that epoch does not use it.
+ */
+class HandoffChannel implements FTMessageListener {
+    private static final Logger logger = LoggerFactory.getLogger(HandoffChannel.class);
+
+    /**
+     * User property carrying the epoch of the member that handed the state over, 0 if unknown.
+     */
+    static final String HANDOFF_EPOCH_PROPERTY = "solft.handoff.epoch";
+
+    /**
+     * @param backend Backend to exchange handoff messages over.
+     * @param clusterName Cluster whose members coordinate.
+     * @param standingBy Whether this member is currently a bound Backup able to take over.
+     */
+    HandoffChannel(FTBackend backend, String clusterName, BooleanSupplier standingBy) {
+        this.backend = backend;
+        this.standingBy = standingBy;
+        this.prefix = clusterName + "/handoff/";
+    }
+
+    @Override
+    public void onMessage(String topic, BytesXMLMessage msg) {
+        if (!topic.startsWith(prefix))
+            return;
+        final String kind = topic.substring(prefix.length());
+        if (kind.equals(REQUEST)) {
+            // A new handoff starts from scratch
+            state = null;
+            if (standingBy.getAsBoolean())
+                publish(READY, JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class));
+        }
+        else if (kind.equals(READY)) {
+            final CompletableFuture<Void> awaiting = ready;
+            if (awaiting != null)
+                awaiting.complete(null);
+        }
+        else if (kind.equals(STATE)) {
+            state = standingBy.getAsBoolean() ? msg : null;
+        }
+        else if (kind.equals(TAKEN)) {
+            state = null;
+        }
+    }
+
+    void open() throws JCSMPException {
+        backend.subscribe(prefix + ">", this);
+    }
+
+    void close() {
+        try {
+            backend.unsubscribe(prefix + ">", this);
+        }
+        catch (JCSMPException e) {
+            logger.warn("Error removing subscription {}>: {}", prefix, e.getMessage());
+        }
+    }
+
+    /**
+     * Asks the Backups whether one of them is ready to take over.
+     * @return A future completed once a Backup answered.
+     */
+    CompletableFuture<Void> requestReady() throws JCSMPException {
+        final CompletableFuture<Void> awaiting = new CompletableFuture<>();
+        ready = awaiting;
+        backend.publish(prefix + REQUEST, JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class));
+        return awaiting;
+    }
+
+    /**
+     * Hands a copy of the final output of the Active member to the Backups, stamped with the member's epoch. The
+     * output itself is left untouched, as it still carries the correlation key of its completed publish.
+     * @param finalState The latest output acknowledged by the broker.
+     * @param epoch Epoch of the member handing over, or 0 if epochs are not shared by the cluster's members.
+     */
+    void handOver(BytesXMLMessage finalState, long epoch) throws JCSMPException {
+        ready = null;
+        final BytesXMLMessage copy = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        final byte[] payload = new byte[finalState.getAttachmentContentLength()];
+        finalState.readAttachmentBytes(payload);
+        copy.writeAttachment(payload);
+        final SDTMap props = JCSMPFactory.onlyInstance().createMap();
+        if (finalState.getProperties() != null)
+            props.putAll(finalState.getProperties());
+        props.putLong(HANDOFF_EPOCH_PROPERTY, epoch);
+        copy.setProperties(props);
+        backend.publish(prefix + STATE, copy);
+    }
+
+    /**
+     * Takes the state handed over for this activation, and tells the other members it is spent.
+     * @return The state handed over since the last handoff traffic, or null if none was.
+     */
+    BytesXMLMessage take() {
+        final BytesXMLMessage handedOver = state;
+        state = null;
+        publish(TAKEN, JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class));
+        return handedOver;
+    }
+
+    /**
+     * @return Whether state handed over may start an activation of the given epoch: only if it was handed over by
+     *         the member Active in the epoch right before it, or if epochs are not shared by the cluster's members.
+     */
+    static boolean isHandedOverTo(BytesXMLMessage handedOver, long epoch) {
+        try {
+            final Long from = handedOver.getProperties() == null
+                    ? null : handedOver.getProperties().getLong(HANDOFF_EPOCH_PROPERTY);
+            return from == null || from == 0 || from + 1 == epoch;
+        }
+        catch (SDTException e) {
+            return false;
+        }
+    }
+
+    private void publish(String kind, BytesXMLMessage msg) {
+        try {
+            backend.publish(prefix + kind, msg);
+        }
+        catch (JCSMPException e) {
+            logger.warn("Error publishing handoff {} on {}: {}", kind, prefix, e.getMessage());
+        }
+    }
+
+    private static final String REQUEST = "request";
+    private static final String READY = "ready";
+    private static final String STATE = "state";
+    private static final String TAKEN = "taken";
+
+    final private FTBackend backend;
+    final private BooleanSupplier standingBy;
+    final private String prefix;
+    private volatile CompletableFuture<Void> ready;
+    private volatile BytesXMLMessage state;
+}
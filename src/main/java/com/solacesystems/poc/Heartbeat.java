@@ -0,0 +1,150 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Internal application-level failure detector of one cluster binding, catching an Active member that is still bound
+ * but no longer doing its job, e.g. one stuck in a long garbage collection pause or a deadlock, which the broker
+ * only notices once its session drops.
+ *
+ * <p>While Active, a member publishes an empty direct message on <code>clusterName/heartbeat</code> every interval,
+ * reusing one message so that the heartbeat path does not allocate. A watchdog on the same thread relinquishes
+ * leadership when this member stalled: when the heartbeat thread itself ran later than the timeout, i.e. the whole
+ * JVM was paused or starved, or when the application, once it started reporting progress through {@link #alive()},
+ * did not report any for longer than the timeout. An application that stays stuck is not made to relinquish again
+ * until it reports progress.</p>
+ *
+ * <p>While Backup, a member tracks the Active member's heartbeats and logs when none arrived within the timeout.</p>
+ */
+class Heartbeat implements FTMessageListener {
+    private static final Logger logger = LoggerFactory.getLogger(Heartbeat.class);
+
+    /**
+     * @param backend Backend to publish and receive heartbeats through.
+     * @param clusterName Cluster whose Active member heartbeats.
+     * @param intervalMillis Interval between heartbeats.
+     * @param timeoutMillis Time after which a missing heartbeat or a stall counts as a failure.
+     * @param active Whether this member is currently Active.
+     * @param relinquish Gives up this member's leadership; run on the heartbeat thread.
+     */
+    Heartbeat(FTBackend backend, String clusterName, long intervalMillis, long timeoutMillis,
+              BooleanSupplier active, Runnable relinquish) {
+        this.backend = backend;
+        this.clusterName = clusterName;
+        this.topic = clusterName + "/heartbeat";
+        this.intervalMillis = intervalMillis;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.active = active;
+        this.relinquish = relinquish;
+    }
+
+    @Override
+    public void onMessage(String topic, BytesXMLMessage msg) {
+        // An Active member hears its own heartbeats too
+        if (active.getAsBoolean())
+            return;
+        lastHeardNanos = System.nanoTime();
+        silent = false;
+    }
+
+    void start() throws JCSMPException {
+        final long now = System.nanoTime();
+        lastTickNanos = now;
+        lastHeardNanos = now;
+        backend.subscribe(topic, this);
+        scheduler.scheduleAtFixedRate(this::tick, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        scheduler.shutdownNow();
+        try {
+            backend.unsubscribe(topic, this);
+        }
+        catch (JCSMPException e) {
+            logger.warn("Error removing subscription {}: {}", topic, e.getMessage());
+        }
+    }
+
+    /**
+     * Records that the application made progress; lock-free and allocation-free.
+     */
+    void alive() {
+        lastAliveNanos = System.nanoTime();
+    }
+
+    /**
+     * @return Time since the Active member's latest heartbeat was heard, or 0 while this member is Active.
+     */
+    long getSilenceMillis() {
+        if (active.getAsBoolean())
+            return 0;
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastHeardNanos);
+    }
+
+    private void tick() {
+        final long now = System.nanoTime();
+        final long late = now - lastTickNanos - intervalNanos;
+        lastTickNanos = now;
+        if (!active.getAsBoolean()) {
+            if (!silent && now - lastHeardNanos > timeoutNanos) {
+                silent = true;
+                logger.warn("No heartbeat from the Active member of cluster {} for {}ms", clusterName,
+                        TimeUnit.NANOSECONDS.toMillis(now - lastHeardNanos));
+            }
+            return;
+        }
+        // Once Backup again, silence is counted from the end of this member's own leadership
+        lastHeardNanos = now;
+        if (late > timeoutNanos) {
+            logger.warn("Heartbeat of cluster {} ran {}ms late, relinquishing leadership", clusterName,
+                    TimeUnit.NANOSECONDS.toMillis(late));
+            relinquish.run();
+            return;
+        }
+        final long alive = lastAliveNanos;
+        if (alive != 0 && alive != relinquishedAliveNanos && now - alive > timeoutNanos) {
+            logger.warn("No progress reported in cluster {} for {}ms, relinquishing leadership", clusterName,
+                    TimeUnit.NANOSECONDS.toMillis(now - alive));
+            relinquishedAliveNanos = alive;
+            relinquish.run();
+            return;
+        }
+        try {
+            backend.publishDirect(topic, message);
+        }
+        catch (JCSMPException e) {
+            logger.warn("Error publishing heartbeat of cluster {}: {}", clusterName, e.getMessage());
+        }
+    }
+
+    final private FTBackend backend;
+    final private String clusterName;
+    final private String topic;
+    final private long intervalMillis;
+    final private long intervalNanos;
+    final private long timeoutNanos;
+    final private BooleanSupplier active;
+    final private Runnable relinquish;
+    final private BytesXMLMessage message = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+    final private ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "solft-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile long lastHeardNanos;
+    private volatile long lastAliveNanos;
+    private volatile boolean silent;
+    // Only touched by the heartbeat thread
+    private long lastTickNanos;
+    private long relinquishedAliveNanos;
+}
@@ -0,0 +1,134 @@
+package com.solacesystems.poc;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Internal Java Flight Recorder events of the election and activation lifecycle, only loaded through
+ * {@link FlightEvents} on runtimes that include JFR. Every event carries the cluster it concerns and, where the
+ * binding knows them, the member's role and epoch when the event occurred.
+ */
+final class JfrEvents {
+    private JfrEvents() {}
+
+    static void flow(String cluster, String role, long epoch) {
+        end(begin(new FlowEvent(), cluster, role, epoch));
+    }
+
+    static Object beginStateFetch(String cluster) {
+        return begin(new StateFetchEvent(), cluster, FlightEvents.ACTIVE, 0);
+    }
+
+    static void endStateFetch(Object event, boolean found, long epoch) {
+        ((StateFetchEvent) event).found = found;
+        ((StateFetchEvent) event).epoch = epoch;
+        end(event);
+    }
+
+    static Object beginBrowse(String queueName) {
+        return begin(new BrowseEvent(), queueName, null, 0);
+    }
+
+    static void endBrowse(Object event, boolean found) {
+        ((BrowseEvent) event).found = found;
+        end(event);
+    }
+
+    static Object beginListener(String cluster, String role, long epoch) {
+        return begin(new ListenerEvent(), cluster, role, epoch);
+    }
+
+    static Object beginProvision(String queueName, String subscription) {
+        final ProvisionEvent event = new ProvisionEvent();
+        event.subscription = subscription;
+        return begin(event, queueName, null, 0);
+    }
+
+    static Object beginSubscribe(String queueName, String subscription) {
+        final SubscribeEvent event = new SubscribeEvent();
+        event.subscription = subscription;
+        return begin(event, queueName, null, 0);
+    }
+
+    static Object beginStop(String cluster, String role, long epoch) {
+        return begin(new StopEvent(), cluster, role, epoch);
+    }
+
+    static void end(Object event) {
+        if (event != null)
+            ((FTEvent) event).commit();
+    }
+
+    private static Object begin(FTEvent event, String cluster, String role, long epoch) {
+        if (!event.isEnabled())
+            return null;
+        event.cluster = cluster;
+        event.role = role;
+        event.epoch = epoch;
+        event.begin();
+        return event;
+    }
+
+    @Category({"Solace", "FT"})
+    abstract static class FTEvent extends Event {
+        @Label("Cluster")
+        String cluster;
+        @Label("Role")
+        String role;
+        @Label("Epoch")
+        long epoch;
+    }
+
+    @Name("com.solacesystems.poc.FlowEvent")
+    @Label("Flow Event")
+    @Description("A flow event of a cluster binding reached the activation pipeline")
+    static class FlowEvent extends FTEvent {
+    }
+
+    @Name("com.solacesystems.poc.StateFetch")
+    @Label("State Fetch")
+    @Description("Fetch of the previous Active member's last output on activation")
+    static class StateFetchEvent extends FTEvent {
+        @Label("Found")
+        boolean found;
+    }
+
+    @Name("com.solacesystems.poc.Browse")
+    @Label("Queue Browse")
+    @Description("Browse of a cluster queue for its last retained message")
+    static class BrowseEvent extends FTEvent {
+        @Label("Found")
+        boolean found;
+    }
+
+    @Name("com.solacesystems.poc.Listener")
+    @Label("Listener")
+    @Description("Invocation of the application's listener for a role change")
+    static class ListenerEvent extends FTEvent {
+    }
+
+    @Name("com.solacesystems.poc.Provision")
+    @Label("Provision")
+    @Description("Provisioning of a cluster queue and its subscription")
+    static class ProvisionEvent extends FTEvent {
+        @Label("Subscription")
+        String subscription;
+    }
+
+    @Name("com.solacesystems.poc.Subscribe")
+    @Label("Subscribe")
+    @Description("Mapping of a topic subscription to a cluster queue")
+    static class SubscribeEvent extends FTEvent {
+        @Label("Subscription")
+        String subscription;
+    }
+
+    @Name("com.solacesystems.poc.Stop")
+    @Label("Stop")
+    @Description("Stop of a manager, unbinding its cluster")
+    static class StopEvent extends FTEvent {
+    }
+}
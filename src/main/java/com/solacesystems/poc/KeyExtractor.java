@@ -0,0 +1,22 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+
+/**
+ * Interface deriving the key an output message updates in a keyed stateful member's
+ * {@link com.solacesystems.poc.LastValueStore}. By default the key is the message's topic.
+ */
+public interface KeyExtractor {
+    /**
+     * Extractor using each output message's topic as its key.
+     */
+    KeyExtractor TOPIC = (topic, msg) -> topic;
+
+    /**
+     * Returns the key updated by an output message.
+     * @param topic Topic the output message was published on.
+     * @param msg The output message.
+     * @return The key, or null to ignore the message.
+     */
+    public String keyOf(String topic, BytesXMLMessage msg);
+}
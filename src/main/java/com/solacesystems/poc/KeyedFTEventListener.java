@@ -0,0 +1,21 @@
+package com.solacesystems.poc;
+
+/**
+ * Interface for applications joining a FT-Cluster through
+ * {@link com.solacesystems.poc.FTMgr#startKeyed(String, String, KeyedFTEventListener)} and receiving, on activation,
+ * the latest output of the previous Active member for every key rather than a single last message.
+ *
+ * See also {@link com.solacesystems.poc.FTEventListener}
+ */
+public interface KeyedFTEventListener {
+    /**
+     * Invoked by the {@link FTMgr} when this listening application becomes the Active member of the cluster.
+     * @param state Snapshot of the latest output value for every key seen by this member.
+     */
+    public void onActive(KeyedState state);
+
+    /**
+     * Invoked by the {@link FTMgr} when this listening application changes to become a Backup member of the cluster.
+     */
+    public void onBackup();
+}
@@ -0,0 +1,94 @@
+package com.solacesystems.poc;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+
+/**
+ * An immutable point-in-time view of a {@link com.solacesystems.poc.LastValueStore}: the latest output value for
+ * every key, handed to a {@link com.solacesystems.poc.KeyedFTEventListener} on activation. Values are exposed as
+ * read-only buffers over the stored bytes, without copying; iteration streams over the snapshot in table order.
+ */
+public class KeyedState implements Iterable<Map.Entry<String, ByteBuffer>> {
+
+    KeyedState(String[] keys, byte[][] values, int size, boolean complete) {
+        this.keys = keys;
+        this.values = values;
+        this.size = size;
+        this.complete = complete;
+    }
+
+    /**
+     * @return The number of keys in this snapshot.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Tells whether this snapshot holds every key's latest value. A keyed member loads the output retained before
+     * it started, so its snapshot is only incomplete if that load failed or timed out, or if output for new keys
+     * was dropped because the store was full; keys whose latest value was published before then may be missing or
+     * out of date.
+     * @return true if no output is known to be missing.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Returns the latest value of a key.
+     * @param key The key.
+     * @return A read-only view of the value, or null if the key is not present.
+     */
+    public ByteBuffer get(String key) {
+        final byte[] value = values[LastValueStore.indexOf(keys, key)];
+        return value == null ? null : ByteBuffer.wrap(value).asReadOnlyBuffer();
+    }
+
+    /**
+     * Invokes the action for every key and its latest value, without allocating an entry per key.
+     * @param action Action to be invoked with each key and a read-only view of its value.
+     */
+    public void forEach(BiConsumer<String, ByteBuffer> action) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null)
+                action.accept(keys[i], ByteBuffer.wrap(values[i]).asReadOnlyBuffer());
+        }
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, ByteBuffer>> iterator() {
+        return new Iterator<Map.Entry<String, ByteBuffer>>() {
+            private int next = advance(0);
+
+            @Override
+            public boolean hasNext() {
+                return next < keys.length;
+            }
+
+            @Override
+            public Map.Entry<String, ByteBuffer> next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                final int current = next;
+                next = advance(current + 1);
+                return new AbstractMap.SimpleImmutableEntry<>(keys[current], ByteBuffer.wrap(values[current]).asReadOnlyBuffer());
+            }
+
+            private int advance(int from) {
+                while (from < keys.length && keys[from] == null)
+                    from++;
+                return from;
+            }
+        };
+    }
+
+    final private String[] keys;
+    final private byte[][] values;
+    final private int size;
+    final private boolean complete;
+}
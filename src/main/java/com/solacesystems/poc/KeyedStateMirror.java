@@ -0,0 +1,121 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Internal listener compacting every output message into a {@link LastValueStore}, keyed by a {@link KeyExtractor}.
+ * Each value is copied once out of the message, so the message itself is not retained.
+ *
+ * <p>Output published before the member started is loaded once from a queue retaining the cluster's output
+ * through {@link #load(FTBackend, String, int)}. Loading compacts that queue too, removing every message superseded
+ * by a later one for the same key, and deletions once nothing older remains for their key.</p>
+ */
+class KeyedStateMirror implements FTMessageListener {
+    private static final Logger logger = LoggerFactory.getLogger(KeyedStateMirror.class);
+
+    KeyedStateMirror(LastValueStore store, KeyExtractor keyExtractor) {
+        this.store = store;
+        this.keyExtractor = keyExtractor;
+    }
+
+    @Override
+    public void onMessage(String topic, BytesXMLMessage msg) {
+        final String key = keyExtractor.keyOf(topic, msg);
+        if (key == null)
+            return;
+        final byte[] value = valueOf(msg);
+        synchronized (this) {
+            if (updatedWhileLoading != null)
+                updatedWhileLoading.add(key);
+            store.put(key, value);
+        }
+    }
+
+    /**
+     * Loads the latest value of every key from the messages retained on a queue, which must already be subscribed
+     * to the output while this mirror is. Keys updated by output received directly in the meantime keep that newer
+     * value. The mirror counts as complete only once a load has browsed the whole queue.
+     * @param backend Backend to browse the queue through.
+     * @param queueName Queue retaining the cluster's output.
+     * @param timeoutMillis Maximum time to wait for each message.
+     * @throws JCSMPException In the event of any error browsing the queue.
+     */
+    void load(FTBackend backend, String queueName, int timeoutMillis) throws JCSMPException {
+        synchronized (this) {
+            updatedWhileLoading = new HashSet<>();
+        }
+        final Map<String, BytesXMLMessage> latest = new HashMap<>();
+        final FTBrowser browser = backend.browse(queueName);
+        try {
+            while (true) {
+                final long started = System.nanoTime();
+                final BytesXMLMessage msg = browser.next(timeoutMillis);
+                if (msg == null) {
+                    // A browse ends early rather than fail when the broker is slow, which would leave keys missing
+                    complete = System.nanoTime() - started < TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+                    break;
+                }
+                final String key = keyExtractor.keyOf(browser.topicOf(msg), msg);
+                final BytesXMLMessage superseded = key == null ? msg : latest.put(key, msg);
+                if (superseded != null)
+                    remove(browser, queueName, superseded);
+            }
+            for (Map.Entry<String, BytesXMLMessage> entry : latest.entrySet()) {
+                final byte[] value = valueOf(entry.getValue());
+                synchronized (this) {
+                    if (!updatedWhileLoading.contains(entry.getKey()))
+                        store.put(entry.getKey(), value);
+                }
+                if (value.length == 0)
+                    remove(browser, queueName, entry.getValue());
+            }
+        }
+        finally {
+            browser.close();
+            synchronized (this) {
+                updatedWhileLoading = null;
+            }
+        }
+    }
+
+    /**
+     * @return true if output published before this member started was loaded, and no key was dropped since.
+     */
+    boolean isComplete() {
+        return complete && store.getRejectedCount() == 0;
+    }
+
+    private static byte[] valueOf(BytesXMLMessage msg) {
+        final byte[] value = new byte[msg.getAttachmentContentLength()];
+        if (value.length > 0)
+            msg.readAttachmentBytes(value);
+        return value;
+    }
+
+    /**
+     * Removes a message no longer needed; another member loading at the same time may have removed it already.
+     */
+    private static void remove(FTBrowser browser, String queueName, BytesXMLMessage msg) {
+        try {
+            browser.remove(msg);
+        }
+        catch (JCSMPException e) {
+            logger.debug("Could not remove superseded output from {}: {}", queueName, e.getMessage());
+        }
+    }
+
+    final private LastValueStore store;
+    final private KeyExtractor keyExtractor;
+    // Keys updated by live output during a load, whose loaded values are older
+    private Set<String> updatedWhileLoading;
+    private volatile boolean complete;
+}
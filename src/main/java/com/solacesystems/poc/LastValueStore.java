@@ -0,0 +1,200 @@
+package com.solacesystems.poc;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A compacted, bounded last-value-per-key store of binary values, used by keyed stateful members to
+ * keep the latest output of the Active member for every key (by default, every output topic).</p>
+ *
+ * <p>Entries are held in a pair of parallel open-addressing arrays, keys and values, with linear probing, so
+ * each entry costs two array slots beyond its own key and value rather than a map entry object. The table grows
+ * on demand up to the size needed for <code>maxKeys</code>; once that many keys are held, new keys are rejected
+ * and counted (see {@link #getRejectedCount()}) while existing keys continue to be updated.</p>
+ *
+ * <p>All methods are thread-safe. Stored values are never modified in place, so a {@link #snapshot()}
+ * is a copy of the two arrays and shares the value bytes with the store.</p>
+ */
+public class LastValueStore {
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * Creates an empty store.
+     * @param maxKeys Maximum number of keys held at once.
+     */
+    public LastValueStore(int maxKeys) {
+        if (maxKeys <= 0)
+            throw new IllegalArgumentException("Maximum key count must be positive: " + maxKeys);
+        this.maxKeys = maxKeys;
+        this.maxCapacity = capacityFor(maxKeys);
+        final int capacity = Math.min(MIN_CAPACITY, maxCapacity);
+        this.keys = new String[capacity];
+        this.values = new byte[capacity][];
+    }
+
+    /**
+     * Sets the latest value of a key. A <code>null</code> or empty value removes the key.
+     * @param key The key.
+     * @param value The key's latest value; the store keeps a reference to this array, which must not be modified.
+     * @return false if the key was new and rejected because the store already holds <code>maxKeys</code> keys.
+     */
+    public synchronized boolean put(String key, byte[] value) {
+        if (value == null || value.length == 0) {
+            remove(key);
+            return true;
+        }
+        int index = indexOf(keys, key);
+        if (keys[index] == null) {
+            if (size == maxKeys) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            if ((size + 1) * 4L > keys.length * 3L && keys.length < maxCapacity) {
+                resize(keys.length * 2);
+                index = indexOf(keys, key);
+            }
+            keys[index] = key;
+            size++;
+        }
+        values[index] = value;
+        return true;
+    }
+
+    /**
+     * Removes a key.
+     * @param key The key.
+     * @return true if the key was present.
+     */
+    public synchronized boolean remove(String key) {
+        int hole = indexOf(keys, key);
+        if (keys[hole] == null)
+            return false;
+        keys[hole] = null;
+        values[hole] = null;
+        size--;
+        // Backward-shift deletion: pull later entries of the probe run into the hole so lookups never stop early
+        final int mask = keys.length - 1;
+        int next = hole;
+        while (true) {
+            next = (next + 1) & mask;
+            if (keys[next] == null)
+                return true;
+            final int home = slot(keys[next], mask);
+            final boolean homeInRange = hole <= next
+                    ? (hole < home && home <= next)
+                    : (hole < home || home <= next);
+            if (!homeInRange) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                keys[next] = null;
+                values[next] = null;
+                hole = next;
+            }
+        }
+    }
+
+    /**
+     * Returns the latest value of a key.
+     * @param key The key.
+     * @return A read-only view of the value, or null if the key is not present.
+     */
+    public synchronized ByteBuffer get(String key) {
+        final byte[] value = values[indexOf(keys, key)];
+        return value == null ? null : ByteBuffer.wrap(value).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return The number of keys held.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return The maximum number of keys this store holds.
+     */
+    public int getMaxKeys() {
+        return maxKeys;
+    }
+
+    /**
+     * @return The number of new keys rejected since creation because the store was full.
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Removes every key.
+     */
+    public synchronized void clear() {
+        keys = new String[Math.min(MIN_CAPACITY, maxCapacity)];
+        values = new byte[keys.length][];
+        size = 0;
+    }
+
+    /**
+     * Returns an immutable point-in-time view of the store, unaffected by later updates.
+     * @return A snapshot of every key and its latest value.
+     */
+    public KeyedState snapshot() {
+        return snapshot(true);
+    }
+
+    /**
+     * Returns a snapshot of the store, which is complete only if <code>complete</code> and no key was rejected.
+     */
+    synchronized KeyedState snapshot(boolean complete) {
+        return new KeyedState(keys.clone(), values.clone(), size, complete && getRejectedCount() == 0);
+    }
+
+    /**
+     * Finds the slot holding the key, or the empty slot ending its probe run.
+     */
+    static int indexOf(String[] keys, String key) {
+        final int mask = keys.length - 1;
+        int index = slot(key, mask);
+        while (keys[index] != null && !keys[index].equals(key))
+            index = (index + 1) & mask;
+        return index;
+    }
+
+    private static int slot(String key, int mask) {
+        final int h = key.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Smallest power of two keeping <code>maxKeys</code> entries at or below a 3/4 load factor.
+     */
+    private static int capacityFor(int maxKeys) {
+        final long needed = maxKeys * 4L / 3 + 1;
+        long capacity = MIN_CAPACITY;
+        while (capacity < needed)
+            capacity <<= 1;
+        if (capacity > (1 << 30))
+            throw new IllegalArgumentException("Maximum key count too large: " + maxKeys);
+        return (int) capacity;
+    }
+
+    private void resize(int capacity) {
+        final String[] oldKeys = keys;
+        final byte[][] oldValues = values;
+        keys = new String[capacity];
+        values = new byte[capacity][];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                final int index = indexOf(keys, oldKeys[i]);
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    final private int maxKeys;
+    final private int maxCapacity;
+    final private AtomicLong rejected = new AtomicLong();
+    private String[] keys;
+    private byte[][] values;
+    private int size;
+}
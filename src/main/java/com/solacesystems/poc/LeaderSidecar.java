@@ -0,0 +1,122 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Internal sidecar daemon binding to many FT-Clusters on behalf of the processes of one host, and publishing the
+ * role and epoch of each in a {@link LeaderStatusFile} those processes poll instead of joining the clusters
+ * themselves. Members created from the same connection properties share one session, so a host needs only one.
+ */
+class LeaderSidecar {
+    private static final Logger logger = LoggerFactory.getLogger(LeaderSidecar.class);
+
+    /**
+     * Sidecar configuration property listing the clusters to join, separated by commas.
+     */
+    static final String CLUSTERS_PROPERTY = "clusters";
+
+    /**
+     * Sidecar configuration property naming the status file; defaults to <code>/dev/shm/solft.status</code>.
+     */
+    static final String STATUS_FILE_PROPERTY = "statusFile";
+
+    /**
+     * Creates a sidecar joining every cluster of the configuration over one Solace session.
+     * @param connectionProperties Solace session properties.
+     * @param config Sidecar configuration; see {@link #CLUSTERS_PROPERTY} and {@link #STATUS_FILE_PROPERTY}.
+     * @return The running sidecar.
+     * @throws JCSMPException In the event of any error connecting to Solace or binding to a cluster.
+     * @throws IOException In the event of any error creating the status file.
+     */
+    static LeaderSidecar start(Properties connectionProperties, Properties config) throws JCSMPException, IOException {
+        final List<String> clusterNames = new ArrayList<>();
+        for (String name : config.getProperty(CLUSTERS_PROPERTY, "").split(",")) {
+            if (!name.trim().isEmpty())
+                clusterNames.add(name.trim());
+        }
+        if (clusterNames.isEmpty())
+            throw new IllegalArgumentException("No clusters configured in property " + CLUSTERS_PROPERTY);
+        final Path statusFile = Paths.get(config.getProperty(STATUS_FILE_PROPERTY, "/dev/shm/solft.status"));
+        final LeaderSidecar sidecar = new LeaderSidecar(LeaderStatusFile.create(statusFile, clusterNames));
+        try {
+            for (String clusterName : clusterNames)
+                sidecar.join(new FTMgr(connectionProperties), clusterName);
+        }
+        catch (JCSMPException | RuntimeException e) {
+            sidecar.stop();
+            throw e;
+        }
+        logger.info("Sidecar publishing the roles of {} clusters to {}", clusterNames.size(), statusFile);
+        return sidecar;
+    }
+
+    LeaderSidecar(LeaderStatusFile status) {
+        this.status = status;
+        this.refresher.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                for (int slot = 0; slot < status.getSlotCount(); slot++)
+                    status.touch(slot);
+            }
+        }, LeaderStatusFile.REFRESH_MILLIS, LeaderStatusFile.REFRESH_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts a member of a cluster, recording its role changes in the cluster's slot of the status file.
+     * @param ftMgr Member to start.
+     * @param clusterName Cluster to join; must have a slot in the status file.
+     * @throws JCSMPException In the event of any error binding to the cluster.
+     */
+    void join(final FTMgr ftMgr, String clusterName) throws JCSMPException {
+        final int slot = status.slot(clusterName);
+        if (slot < 0)
+            throw new IllegalArgumentException("No status slot for cluster " + clusterName);
+        synchronized (members) {
+            members.add(ftMgr);
+        }
+        ftMgr.start(clusterName, new FTEventListener() {
+            @Override
+            public void onActive(BytesXMLMessage msg) {
+                status.update(slot, true, ftMgr.getEpoch());
+            }
+            @Override
+            public void onBackup() {
+                status.update(slot, false, ftMgr.getEpoch());
+            }
+        });
+    }
+
+    /**
+     * Stops every member, leaving each slot Backup, and stops refreshing the status file.
+     */
+    void stop() {
+        refresher.shutdownNow();
+        synchronized (members) {
+            for (FTMgr ftMgr : members)
+                ftMgr.stop();
+            members.clear();
+        }
+        status.close();
+    }
+
+    final private LeaderStatusFile status;
+    final private List<FTMgr> members = new ArrayList<>();
+    final private ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "solft-sidecar");
+        thread.setDaemon(true);
+        return thread;
+    });
+}
@@ -0,0 +1,279 @@
+package com.solacesystems.poc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Memory-mapped file publishing the role and epoch of several FT-Clusters to every process on a host, written by the
+ * sidecar daemon run by {@link FTMgr#main(String[])} and polled by co-located processes without any broker session
+ * or system call of their own.
+ * Open a file with {@link #open(Path)}, look up the slot of a cluster once with {@link #slot(String)}, and check it
+ * with {@link #isActive(int)} as often as needed; reads are lock-free and allocation-free.
+ *
+ * <p>The file is little-endian: a 64 byte header (magic <code>0x534f4c46</code>, version, slot count, slot size as
+ * ints) followed by one 128 byte slot per cluster, holding a sequence number, the state (epoch shifted left by one,
+ * with the lowest bit set while Active) and the time of the latest update in milliseconds since the epoch as longs,
+ * followed by the length and UTF-8 bytes of the cluster name. The writer makes the sequence number odd while
+ * updating a slot, so readers in any language can read it seqlock-style: read the sequence number, the fields and
+ * the sequence number again, and retry unless both reads return the same even number. A slot left half-written for
+ * over a second, by a sidecar that died mid-update, reads as Backup in epoch 0, updated at time 0.</p>
+ *
+ * <p>The sidecar refreshes the update time of every slot every {@link #REFRESH_MILLIS}; a slot not updated for
+ * {@link #STALE_MILLIS} means the sidecar is gone or hung and its roles can no longer be trusted, so
+ * {@link #isActive(int)} and {@link #checkEpoch(int, long)} treat it as Backup. A restarted sidecar replaces the file, so
+ * readers should open it again once its updates stop.</p>
+ */
+public final class LeaderStatusFile implements Closeable {
+
+    /**
+     * Longest cluster name a slot holds, in UTF-8 bytes.
+     */
+    public static final int MAX_NAME_LENGTH = 100;
+
+    /**
+     * Interval at which the sidecar refreshes the update time of every slot, in milliseconds.
+     */
+    public static final long REFRESH_MILLIS = 1000;
+
+    /**
+     * Age in milliseconds after which a slot's role is no longer trusted, a few refreshes so that a briefly delayed
+     * sidecar does not read as Backup.
+     */
+    public static final long STALE_MILLIS = 3 * REFRESH_MILLIS;
+
+    /**
+     * Creates a status file with one slot per cluster, every cluster Backup, replacing any existing file.
+     * @param path Path of the file, preferably on a memory-backed file system such as <code>/dev/shm</code>.
+     * @param clusterNames Clusters to hold a slot for, in slot order.
+     * @return The status file, open for writing.
+     * @throws IOException In the event of any error creating or mapping the file.
+     */
+    static LeaderStatusFile create(Path path, List<String> clusterNames) throws IOException {
+        // A new file rather than a rewritten one, so that readers of a previous sidecar's file see it go stale
+        Files.deleteIfExists(path);
+        final int size = HEADER_SIZE + clusterNames.size() * SLOT_SIZE;
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        final long now = System.currentTimeMillis();
+        for (int slot = 0; slot < clusterNames.size(); slot++) {
+            final byte[] name = clusterNames.get(slot).getBytes(StandardCharsets.UTF_8);
+            if (name.length > MAX_NAME_LENGTH)
+                throw new IllegalArgumentException("Cluster name too long for a status slot: " + clusterNames.get(slot));
+            final int base = base(slot);
+            buffer.putLong(base + UPDATED, now);
+            buffer.putInt(base + NAME_LENGTH, name.length);
+            for (int i = 0; i < name.length; i++)
+                buffer.put(base + NAME + i, name[i]);
+        }
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putInt(SLOTS_OFFSET, clusterNames.size());
+        buffer.putInt(SLOT_SIZE_OFFSET, SLOT_SIZE);
+        // The magic number goes last, so a reader never sees a file that is only partly initialised
+        fence = true;
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+        return new LeaderStatusFile(buffer, clusterNames.size());
+    }
+
+    /**
+     * Opens a status file written by a sidecar for reading.
+     * @param path Path of the file.
+     * @return The status file, open for reading.
+     * @throws IOException In the event of any error mapping the file, or if it is not a status file.
+     */
+    public static LeaderStatusFile open(Path path) throws IOException {
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE)
+                throw new IOException("Not a leader status file: " + path);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(MAGIC_OFFSET) != MAGIC || !fence)
+            throw new IOException("Not a leader status file: " + path);
+        if (buffer.getInt(VERSION_OFFSET) != VERSION || buffer.getInt(SLOT_SIZE_OFFSET) != SLOT_SIZE)
+            throw new IOException("Unsupported leader status file version: " + path);
+        final int slots = buffer.getInt(SLOTS_OFFSET);
+        if (buffer.capacity() < HEADER_SIZE + slots * SLOT_SIZE)
+            throw new IOException("Truncated leader status file: " + path);
+        return new LeaderStatusFile(buffer, slots);
+    }
+
+    private LeaderStatusFile(MappedByteBuffer buffer, int slots) {
+        this.buffer = buffer;
+        this.slots = slots;
+    }
+
+    /**
+     * @return The number of clusters in the file.
+     */
+    public int getSlotCount() {
+        return slots;
+    }
+
+    /**
+     * Looks up the slot of a cluster; look it up once rather than on every check.
+     * @param clusterName Name of the FT-Cluster.
+     * @return The cluster's slot, or -1 if the file has none for it.
+     */
+    public int slot(String clusterName) {
+        for (int slot = 0; slot < slots; slot++) {
+            if (getClusterName(slot).equals(clusterName))
+                return slot;
+        }
+        return -1;
+    }
+
+    /**
+     * @param slot Slot of the cluster.
+     * @return The name of the cluster in the slot.
+     */
+    public String getClusterName(int slot) {
+        final int base = base(slot);
+        final byte[] name = new byte[buffer.getInt(base + NAME_LENGTH)];
+        for (int i = 0; i < name.length; i++)
+            name[i] = buffer.get(base + NAME + i);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Lock-free, allocation-free check whether the sidecar's member of a cluster is Active.
+     * @param slot Slot of the cluster.
+     * @return true if Active and the slot was updated within {@link #STALE_MILLIS}.
+     */
+    public boolean isActive(int slot) {
+        return (read(slot, STATE, ~1L) & 1) != 0;
+    }
+
+    /**
+     * @param slot Slot of the cluster.
+     * @return The epoch of the latest activation of the sidecar's member, or 0 if it was never Active.
+     */
+    public long getEpoch(int slot) {
+        return read(slot, STATE, -1L) >>> 1;
+    }
+
+    /**
+     * Checks that the sidecar's member of a cluster is still Active in the given epoch, as {@link FTMgr#checkEpoch(long)}.
+     * @param slot Slot of the cluster.
+     * @param epoch Epoch returned by {@link #getEpoch(int)} when the work started.
+     * @return true if Active, no newer activation has happened since, and the slot was updated within
+     * {@link #STALE_MILLIS}.
+     */
+    public boolean checkEpoch(int slot, long epoch) {
+        return read(slot, STATE, ~1L) == ((epoch << 1) | 1);
+    }
+
+    /**
+     * @param slot Slot of the cluster.
+     * @return The time the sidecar last updated or refreshed the slot, in milliseconds since the epoch.
+     */
+    public long getUpdated(int slot) {
+        return read(slot, UPDATED, -1L);
+    }
+
+    /**
+     * Unmapping is left to the garbage collector; closing only marks the file as no longer used.
+     */
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * Records a role change of the sidecar's member of a cluster.
+     */
+    synchronized void update(int slot, boolean active, long epoch) {
+        write(slot, (epoch << 1) | (active ? 1 : 0));
+    }
+
+    /**
+     * Refreshes the update time of a slot without changing it.
+     */
+    synchronized void touch(int slot) {
+        write(slot, buffer.getLong(base(slot) + STATE));
+    }
+
+    private void write(int slot, long state) {
+        if (closed)
+            return;
+        final int base = base(slot);
+        final long seq = buffer.getLong(base + SEQ);
+        buffer.putLong(base + SEQ, seq + 1);
+        fence = true;
+        buffer.putLong(base + STATE, state);
+        buffer.putLong(base + UPDATED, System.currentTimeMillis());
+        fence = true;
+        buffer.putLong(base + SEQ, seq + 2);
+    }
+
+    /**
+     * Reads a field of a slot seqlock-style, masking it with <code>staleMask</code> once the slot went stale.
+     */
+    private long read(int slot, int field, long staleMask) {
+        final int base = base(slot);
+        long deadline = 0;
+        for (int spins = 1; ; spins++) {
+            final long seq = buffer.getLong(base + SEQ);
+            boolean ordered = fence;
+            final long value = buffer.getLong(base + field);
+            final long updated = buffer.getLong(base + UPDATED);
+            ordered &= fence;
+            if (ordered && (seq & 1) == 0 && buffer.getLong(base + SEQ) == seq) {
+                if (staleMask != -1L && System.currentTimeMillis() - updated > STALE_MILLIS)
+                    return value & staleMask;
+                return value;
+            }
+            if (spins % YIELD_SPINS == 0) {
+                // The writer may have been descheduled mid-update; let it run, but not forever
+                if (deadline == 0)
+                    deadline = System.nanoTime() + ABANDONED_NANOS;
+                else if (System.nanoTime() - deadline > 0)
+                    return 0;
+                Thread.yield();
+            }
+        }
+    }
+
+    private static int base(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    // Writing and reading this volatile fences the plain accesses to the mapping, which other processes see as
+    // shared memory; it is always true, and only read so that the read is not optimised away
+    private static volatile boolean fence = true;
+
+    // Updates take nanoseconds, so a slot still odd this long after the first yield was abandoned mid-update
+    private static final int YIELD_SPINS = 1000;
+    private static final long ABANDONED_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    static final int MAGIC = 0x534f4c46;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int SLOT_SIZE = 128;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int SLOTS_OFFSET = 8;
+    private static final int SLOT_SIZE_OFFSET = 12;
+    private static final int SEQ = 0;
+    private static final int STATE = 8;
+    private static final int UPDATED = 16;
+    private static final int NAME_LENGTH = 24;
+    private static final int NAME = 28;
+
+    final private MappedByteBuffer buffer;
+    final private int slots;
+    private volatile boolean closed;
+}
@@ -0,0 +1,246 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>An in-process stand-in for a Solace Message Broker, modelling just enough of the exclusive-queue semantics
+ * used for FT-Clusters to run real failover paths without any network: the first member bound to a cluster
+ * becomes Active, Backups are promoted in the order they bound (ranked by bind priority, if any) whenever the Active
+ * unbinds, and each cluster
+ * queue retains the last value published on any topic matching its output subscriptions. Queues provisioned
+ * through {@link com.solacesystems.poc.FTBackend#provisionQueue(String, String)} instead retain every matching
+ * message until it is removed, and direct subscribers receive every matching message as it is published.</p>
+ *
+ * <p>Members join a broker through a {@link com.solacesystems.poc.LoopbackConnection}, which can be passed into
+ * the {@link com.solacesystems.poc.FTMgr#FTMgr(FTBackend)} constructor. Any number of members, in any number of
+ * clusters, can share one broker inside a single JVM.</p>
+ *
+ * <p>Flow events are delivered in order, never while holding the broker lock, and on the thread that caused them
+ * unless another thread is already delivering events, in which case that thread delivers them instead. Listeners
+ * may therefore call back into the broker (e.g. stop their {@link com.solacesystems.poc.FTMgr}) from an event.</p>
+ */
+public class LoopbackBroker {
+
+    /**
+     * Publish a message on a topic. Every cluster queue with an output subscription matching the topic
+     * retains this message as its last value, and it is delivered to every matching direct subscription.
+     * @param topic Topic to publish the message on.
+     * @param msg Message to publish.
+     */
+    public void publish(final String topic, final BytesXMLMessage msg) {
+        synchronized (this) {
+            for (LoopbackQueue queue : queues.values()) {
+                for (String subscription : queue.subscriptions) {
+                    if (TopicMatcher.matches(subscription, topic)) {
+                        if (queue.retaining) {
+                            queue.spool.add(msg);
+                            queue.topics.put(msg, topic);
+                        }
+                        else
+                            queue.lastValue = msg;
+                        break;
+                    }
+                }
+            }
+            for (final DirectSubscription direct : directSubscriptions) {
+                if (TopicMatcher.matches(direct.subscription, topic)) {
+                    pendingEvents.add(new Runnable() {
+                        @Override
+                        public void run() {
+                            direct.listener.onMessage(topic, msg);
+                        }
+                    });
+                }
+            }
+        }
+        dispatchEvents();
+    }
+
+    /**
+     * Convenience method publishing a binary attachment on a topic; see {@link #publish(String, BytesXMLMessage)}.
+     * @param topic Topic to publish the message on.
+     * @param payload Binary attachment of the published message.
+     */
+    public void publish(String topic, byte[] payload) {
+        final BytesXMLMessage msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        msg.writeAttachment(payload);
+        publish(topic, msg);
+    }
+
+    /**
+     * Returns the number of members currently bound to the named cluster.
+     * @param clusterName Name of the FT-Cluster.
+     * @return Count of bound members, Active and Backup.
+     */
+    public synchronized int boundCount(String clusterName) {
+        final LoopbackQueue queue = queues.get(clusterName);
+        return queue == null ? 0 : queue.bindings.size();
+    }
+
+    void bind(String clusterName, Binding binding) {
+        synchronized (this) {
+            final List<Binding> bindings = provision(clusterName).bindings;
+            // Backups are ranked by priority, then by bind order; the Active member at the head is never displaced
+            int position = bindings.size();
+            for (int i = 1; i < bindings.size(); i++) {
+                if (bindings.get(i).priority < binding.priority) {
+                    position = i;
+                    break;
+                }
+            }
+            bindings.add(position, binding);
+            if (bindings.size() == 1)
+                enqueueActive(binding);
+        }
+        dispatchEvents();
+    }
+
+    void subscribe(String clusterName, String subscription) {
+        synchronized (this) {
+            final List<String> subscriptions = provision(clusterName).subscriptions;
+            if (!subscriptions.contains(subscription))
+                subscriptions.add(subscription);
+        }
+    }
+
+    void unbind(Binding binding) {
+        synchronized (this) {
+            final LoopbackQueue queue = queues.get(binding.clusterName);
+            if (queue == null)
+                return;
+            final int position = queue.bindings.indexOf(binding);
+            if (position < 0)
+                return;
+            queue.bindings.remove(position);
+            // Only the Active member leaving triggers an election; Backups leave silently
+            if (position == 0 && !queue.bindings.isEmpty())
+                enqueueActive(queue.bindings.get(0));
+        }
+        dispatchEvents();
+    }
+
+    synchronized void provisionRetaining(String queueName, String subscription) {
+        final LoopbackQueue queue = provision(queueName);
+        queue.retaining = true;
+        if (!queue.subscriptions.contains(subscription))
+            queue.subscriptions.add(subscription);
+    }
+
+    synchronized List<BytesXMLMessage> spooled(String queueName) {
+        final LoopbackQueue queue = queues.get(queueName);
+        return queue == null ? new ArrayList<BytesXMLMessage>() : new ArrayList<>(queue.spool);
+    }
+
+    synchronized String spooledTopic(String queueName, BytesXMLMessage msg) {
+        final LoopbackQueue queue = queues.get(queueName);
+        return queue == null ? null : queue.topics.get(msg);
+    }
+
+    synchronized void removeSpooled(String queueName, BytesXMLMessage msg) {
+        final LoopbackQueue queue = queues.get(queueName);
+        if (queue != null) {
+            queue.spool.remove(msg);
+            queue.topics.remove(msg);
+        }
+    }
+
+    synchronized void subscribe(DirectSubscription direct) {
+        directSubscriptions.add(direct);
+    }
+
+    synchronized void unsubscribe(DirectSubscription direct) {
+        directSubscriptions.remove(direct);
+    }
+
+    synchronized BytesXMLMessage lastValue(String clusterName) {
+        final LoopbackQueue queue = queues.get(clusterName);
+        return queue == null ? null : queue.lastValue;
+    }
+
+    private LoopbackQueue provision(String clusterName) {
+        LoopbackQueue queue = queues.get(clusterName);
+        if (queue == null) {
+            queue = new LoopbackQueue();
+            queues.put(clusterName, queue);
+        }
+        return queue;
+    }
+
+    private void enqueueActive(final Binding binding) {
+        pendingEvents.add(new Runnable() {
+            @Override
+            public void run() {
+                binding.listener.onActive(null);
+            }
+        });
+    }
+
+    /**
+     * Delivers queued events in order until none remain, unless another thread is already doing so.
+     */
+    private void dispatchEvents() {
+        synchronized (this) {
+            if (dispatching)
+                return;
+            dispatching = true;
+        }
+        while (true) {
+            final Runnable event;
+            synchronized (this) {
+                event = pendingEvents.poll();
+                if (event == null) {
+                    dispatching = false;
+                    return;
+                }
+            }
+            try {
+                event.run();
+            }
+            catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * A single member's binding to a cluster queue.
+     */
+    static class Binding {
+        Binding(String clusterName, FTEventListener listener) {
+            this(clusterName, 0, listener);
+        }
+
+        Binding(String clusterName, int priority, FTEventListener listener) {
+            this.clusterName = clusterName;
+            this.priority = priority;
+            this.listener = listener;
+        }
+
+        final String clusterName;
+        final int priority;
+        final FTEventListener listener;
+    }
+
+    private static class LoopbackQueue {
+        final List<Binding> bindings = new ArrayList<>();
+        final List<String> subscriptions = new ArrayList<>();
+        final List<BytesXMLMessage> spool = new ArrayList<>();
+        // Loopback messages carry no destination, so the topic each spooled message was published on is kept here
+        final Map<BytesXMLMessage, String> topics = new IdentityHashMap<>();
+        boolean retaining;
+        BytesXMLMessage lastValue;
+    }
+
+    final private Map<String, LoopbackQueue> queues = new HashMap<>();
+    final private List<DirectSubscription> directSubscriptions = new ArrayList<>();
+    final private ArrayDeque<Runnable> pendingEvents = new ArrayDeque<>();
+    private boolean dispatching;
+}
@@ -0,0 +1,213 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An {@link com.solacesystems.poc.FTBackend} joining FT-Clusters hosted by an in-process
+ * {@link com.solacesystems.poc.LoopbackBroker} rather than a Solace Message Broker. Each instance plays the
+ * role of one member's Solace session; stopping it unbinds that member from every cluster it joined.
+ *
+ * <p>For fault injection, {@link #disconnect()} drops every cluster binding of the connection as a network failure
+ * would, and refuses new bindings until {@link #reconnect()} is called. Lost bindings are restored automatically
+ * with jittered exponential backoff once the connection is back, as the Solace backend does after a session or
+ * flow failure.</p>
+ */
+public class LoopbackConnection implements FTBackend {
+
+    /**
+     * Create a new connection to an in-process broker.
+     * @param broker Broker hosting the FT-Clusters to join.
+     */
+    public LoopbackConnection(LoopbackBroker broker) {
+        this.broker = broker;
+    }
+
+    /**
+     * Sets the backoff between attempts at restoring bindings lost through {@link #disconnect()}.
+     * @param initialDelayMillis Delay ceiling of the first attempt; doubled after every failed attempt.
+     * @param maxDelayMillis Maximum delay ceiling.
+     */
+    public void setReconnectBackoff(long initialDelayMillis, long maxDelayMillis) {
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Simulates a network failure: every cluster binding of this connection is lost, its members are told they
+     * are no longer Active, the broker promotes the next Backup of each cluster, and new bindings are refused until
+     * {@link #reconnect()}. The lost bindings are re-created in the background once the connection is back.
+     */
+    public void disconnect() {
+        final List<LoopbackBroker.Binding> lost;
+        synchronized (bindings) {
+            connected = false;
+            lost = new ArrayList<>(bindings);
+            bindings.clear();
+        }
+        for (final LoopbackBroker.Binding binding : lost) {
+            if (binding.listener instanceof BindingListener)
+                ((BindingListener) binding.listener).onBindingLost();
+            broker.unbind(binding);
+            supervisor().rebind(binding.clusterName,
+                    () -> bind(new LoopbackBroker.Binding(binding.clusterName, binding.priority, binding.listener)),
+                    () -> {
+                        if (binding.listener instanceof BindingListener)
+                            ((BindingListener) binding.listener).onBindingRestored();
+                    });
+        }
+    }
+
+    /**
+     * Ends a simulated network failure, allowing lost bindings to be restored.
+     */
+    public void reconnect() {
+        synchronized (bindings) {
+            connected = true;
+        }
+    }
+
+    @Override
+    public void bindExclusive(String clusterName, FTEventListener listener) throws JCSMPException {
+        bind(new LoopbackBroker.Binding(clusterName, listener));
+    }
+
+    @Override
+    public void bindExclusive(String clusterName, String outputSubscription, FTEventListener listener) throws JCSMPException {
+        broker.subscribe(clusterName, outputSubscription);
+        bind(new LoopbackBroker.Binding(clusterName, listener));
+    }
+
+    @Override
+    public void bindExclusive(String clusterName, String outputSubscription, int priority, FTEventListener listener) throws JCSMPException {
+        if (outputSubscription != null)
+            broker.subscribe(clusterName, outputSubscription);
+        bind(new LoopbackBroker.Binding(clusterName, priority, listener));
+    }
+
+    @Override
+    public CompletableFuture<BytesXMLMessage> fetchLastValue(String clusterName, long timeoutMillis) {
+        return CompletableFuture.completedFuture(broker.lastValue(clusterName));
+    }
+
+    @Override
+    public void subscribe(String subscription, FTMessageListener listener) throws JCSMPException {
+        final DirectSubscription direct = new DirectSubscription(subscription, listener);
+        synchronized (bindings) {
+            directSubscriptions.add(direct);
+        }
+        broker.subscribe(direct);
+    }
+
+    @Override
+    public void unsubscribe(String subscription, FTMessageListener listener) throws JCSMPException {
+        DirectSubscription removed = null;
+        synchronized (bindings) {
+            for (DirectSubscription direct : directSubscriptions) {
+                if (direct.isFor(subscription, listener)) {
+                    removed = direct;
+                    break;
+                }
+            }
+            directSubscriptions.remove(removed);
+        }
+        if (removed != null)
+            broker.unsubscribe(removed);
+    }
+
+    @Override
+    public void provisionQueue(String queueName, String subscription) throws JCSMPException {
+        broker.provisionRetaining(queueName, subscription);
+    }
+
+    @Override
+    public void publish(String topic, BytesXMLMessage msg) throws JCSMPException {
+        broker.publish(topic, msg);
+    }
+
+    @Override
+    public FTBrowser browse(final String queueName) throws JCSMPException {
+        final Iterator<BytesXMLMessage> spooled = broker.spooled(queueName).iterator();
+        return new FTBrowser() {
+            @Override
+            public BytesXMLMessage next(int timeoutMillis) {
+                return spooled.hasNext() ? spooled.next() : null;
+            }
+            @Override
+            public String topicOf(BytesXMLMessage msg) {
+                return broker.spooledTopic(queueName, msg);
+            }
+            @Override
+            public void remove(BytesXMLMessage msg) {
+                broker.removeSpooled(queueName, msg);
+            }
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public void unbind(String clusterName) {
+        final List<LoopbackBroker.Binding> unbinding = new ArrayList<>();
+        synchronized (bindings) {
+            if (supervisor != null)
+                supervisor.cancel(clusterName);
+            for (LoopbackBroker.Binding binding : bindings) {
+                if (binding.clusterName.equals(clusterName))
+                    unbinding.add(binding);
+            }
+            bindings.removeAll(unbinding);
+        }
+        for (LoopbackBroker.Binding binding : unbinding)
+            broker.unbind(binding);
+    }
+
+    @Override
+    public void stop() {
+        final List<LoopbackBroker.Binding> unbinding;
+        final List<DirectSubscription> unsubscribing;
+        synchronized (bindings) {
+            if (supervisor != null)
+                supervisor.shutdown();
+            unbinding = new ArrayList<>(bindings);
+            bindings.clear();
+            unsubscribing = new ArrayList<>(directSubscriptions);
+            directSubscriptions.clear();
+        }
+        for (DirectSubscription direct : unsubscribing)
+            broker.unsubscribe(direct);
+        for (LoopbackBroker.Binding binding : unbinding)
+            broker.unbind(binding);
+    }
+
+    private void bind(LoopbackBroker.Binding binding) throws JCSMPException {
+        synchronized (bindings) {
+            if (!connected)
+                throw new JCSMPException("Connection to the loopback broker is down");
+            bindings.add(binding);
+        }
+        broker.bind(binding.clusterName, binding);
+    }
+
+    final private LoopbackBroker broker;
+    final private List<LoopbackBroker.Binding> bindings = new ArrayList<>();
+    private ReconnectSupervisor supervisor() {
+        synchronized (bindings) {
+            if (supervisor == null)
+                supervisor = new ReconnectSupervisor("solft-loopback-reconnect", initialDelayMillis, maxDelayMillis);
+            return supervisor;
+        }
+    }
+
+    final private List<DirectSubscription> directSubscriptions = new ArrayList<>();
+    private boolean connected = true;
+    private ReconnectSupervisor supervisor;
+    private long initialDelayMillis = ReconnectSupervisor.DEFAULT_INITIAL_DELAY_MILLIS;
+    private long maxDelayMillis = ReconnectSupervisor.DEFAULT_MAX_DELAY_MILLIS;
+}
@@ -0,0 +1,236 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Internal tracker of the live members of a balanced {@link PartitionedFTMgr}. Every member publishes a heartbeat
+ * on <code>prefix/members/id</code> listing the partitions it is bound to, and those it is bound to as a Backup
+ * behind the partition's owner, and a member is considered gone once no heartbeat was seen for three intervals,
+ * or straight away when it announces it is leaving. The time each member was first seen bound to a partition is
+ * kept too, so that a member can tell whether it bound before or after another. Which member owns a partition
+ * depends on who is live, so heartbeats carry a hash of the live members their partitions were placed with, and
+ * a member's report of being behind the owner only counts once it agrees with this member on who is live.
+ *
+ * <p>Heartbeats are published as direct messages, and the change handler is run on a single daemon thread, every
+ * interval and as soon as a member joins or leaves; the handler therefore never runs concurrently with itself.</p>
+ */
+class Membership {
+    private static final Logger logger = LoggerFactory.getLogger(Membership.class);
+
+    private static final byte ALIVE = 1;
+    private static final byte LEAVING = 0;
+
+    /**
+     * @param backend Backend to publish and receive heartbeats through.
+     * @param clusterPrefix Prefix of the partitions' cluster names, shared by every member.
+     * @param memberId Unique id of this member.
+     * @param heartbeatMillis Interval between heartbeats.
+     * @param boundPartitions Supplier of the partitions this member is bound to, called on the heartbeat thread.
+     * @param behindPartitions Supplier of the partitions this member is bound to behind their owner, called on the
+     *                         heartbeat thread.
+     * @param onChange Handler run on the heartbeat thread after every heartbeat and membership change.
+     */
+    Membership(FTBackend backend, String clusterPrefix, String memberId, long heartbeatMillis,
+               Supplier<BitSet> boundPartitions, Supplier<BitSet> behindPartitions, Runnable onChange) {
+        this.backend = backend;
+        this.topicPrefix = clusterPrefix + "/members/";
+        this.memberId = memberId;
+        this.heartbeatMillis = heartbeatMillis;
+        this.boundPartitions = boundPartitions;
+        this.behindPartitions = behindPartitions;
+        this.onChange = onChange;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "solft-membership");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Subscribes to heartbeats and starts publishing this member's; the change handler first runs after one
+     * interval, giving this member time to discover the others.
+     */
+    void start() throws JCSMPException {
+        backend.subscribe(topicPrefix + ">", heartbeats);
+        scheduler.scheduleWithFixedDelay(this::tick, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+        scheduler.execute(() -> publish(ALIVE, new BitSet(), new BitSet()));
+    }
+
+    /**
+     * Stops heartbeats and tells the other members this one is leaving.
+     */
+    void stop() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(heartbeatMillis + 1000, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        publish(LEAVING, new BitSet(), new BitSet());
+        try {
+            backend.unsubscribe(topicPrefix + ">", heartbeats);
+        }
+        catch (JCSMPException e) {
+            logger.warn("Error unsubscribing from heartbeats of {}: {}", topicPrefix, e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the live members, recording them as the view the next heartbeat's partitions are placed with; called
+     * by the change handler only.
+     * @return Ids of the live members, this one included, in no particular order.
+     */
+    List<String> live() {
+        final List<String> live = new ArrayList<>(peers.keySet());
+        live.add(memberId);
+        view = viewOf(live);
+        return live;
+    }
+
+    /**
+     * @return Whether the member reported being bound to the partition in its latest heartbeat.
+     */
+    boolean isBound(String member, int partition) {
+        final Peer peer = peers.get(member);
+        return peer != null && peer.bound.get(partition);
+    }
+
+    /**
+     * @return Whether the member reported being bound to the partition as a Backup behind the partition's owner.
+     */
+    boolean isBehindOwner(String member, int partition) {
+        final Peer peer = peers.get(member);
+        return peer != null && peer.view == view && peer.behind.get(partition);
+    }
+
+    /**
+     * @return Whether the member was already seen bound to the partition at the given time, from {@link System#nanoTime()},
+     *         and has stayed bound since.
+     */
+    boolean isBoundSince(String member, int partition, long nanos) {
+        final Peer peer = peers.get(member);
+        return peer != null && peer.bound.get(partition) && peer.boundSinceNanos[partition] - nanos < 0;
+    }
+
+    private void tick() {
+        final long expiry = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(3 * heartbeatMillis);
+        peers.values().removeIf(peer -> peer.seenNanos - expiry < 0);
+        publish(ALIVE, boundPartitions.get(), behindPartitions.get());
+        runHandler();
+    }
+
+    private static int viewOf(List<String> live) {
+        final List<String> sorted = new ArrayList<>(live);
+        Collections.sort(sorted);
+        return sorted.hashCode();
+    }
+
+    private void runHandler() {
+        try {
+            onChange.run();
+        }
+        catch (RuntimeException e) {
+            logger.error("Error rebalancing partitions", e);
+        }
+    }
+
+    private void publish(byte status, BitSet bound, BitSet behind) {
+        final byte[] boundBits = bound.toByteArray();
+        final byte[] behindBits = behind.toByteArray();
+        final ByteBuffer payload = ByteBuffer.allocate(9 + boundBits.length + behindBits.length);
+        payload.put(status).putInt(view).putInt(boundBits.length).put(boundBits).put(behindBits);
+        final BytesXMLMessage msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        msg.writeAttachment(payload.array());
+        try {
+            backend.publishDirect(topicPrefix + memberId, msg);
+        }
+        catch (JCSMPException e) {
+            logger.warn("Error publishing heartbeat of {}: {}", memberId, e.getMessage());
+        }
+    }
+
+    private void changed() {
+        try {
+            scheduler.execute(this::runHandler);
+        }
+        catch (RejectedExecutionException e) {
+            // stopping
+        }
+    }
+
+    private static class Peer {
+        Peer(long seenNanos, int view, BitSet bound, BitSet behind, Peer previous) {
+            this.seenNanos = seenNanos;
+            this.view = view;
+            this.bound = bound;
+            this.behind = behind;
+            this.boundSinceNanos = new long[bound.length()];
+            for (int p = bound.nextSetBit(0); p >= 0; p = bound.nextSetBit(p + 1)) {
+                final boolean stayed = previous != null && previous.bound.get(p);
+                boundSinceNanos[p] = stayed ? previous.boundSinceNanos[p] : seenNanos;
+            }
+        }
+
+        final long seenNanos;
+        final int view;
+        final BitSet bound;
+        final BitSet behind;
+        // When each partition was first seen bound, in this member's latest uninterrupted binding
+        final long[] boundSinceNanos;
+    }
+
+    final private FTMessageListener heartbeats = new FTMessageListener() {
+        @Override
+        public void onMessage(String topic, BytesXMLMessage msg) {
+            final String member = topic.substring(topicPrefix.length());
+            if (member.equals(memberId))
+                return;
+            final byte[] payload = new byte[msg.getAttachmentContentLength()];
+            msg.readAttachmentBytes(payload);
+            if (payload.length == 0 || payload[0] == LEAVING) {
+                if (peers.remove(member) != null)
+                    changed();
+                return;
+            }
+            final ByteBuffer buffer = ByteBuffer.wrap(payload, 1, payload.length - 1);
+            final int view = buffer.getInt();
+            final int boundLength = buffer.getInt();
+            final BitSet bound = BitSet.valueOf(ByteBuffer.wrap(payload, 9, boundLength));
+            final BitSet behind = BitSet.valueOf(ByteBuffer.wrap(payload, 9 + boundLength, payload.length - 9 - boundLength));
+            final Peer previous = peers.get(member);
+            peers.put(member, new Peer(System.nanoTime(), view, bound, behind, previous));
+            if (previous == null || previous.view != view || !previous.bound.equals(bound) || !previous.behind.equals(behind))
+                changed();
+        }
+    };
+
+    final private FTBackend backend;
+    final private String topicPrefix;
+    final private String memberId;
+    final private long heartbeatMillis;
+    final private Supplier<BitSet> boundPartitions;
+    final private Supplier<BitSet> behindPartitions;
+    final private Runnable onChange;
+    final private ScheduledExecutorService scheduler;
+    final private Map<String, Peer> peers = new ConcurrentHashMap<>();
+    // Hash of the live members the change handler last placed partitions with
+    private volatile int view;
+}
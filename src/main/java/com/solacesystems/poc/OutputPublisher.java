@@ -0,0 +1,199 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Publishes the Active member's output as guaranteed messages, so that the cluster queue always holds the latest
+ * state for the next Active member. Created by {@link FTMgr#createPublisher()}.
+ *
+ * <p>Publishing never waits for the broker: messages are gathered into batches, sent once a batch is full or has
+ * lingered long enough, and acknowledged asynchronously through the returned futures. At most a window of messages
+ * is unacknowledged at any time; publishing blocks while the window is full.</p>
+ *
+ * <p>Output is only published while this member is Active, and only in the epoch it was published in: every message
+ * is stamped with the current epoch, and once leadership is lost every message not yet sent is refused, its future
+ * completing exceptionally rather than overwriting the state of the next Active member. Output is also refused once
+ * a graceful {@link FTMgr#handoff(long, TimeUnit)} has started, while everything published before is still sent.</p>
+ */
+public class OutputPublisher {
+
+    OutputPublisher(FTMgr ftMgr, FTBackend backend) {
+        this.ftMgr = ftMgr;
+        this.backend = backend;
+    }
+
+    /**
+     * Sets the most messages sent together. Must be called before publishing.
+     * @param batchSize Maximum batch size; defaults to 50.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets the most messages published but not yet acknowledged by the broker. Must be called before publishing.
+     * @param windowSize Maximum number of unacknowledged messages; defaults to 256.
+     */
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+        this.window = new Semaphore(windowSize);
+    }
+
+    /**
+     * Sets how long a batch that is not full waits for more messages before it is sent. Must be called before publishing.
+     * @param lingerMillis Linger time in milliseconds; defaults to 1.
+     */
+    public void setLinger(long lingerMillis) {
+        this.lingerMillis = lingerMillis;
+    }
+
+    /**
+     * Sets the maximum time to wait for the broker to acknowledge a batch; past it, the batch's futures complete
+     * exceptionally and its messages leave the window. Must be called before publishing.
+     * @param timeoutMillis Acknowledgement timeout in milliseconds; defaults to 10000.
+     */
+    public void setAckTimeout(long timeoutMillis) {
+        this.ackTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Publishes an output message of this member's current epoch, stamping it with that epoch. Blocks only while
+     * the window of unacknowledged messages is full.
+     * @param topic Topic to publish the message on, matching the cluster's output subscription.
+     * @param msg Output message.
+     * @return A future completed once the broker acknowledged the message, or exceptionally if this member is not
+     *         Active, is handing off leadership or loses it before the message is sent, or in the event of any error
+     *         publishing it.
+     * @throws InterruptedException If interrupted while waiting for the window to open.
+     */
+    public CompletableFuture<Void> publish(String topic, BytesXMLMessage msg) throws InterruptedException {
+        final CompletableFuture<Void> acked = new CompletableFuture<>();
+        final long epoch;
+        try {
+            epoch = ftMgr.stampEpoch(msg);
+        }
+        catch (JCSMPException e) {
+            acked.completeExceptionally(e);
+            return acked;
+        }
+        if (!ftMgr.acceptsOutput(epoch)) {
+            acked.completeExceptionally(new JCSMPException("Not the Active member; output refused"));
+            return acked;
+        }
+        window.acquire();
+        final boolean full;
+        synchronized (this) {
+            pending.add(new Pending(topic, msg, epoch, acked));
+            full = pending.size() >= batchSize;
+            if (pending.size() == 1 && !full)
+                Timeouts.schedule(this::flush, lingerMillis, TimeUnit.MILLISECONDS);
+        }
+        if (full)
+            flush();
+        return acked;
+    }
+
+    /**
+     * Sends every message published so far without waiting for the batch to fill up.
+     */
+    public void flush() {
+        // Batches are taken and sent under one lock so that output reaches the broker in the order it was published
+        synchronized (sendLock) {
+            final List<Pending> batch;
+            synchronized (this) {
+                if (pending.isEmpty())
+                    return;
+                batch = pending;
+                pending = new ArrayList<>(batchSize);
+            }
+            send(batch);
+        }
+    }
+
+    /**
+     * @return The number of messages sent but not yet acknowledged, or waiting to be sent.
+     */
+    public int getUnacknowledged() {
+        return windowSize - window.availablePermits();
+    }
+
+    /**
+     * Sends every message published so far and waits for the broker.
+     * @return A future completed once every message sent so far was acknowledged, or exceptionally if any of those failed.
+     */
+    CompletableFuture<Void> drain() {
+        flush();
+        return CompletableFuture.allOf(inFlight.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private void send(final List<Pending> batch) {
+        final List<String> topics = new ArrayList<>(batch.size());
+        final List<BytesXMLMessage> msgs = new ArrayList<>(batch.size());
+        final List<Pending> sent = new ArrayList<>(batch.size());
+        for (Pending p : batch) {
+            if (ftMgr.checkEpoch(p.epoch)) {
+                topics.add(p.topic);
+                msgs.add(p.msg);
+                sent.add(p);
+            }
+            else {
+                window.release();
+                p.acked.completeExceptionally(new JCSMPException("Leadership lost in epoch " + p.epoch + "; output refused"));
+            }
+        }
+        if (sent.isEmpty())
+            return;
+        final CompletableFuture<Void> acked = Timeouts.within(backend.publishAll(topics, msgs), ackTimeoutMillis, TimeUnit.MILLISECONDS);
+        inFlight.add(acked);
+        acked.whenComplete((ignored, error) -> {
+            inFlight.remove(acked);
+            window.release(sent.size());
+            if (error == null)
+                ftMgr.outputAcknowledged(msgs.get(msgs.size() - 1));
+            final Throwable failure = error instanceof TimeoutException
+                    ? new JCSMPException("Timed out waiting for the broker to acknowledge output", error)
+                    : error;
+            for (Pending p : sent) {
+                if (failure != null)
+                    p.acked.completeExceptionally(failure);
+                else
+                    p.acked.complete(null);
+            }
+        });
+    }
+
+    private static class Pending {
+        Pending(String topic, BytesXMLMessage msg, long epoch, CompletableFuture<Void> acked) {
+            this.topic = topic;
+            this.msg = msg;
+            this.epoch = epoch;
+            this.acked = acked;
+        }
+
+        final String topic;
+        final BytesXMLMessage msg;
+        final long epoch;
+        final CompletableFuture<Void> acked;
+    }
+
+    final private FTMgr ftMgr;
+    final private FTBackend backend;
+    final private Object sendLock = new Object();
+    final private Set<CompletableFuture<Void>> inFlight = ConcurrentHashMap.newKeySet();
+    private List<Pending> pending = new ArrayList<>();
+    private int batchSize = 50;
+    private int windowSize = 256;
+    private Semaphore window = new Semaphore(windowSize);
+    private long lingerMillis = 1;
+    private long ackTimeoutMillis = 10000;
+}
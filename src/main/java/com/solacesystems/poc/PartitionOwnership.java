@@ -0,0 +1,59 @@
+package com.solacesystems.poc;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Internal rendezvous (highest random weight) hashing of partitions onto members: every member scores every
+ * partition, and a partition is owned by the member with the highest score, followed by the next highest as its
+ * standbys. Each member computes the same placement from the same membership without coordination, partitions
+ * are spread evenly, and a member joining or leaving only moves the partitions it gains or loses.
+ */
+final class PartitionOwnership {
+    private PartitionOwnership() {}
+
+    /**
+     * Returns the members placed on a partition, best first.
+     * @param members Live members.
+     * @param partition Index of the partition.
+     * @param replicas Maximum number of members to return.
+     */
+    static List<String> rank(Collection<String> members, int partition, int replicas) {
+        final List<String> ranked = new ArrayList<>(replicas + 1);
+        final List<Long> scores = new ArrayList<>(replicas + 1);
+        for (String member : members) {
+            final long score = score(member, partition);
+            int i = ranked.size();
+            while (i > 0 && outranks(score, member, scores.get(i - 1), ranked.get(i - 1)))
+                i--;
+            if (i < replicas) {
+                ranked.add(i, member);
+                scores.add(i, score);
+                if (ranked.size() > replicas) {
+                    ranked.remove(replicas);
+                    scores.remove(replicas);
+                }
+            }
+        }
+        return ranked;
+    }
+
+    static long score(String member, int partition) {
+        // FNV-1a over the member id, then the splitmix64 finalizer over the id hash and partition
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < member.length(); i++) {
+            h ^= member.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= partition * 0x9e3779b97f4a7c15L;
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+
+    private static boolean outranks(long score, String member, long otherScore, String other) {
+        final int byScore = Long.compareUnsigned(score, otherScore);
+        return byScore > 0 || (byScore == 0 && member.compareTo(other) < 0);
+    }
+}
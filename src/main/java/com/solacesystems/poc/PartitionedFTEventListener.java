@@ -0,0 +1,25 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+
+/**
+ * Interface for applications joining many FT-Clusters at once through a {@link com.solacesystems.poc.PartitionedFTMgr},
+ * one FT-Cluster per partition, and receiving FT state change events for each partition.
+ *
+ * See also {@link com.solacesystems.poc.FTEventListener}
+ */
+public interface PartitionedFTEventListener {
+    /**
+     * Invoked by the {@link PartitionedFTMgr} when this listening application becomes the Active member of a partition.
+     * @param partition Index of the partition, from <code>0</code> to <code>partitions - 1</code>.
+     * @param msg When started stateless this object is always <code>null</code>. When started statefully it
+     *            contains the last output message of the previous Active member for this partition.
+     */
+    public void onActive(int partition, BytesXMLMessage msg);
+
+    /**
+     * Invoked by the {@link PartitionedFTMgr} when this listening application changes to become a Backup member of a partition.
+     * @param partition Index of the partition, from <code>0</code> to <code>partitions - 1</code>.
+     */
+    public void onBackup(int partition);
+}
@@ -0,0 +1,493 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.JCSMPSession;
+import com.solacesystems.jcsmp.SessionEventArgs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Instances of this class bind to many FT-clusters over a single session, one FT-cluster per data partition,
+ * named <code>clusterPrefix/0</code> through <code>clusterPrefix/(partitions-1)</code>. Each partition elects its own
+ * Active member independently. Started with {@link #start(String, int, PartitionedFTEventListener)}, every partition is
+ * led by the first instance to bind to it, so the first instance to start typically owns every partition and the
+ * others only take over the partitions it loses. To spread leadership across instances, start them with
+ * {@link #startBalanced(String, int, int, PartitionedFTEventListener)}.</p>
+ *
+ * <p>This replaces running one {@link com.solacesystems.poc.FTMgr} per partition: a single manager, session and
+ * listener serve every partition, and the partitions this instance is Active for are tracked in a compact bitset that
+ * can be queried lock-free from any thread via {@link #isActive(int)}.</p>
+ *
+ * <p>Started with {@link #startBalanced(String, int, int, PartitionedFTEventListener)}, partitions are instead placed
+ * deliberately: live members discover each other through heartbeats, every partition is owned by the member ranked
+ * first for it by consistent hashing, and only that member and the next few in rank bind to it. Ownership is spread
+ * evenly over the live members, and a member joining or leaving only moves the partitions it gains or loses.</p>
+ */
+public class PartitionedFTMgr {
+    private static final Logger logger = LoggerFactory.getLogger(PartitionedFTMgr.class);
+
+    final private FTBackend connection;
+    final private boolean ownsConnection;
+    private String[] clusterNames = new String[0];
+    private PartitionedFTEventListener listener; // there can only be one!
+    private AtomicLongArray activeBits = new AtomicLongArray(0);
+    private int partitions;
+    private ActivationPipeline[] pipelines = new ActivationPipeline[0];
+    private long stateFetchTimeoutMillis = 1000;
+    private Executor listenerExecutor = Runnable::run;
+    private long coalesceWindowMillis;
+    private FTMetricsSink metricsSink;
+    private int bindPriority;
+    private int bindConcurrency = 16;
+    private FTMetrics[] metrics = new FTMetrics[0];
+    private String memberId = UUID.randomUUID().toString();
+    private long heartbeatMillis = 1000;
+    private int replicas;
+    private Membership membership;
+    // Partitions a balanced instance is bound to, and those it is bound to behind their owner, with the time each
+    // bind was requested; only touched by the membership thread
+    final private BitSet bound = new BitSet();
+    final private BitSet behind = new BitSet();
+    private long[] boundNanos = new long[0];
+    private BalancedBinding[] balancedBindings = new BalancedBinding[0];
+
+    /**
+     * Creates a new Solace session connected to a Solace Message Bus for use in joining
+     * partitioned FT-Clusters for Leader Election and role events.
+     * @param solaceConnectionProperties Properties file containing Solace session properties.
+     * @throws JCSMPException In the event of any error creating the Solace session and connecting it to a Solace Message Broker.
+     */
+    public PartitionedFTMgr(Properties solaceConnectionProperties) throws JCSMPException {
+        this.connection = new SolaceConnection(solaceConnectionProperties);
+        this.ownsConnection = true;
+        this.listenerExecutor = EventDispatcher.sharedExecutor();
+    }
+
+    /**
+     * Uses an existing Solace session connected to a Solace Message Bus for use in joining
+     * partitioned FT-Clusters for Leader Election and role events. The application's session event handler must
+     * pass its events on to {@link FTMgr#sessionEvent(JCSMPSession, SessionEventArgs)} for the partitions to be
+     * bound again after the session went down. The manager never creates the session's message consumer, and
+     * publishes through a producer of its own; balanced partitions exchange heartbeats as direct messages, which
+     * the application's consumer must pass on to {@link FTMgr#directMessage(JCSMPSession, BytesXMLMessage)}.
+     * @param solaceSession An existing Solace session.
+     * @throws JCSMPException In the event of any error validating the session's capabilities.
+     */
+    public PartitionedFTMgr(JCSMPSession solaceSession) throws JCSMPException {
+        this.connection = new SolaceConnection(solaceSession);
+        this.ownsConnection = true;
+        this.listenerExecutor = EventDispatcher.sharedExecutor();
+    }
+
+    /**
+     * Uses an existing election backend for joining partitioned FT-Clusters for Leader Election and role events.
+     * Stopping this manager only unbinds its own partitions, leaving the backend running.
+     * @param backend The election backend to join FT-Clusters through.
+     */
+    public PartitionedFTMgr(FTBackend backend) {
+        this.connection = backend;
+        this.ownsConnection = false;
+    }
+
+    /**
+     * Sets the maximum time a newly Active stateful member of a partition waits for the previous Active member's
+     * last output; see {@link FTMgr#setStateFetchTimeout(long)}. Must be called before starting.
+     * @param timeoutMillis Fetch timeout in milliseconds; defaults to 1000.
+     */
+    public void setStateFetchTimeout(long timeoutMillis) {
+        this.stateFetchTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Sets the executor the listener is invoked on; see {@link FTMgr#setListenerExecutor(Executor)}.
+     * Must be called before starting.
+     * @param executor Executor to invoke the listener on.
+     */
+    public void setListenerExecutor(Executor executor) {
+        this.listenerExecutor = executor;
+    }
+
+    /**
+     * Sets the window within which each partition's role changes are coalesced; see {@link FTMgr#setCoalesceWindow(long)}.
+     * Must be called before starting.
+     * @param windowMillis Coalescing window in milliseconds; defaults to 0, delivering every role change.
+     */
+    public void setCoalesceWindow(long windowMillis) {
+        this.coalesceWindowMillis = windowMillis;
+    }
+
+    /**
+     * Sets a sink every measurement of every partition is passed to; see {@link FTMgr#setMetricsSink(FTMetricsSink)}.
+     * Must be called before starting.
+     * @param sink Sink to forward measurements to.
+     */
+    public void setMetricsSink(FTMetricsSink sink) {
+        this.metricsSink = sink;
+    }
+
+    /**
+     * Sets this instance's priority among the Backups of every partition; see {@link FTMgr#setBindPriority(int)}.
+     * Balanced placement ranks Backups itself and ignores it. Must be called before starting.
+     * @param priority Rank among the Backups, higher is first in line; defaults to 0.
+     */
+    public void setBindPriority(int priority) {
+        this.bindPriority = priority;
+    }
+
+    /**
+     * Sets how many partitions' clusters are provisioned and bound concurrently on start. Must be called before starting.
+     * @param concurrency Maximum number of concurrent binds; defaults to 16.
+     */
+    public void setBindConcurrency(int concurrency) {
+        this.bindConcurrency = concurrency;
+    }
+
+    /**
+     * Sets the id this instance is known by to the other members of balanced partitions; must be unique among them
+     * and stable across restarts for placement to be stable. Must be called before starting.
+     * @param memberId Id of this member; defaults to a random UUID.
+     */
+    public void setMemberId(String memberId) {
+        this.memberId = memberId;
+    }
+
+    /**
+     * Sets the interval between the heartbeats members of balanced partitions discover each other through. A member
+     * is considered gone three intervals after its last heartbeat, unless it left cleanly.
+     * Must be called before starting.
+     * @param intervalMillis Heartbeat interval in milliseconds; defaults to 1000.
+     */
+    public void setHeartbeatInterval(long intervalMillis) {
+        this.heartbeatMillis = intervalMillis;
+    }
+
+    /**
+     * Bind to every partition's FT cluster as a cluster member for leader election, listening for FT state change events.
+     * All partitions are joined together through {@link FTBackend#bindExclusiveAll(List, int)}; a partition that could
+     * not be joined stays Backup and is reported in the result rather than failing the others.
+     * @param clusterPrefix Prefix of the exclusive cluster names; partition <code>p</code> binds to <code>clusterPrefix/p</code>.
+     * @param partitions Number of partitions to join.
+     * @param listener Event listener to be invoked for any FT state event changes of any partition.
+     * @return The outcome of joining each partition's cluster.
+     */
+    public BindResult start(String clusterPrefix, int partitions, PartitionedFTEventListener listener) {
+        init(partitions, listener);
+        final List<BindRequest> requests = new ArrayList<>(partitions);
+        for (int p = 0; p < partitions; p++) {
+            final String clusterName = partitionClusterName(clusterPrefix, p);
+            requests.add(new BindRequest(clusterName, null, bindPriority, pipeline(clusterName, false, p)));
+        }
+        return connection.bindExclusiveAll(requests, bindConcurrency);
+    }
+
+    /**
+     * Bind to every partition's FT cluster as in {@link #start(String, int, PartitionedFTEventListener)}, also
+     * receiving the latest output of each partition's previous Active member on activation.
+     * @param clusterPrefix Prefix of the exclusive cluster names; partition <code>p</code> binds to <code>clusterPrefix/p</code>.
+     * @param partitions Number of partitions to join.
+     * @param outputPrefix Prefix of the topics the Active member of each partition publishes its output on;
+     *                     partition <code>p</code> subscribes to <code>outputPrefix/p/&gt;</code>.
+     * @param listener Event listener to be invoked for any FT state event changes of any partition.
+     * @return The outcome of joining each partition's cluster.
+     */
+    public BindResult startStateful(String clusterPrefix, int partitions, String outputPrefix, PartitionedFTEventListener listener) {
+        init(partitions, listener);
+        final List<BindRequest> requests = new ArrayList<>(partitions);
+        for (int p = 0; p < partitions; p++) {
+            final String clusterName = partitionClusterName(clusterPrefix, p);
+            requests.add(new BindRequest(clusterName, outputPrefix + "/" + p + "/>", bindPriority, pipeline(clusterName, true, p)));
+        }
+        return connection.bindExclusiveAll(requests, bindConcurrency);
+    }
+
+    /**
+     * Share every partition with the other live members started the same way: each partition is owned by one
+     * member, chosen by consistent hashing of the member ids so that ownership is spread evenly, and the members
+     * ranked next for it bind as its Backups. Only the owner and those Backups bind to a partition's cluster, so
+     * the exclusive queue still guarantees a single Active member per partition. When a member joins, the Active
+     * members of the partitions it gains hand over to it once it is bound; when one leaves or stops heartbeating,
+     * its Backups take over and the members ranked next bind in turn. Placement is only applied after one heartbeat
+     * interval, giving this member time to discover the others.
+     * <p>Exclusive queues promote the Backup that bound first, so the owner must be next in line when the Active
+     * member hands over, or the partition would first go to another Backup, which then hands over to the owner in
+     * turn. A Backup that bound before the owner therefore binds again, behind it, and reports so in its heartbeats;
+     * the Active member only releases the partition once every other member bound to it did. Bind priority is not
+     * used for this placement.</p>
+     * @param clusterPrefix Prefix of the exclusive cluster names; partition <code>p</code> binds to <code>clusterPrefix/p</code>.
+     * @param partitions Number of partitions.
+     * @param replicas Number of members bound to each partition, the owner included; at least 2 for a Backup to
+     *                 take over without waiting for the owner's heartbeats to expire.
+     * @param listener Event listener to be invoked for any FT state event changes of any partition.
+     * @throws JCSMPException In the event of any error subscribing to the heartbeats of the other members.
+     */
+    public void startBalanced(String clusterPrefix, int partitions, int replicas, PartitionedFTEventListener listener) throws JCSMPException {
+        if (replicas <= 0)
+            throw new IllegalArgumentException("Replica count must be positive: " + replicas);
+        init(partitions, listener);
+        for (int p = 0; p < partitions; p++)
+            pipeline(partitionClusterName(clusterPrefix, p), false, p);
+        this.replicas = replicas;
+        this.boundNanos = new long[partitions];
+        this.balancedBindings = new BalancedBinding[partitions];
+        this.membership = new Membership(connection, clusterPrefix, memberId, heartbeatMillis,
+                () -> (BitSet) bound.clone(), () -> (BitSet) behind.clone(), this::rebalance);
+        membership.start();
+    }
+
+    /**
+     * Terminate the bindings to all partitions. After calling stop() this instance may no longer be used.
+     */
+    public void stop() {
+        if (membership != null)
+            membership.stop();
+        for (int p = 0; p < partitions; p++)
+            connection.unbind(clusterNames[p]);
+        if (ownsConnection)
+            connection.stop();
+        for (int p = 0; p < partitions; p++) {
+            pipelines[p].cancel();
+            metrics[p].roleChanged(false);
+            metrics[p].unregister();
+            if (clearActive(p))
+                listener.onBackup(p);
+        }
+    }
+
+    /**
+     * Returns the failover and state-transfer metrics of one partition's binding, also registered with JMX
+     * under the partition's cluster name.
+     * @param partition Index of the partition.
+     * @return The partition's metrics.
+     */
+    public FTMetrics getMetrics(int partition) {
+        return metrics[partition];
+    }
+
+    /**
+     * Lock-free check whether this instance is currently the Active member of a partition.
+     * @param partition Index of the partition.
+     * @return true if this instance is Active for the partition.
+     */
+    public boolean isActive(int partition) {
+        return (activeBits.get(partition >>> 6) & (1L << partition)) != 0;
+    }
+
+    /**
+     * Returns a snapshot of the partitions this instance is currently Active for.
+     * @return A new bitset with a bit set for every Active partition.
+     */
+    public BitSet getActivePartitions() {
+        final long[] words = new long[activeBits.length()];
+        for (int i = 0; i < words.length; i++)
+            words[i] = activeBits.get(i);
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * Returns the number of partitions this instance is currently Active for.
+     * @return Count of Active partitions.
+     */
+    public int getActiveCount() {
+        int count = 0;
+        for (int i = 0; i < activeBits.length(); i++)
+            count += Long.bitCount(activeBits.get(i));
+        return count;
+    }
+
+    static String partitionClusterName(String clusterPrefix, int partition) {
+        return clusterPrefix + "/" + partition;
+    }
+
+    private void init(int partitions, PartitionedFTEventListener listener) {
+        if (partitions <= 0)
+            throw new IllegalArgumentException("Partition count must be positive: " + partitions);
+        this.listener = listener;
+        this.partitions = partitions;
+        this.activeBits = new AtomicLongArray((partitions + 63) >>> 6);
+        this.pipelines = new ActivationPipeline[partitions];
+        this.metrics = new FTMetrics[partitions];
+        this.clusterNames = new String[partitions];
+        // Everyone starts out as slave, Solace doesn't event for listeners initially bound as backup
+        for (int p = 0; p < partitions; p++)
+            listener.onBackup(p);
+    }
+
+    private FTEventListener pipeline(String clusterName, boolean stateful, int partition) {
+        clusterNames[partition] = clusterName;
+        metrics[partition] = new FTMetrics(clusterName, metricsSink);
+        metrics[partition].register();
+        pipelines[partition] = new ActivationPipeline(connection, clusterName, stateful, stateFetchTimeoutMillis,
+                listenerExecutor, coalesceWindowMillis, null, null, EpochSource.local(), metrics[partition], new PartitionListener(partition));
+        return pipelines[partition];
+    }
+
+    /**
+     * Applies the placement of the current membership; runs on the membership thread only.
+     */
+    private void rebalance() {
+        final List<String> live = membership.live();
+        for (int p = 0; p < partitions; p++) {
+            final List<String> ranked = PartitionOwnership.rank(live, p, replicas);
+            final int rank = ranked.indexOf(memberId);
+            final String owner = ranked.get(0);
+            final boolean ownerBound = rank != 0 && membership.isBound(owner, p);
+            // Never leave a partition this member is Active for until its owner is next in line to take over
+            final boolean handOver = ownerBound && isActive(p) && othersBehind(live, p, owner);
+            // A Backup in line before the owner moves behind it
+            final boolean ahead = ownerBound && bound.get(p) && !isActive(p)
+                    && !membership.isBoundSince(owner, p, boundNanos[p]);
+            if (rank < 0) {
+                if (bound.get(p) && (handOver || !isActive(p)))
+                    release(p);
+            }
+            else if (!bound.get(p)) {
+                join(p);
+            }
+            else if (handOver || ahead) {
+                release(p);
+                join(p);
+            }
+            behind.set(p, ownerBound && bound.get(p) && !isActive(p)
+                    && membership.isBoundSince(owner, p, boundNanos[p]));
+        }
+    }
+
+    /**
+     * @return Whether every member bound to the partition, other than this one and the owner, reported being
+     *         bound behind the owner.
+     */
+    private boolean othersBehind(List<String> live, int partition, String owner) {
+        for (String member : live) {
+            if (!member.equals(memberId) && !member.equals(owner)
+                    && membership.isBound(member, partition) && !membership.isBehindOwner(member, partition))
+                return false;
+        }
+        return true;
+    }
+
+    private void join(int partition) {
+        try {
+            boundNanos[partition] = System.nanoTime();
+            balancedBindings[partition] = new BalancedBinding(partition);
+            connection.bindExclusive(clusterNames[partition], balancedBindings[partition]);
+            bound.set(partition);
+        }
+        catch (JCSMPException e) {
+            logger.warn("Error binding to cluster {}, retrying on next heartbeat: {}", clusterNames[partition], e.getMessage());
+        }
+    }
+
+    private void release(int partition) {
+        balancedBindings[partition].release();
+        connection.unbind(clusterNames[partition]);
+        bound.clear(partition);
+        pipelines[partition].onBackup();
+    }
+
+    private void setActive(int partition) {
+        final int word = partition >>> 6;
+        final long bit = 1L << partition;
+        long bits;
+        do {
+            bits = activeBits.get(word);
+        } while (!activeBits.compareAndSet(word, bits, bits | bit));
+    }
+
+    /**
+     * @return true if the partition was Active before being cleared.
+     */
+    private boolean clearActive(int partition) {
+        final int word = partition >>> 6;
+        final long bit = 1L << partition;
+        long bits;
+        do {
+            bits = activeBits.get(word);
+        } while (!activeBits.compareAndSet(word, bits, bits & ~bit));
+        return (bits & bit) != 0;
+    }
+
+    /**
+     * Passes the flow events of one balanced binding on to its partition's pipeline until the binding is released,
+     * so that a promotion raised just as this member released the partition, and possibly bound to it again, is not
+     * taken for a promotion of the new binding.
+     */
+    private class BalancedBinding implements BindingListener {
+        BalancedBinding(int partition) {
+            this.partition = partition;
+        }
+
+        /**
+         * Stops passing events on, once any event being passed on was.
+         */
+        synchronized void release() {
+            released = true;
+        }
+
+        @Override
+        public synchronized void onActive(BytesXMLMessage msg) {
+            if (!released)
+                pipelines[partition].onActive(msg);
+        }
+
+        @Override
+        public synchronized void onBackup() {
+            if (!released)
+                pipelines[partition].onBackup();
+        }
+
+        @Override
+        public synchronized void onBindingLost() {
+            if (!released)
+                pipelines[partition].onBindingLost();
+        }
+
+        @Override
+        public synchronized void onBindingRestored() {
+            if (!released)
+                pipelines[partition].onBindingRestored();
+        }
+
+        final private int partition;
+        private boolean released;
+    }
+
+    /**
+     * Routes one partition's flow events to the shared listener.
+     */
+    private class PartitionListener implements RoleListener {
+        PartitionListener(int partition) {
+            this.partition = partition;
+        }
+
+        @Override
+        public void onPromoted(long epoch) {
+            setActive(partition);
+        }
+
+        @Override
+        public void onActive(BytesXMLMessage msg, long epoch) {
+            listener.onActive(partition, msg);
+        }
+
+        @Override
+        public void onDeposed() {
+            clearActive(partition);
+        }
+
+        @Override
+        public void onBackup() {
+            listener.onBackup(partition);
+        }
+
+        final private int partition;
+    }
+}
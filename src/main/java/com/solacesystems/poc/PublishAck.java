@@ -0,0 +1,35 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.JCSMPException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Internal correlation key of a batch of guaranteed messages, completing its future once the broker acknowledged
+ * every message of the batch, or exceptionally on the first rejected one.
+ */
+class PublishAck {
+
+    PublishAck(int messages) {
+        this.outstanding = new AtomicInteger(messages);
+        if (messages == 0)
+            future.complete(null);
+    }
+
+    CompletableFuture<Void> future() {
+        return future;
+    }
+
+    void acked() {
+        if (outstanding.decrementAndGet() == 0)
+            future.complete(null);
+    }
+
+    void failed(JCSMPException e) {
+        future.completeExceptionally(e);
+    }
+
+    final private AtomicInteger outstanding;
+    final private CompletableFuture<Void> future = new CompletableFuture<>();
+}
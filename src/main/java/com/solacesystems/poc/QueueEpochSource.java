@@ -0,0 +1,116 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import com.solacesystems.jcsmp.SDTException;
+import com.solacesystems.jcsmp.SDTMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Internal source of cluster-wide leadership epochs, persisted on the guaranteed queue <code>clusterName/epoch</code>.
+ * Each newly Active member reads the highest epoch recorded there, records the next one, and removes the older records,
+ * so epochs keep increasing across members and restarts. An epoch is only handed out once the broker acknowledged
+ * its record; if the queue cannot be read or written, the activation fails rather than using an epoch another
+ * member may also use.
+ */
+class QueueEpochSource implements EpochSource {
+    private static final Logger logger = LoggerFactory.getLogger(QueueEpochSource.class);
+
+    QueueEpochSource(FTBackend backend, String clusterName, Executor executor) throws JCSMPException {
+        this.backend = backend;
+        this.queueName = clusterName + "/epoch";
+        this.executor = executor;
+        backend.provisionQueue(queueName, queueName);
+    }
+
+    @Override
+    public CompletableFuture<Long> next() {
+        final CompletableFuture<Long> result = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                result.complete(advance());
+            }
+            catch (JCSMPException | RuntimeException e) {
+                logger.warn("Error advancing epoch on {}: {}", queueName, e.getMessage());
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    private synchronized long advance() throws JCSMPException {
+        long highest = lastEpoch;
+        FTBrowser browser = backend.browse(queueName);
+        try {
+            BytesXMLMessage msg;
+            while ((msg = browser.next(BROWSE_TIMEOUT_MILLIS)) != null)
+                highest = Math.max(highest, epochOf(msg));
+        }
+        finally {
+            browser.close();
+        }
+        final long epoch = highest + 1;
+
+        final BytesXMLMessage record = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        final SDTMap props = JCSMPFactory.onlyInstance().createMap();
+        props.putLong(FTMgr.EPOCH_PROPERTY, epoch);
+        record.setProperties(props);
+        try {
+            backend.publishAll(Collections.singletonList(queueName), Collections.singletonList(record))
+                    .get(ACK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e) {
+            throw new JCSMPException("Timed out recording epoch " + epoch + " on " + queueName, e);
+        }
+        catch (ExecutionException e) {
+            throw new JCSMPException("Error recording epoch " + epoch + " on " + queueName, e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JCSMPException("Interrupted recording epoch " + epoch + " on " + queueName);
+        }
+        lastEpoch = epoch;
+
+        browser = backend.browse(queueName);
+        try {
+            BytesXMLMessage msg;
+            while ((msg = browser.next(BROWSE_TIMEOUT_MILLIS)) != null) {
+                if (epochOf(msg) < epoch)
+                    browser.remove(msg);
+            }
+        }
+        finally {
+            browser.close();
+        }
+        return epoch;
+    }
+
+    private static long epochOf(BytesXMLMessage msg) {
+        try {
+            final Long epoch = msg.getProperties() == null ? null : msg.getProperties().getLong(FTMgr.EPOCH_PROPERTY);
+            return epoch == null ? 0 : epoch;
+        }
+        catch (SDTException e) {
+            return 0;
+        }
+    }
+
+    // Browses end at the end of the queue; this only bounds the wait for each record
+    private static final int BROWSE_TIMEOUT_MILLIS = 1000;
+    // Without an acknowledgement in time, the activation fails rather than hanging
+    private static final long ACK_TIMEOUT_MILLIS = 10000;
+
+    final private FTBackend backend;
+    final private String queueName;
+    final private Executor executor;
+    private long lastEpoch;
+}
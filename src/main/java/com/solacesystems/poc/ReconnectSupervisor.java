@@ -0,0 +1,126 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.JCSMPException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Internal supervisor re-creating lost cluster bindings with jittered exponential backoff, on a single daemon
+ * thread per backend. Each cluster has at most one rebind pending; attempts repeat until one succeeds or the
+ * cluster is cancelled, so a network blip never leaves a member unbound until its process is restarted.
+ */
+class ReconnectSupervisor {
+    private static final Logger logger = LoggerFactory.getLogger(ReconnectSupervisor.class);
+
+    static final long DEFAULT_INITIAL_DELAY_MILLIS = 100;
+    static final long DEFAULT_MAX_DELAY_MILLIS = 5000;
+
+    /**
+     * A single attempt at restoring a binding.
+     */
+    interface Attempt {
+        void run() throws JCSMPException;
+    }
+
+    ReconnectSupervisor(String name, long initialDelayMillis, long maxDelayMillis) {
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Schedules attempts at restoring a cluster's binding, replacing any attempts already pending for it.
+     * @param clusterName Cluster whose binding was lost.
+     * @param attempt Attempt at restoring the binding, repeated until it does not throw.
+     * @param onRestored Invoked once an attempt succeeded.
+     */
+    synchronized void rebind(String clusterName, Attempt attempt, Runnable onRestored) {
+        final Task task = new Task(clusterName, attempt, onRestored);
+        pending.put(clusterName, task);
+        task.schedule();
+    }
+
+    /**
+     * Stops any attempts pending for a cluster.
+     */
+    synchronized void cancel(String clusterName) {
+        pending.remove(clusterName);
+    }
+
+    void shutdown() {
+        synchronized (this) {
+            pending.clear();
+        }
+        timer.shutdownNow();
+    }
+
+    /**
+     * Exponential backoff with equal jitter: a random delay between half and all of
+     * <code>min(max, initial * 2^attempt)</code>, so members that lost their bindings together do not retry in lockstep.
+     */
+    static long delayMillis(int attempt, long initialDelayMillis, long maxDelayMillis) {
+        final long ceiling = Math.min(maxDelayMillis, initialDelayMillis << Math.min(attempt, 30));
+        final long half = ceiling / 2;
+        return half + ThreadLocalRandom.current().nextLong(ceiling - half + 1);
+    }
+
+    private synchronized boolean isPending(Task task) {
+        return pending.get(task.clusterName) == task;
+    }
+
+    private synchronized boolean complete(Task task) {
+        return pending.remove(task.clusterName, task);
+    }
+
+    private class Task implements Runnable {
+        Task(String clusterName, Attempt attempt, Runnable onRestored) {
+            this.clusterName = clusterName;
+            this.attempt = attempt;
+            this.onRestored = onRestored;
+        }
+
+        void schedule() {
+            if (timer.isShutdown())
+                return;
+            timer.schedule(this, delayMillis(attempts, initialDelayMillis, maxDelayMillis), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void run() {
+            if (!isPending(this))
+                return;
+            try {
+                attempt.run();
+            }
+            catch (JCSMPException | RuntimeException e) {
+                attempts++;
+                logger.warn("Rebind attempt {} for cluster {} failed: {}", attempts, clusterName, e.getMessage());
+                schedule();
+                return;
+            }
+            if (complete(this))
+                onRestored.run();
+        }
+
+        final String clusterName;
+        final private Attempt attempt;
+        final private Runnable onRestored;
+        private int attempts;
+    }
+
+    final private long initialDelayMillis;
+    final private long maxDelayMillis;
+    final private ScheduledExecutorService timer;
+    final private Map<String, Task> pending = new HashMap<>();
+}
@@ -0,0 +1,49 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+
+/**
+ * Internal listener receiving the role changes of one cluster binding once an {@link ActivationPipeline}
+ * has gathered everything handed to a newly Active member.
+ */
+interface RoleListener {
+    /**
+     * @param msg The previous Active member's last output, or null.
+     * @param epoch The leadership epoch this activation starts.
+     */
+    void onActive(BytesXMLMessage msg, long epoch);
+
+    void onBackup();
+
+    /**
+     * Invoked just before {@link #onActive(BytesXMLMessage, long)} or {@link #onEpochChanged(long)}, on the same
+     * thread, to record the member as Active in the given epoch.
+     * @param epoch The leadership epoch the activation starts.
+     */
+    default void onPromoted(long epoch) {
+    }
+
+    /**
+     * Invoked as soon as the member's leadership ends, on the thread raising the flow event and ahead of the
+     * {@link #onBackup()} dispatched for it, so that the member stops acting as Active straight away; also invoked
+     * when an activation is dropped right after {@link #onPromoted(long)}. Must not block.
+     */
+    default void onDeposed() {
+    }
+
+    /**
+     * Invoked instead of {@link #onActive(BytesXMLMessage, long)} when a coalesced flap left the member Active:
+     * the listener was never told it was Backup, but the flap started a new leadership epoch.
+     * @param epoch The leadership epoch the latest activation started.
+     */
+    default void onEpochChanged(long epoch) {
+    }
+
+    /**
+     * Invoked instead of {@link #onActive(BytesXMLMessage, long)} when the member was promoted but could not start a
+     * new leadership epoch; the member should give up its binding so another member takes over.
+     * @param error Why no epoch could be started.
+     */
+    default void onActivationFailed(Throwable error) {
+    }
+}
@@ -0,0 +1,108 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.JCSMPProperties;
+import com.solacesystems.jcsmp.JCSMPSession;
+import com.solacesystems.jcsmp.SessionEventArgs;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Internal registry multiplexing every FT-Cluster joined in this JVM over as few Solace sessions as possible:
+ * one session per distinct set of connection properties, and one {@link SharedSession} per application session
+ * passed in. Sessions are reference counted; a session the registry created is closed when its last connection
+ * is stopped, while an application's session is never closed.
+ */
+final class SessionRegistry {
+    private SessionRegistry() {}
+
+    /**
+     * Acquires the session connected with the given properties, creating and connecting it if none is open.
+     * @throws JCSMPException In the event of any error creating or connecting the session.
+     */
+    static synchronized SharedSession acquire(Properties connectionProperties) throws JCSMPException {
+        final Map<String, String> key = new TreeMap<>();
+        for (String name : connectionProperties.stringPropertyNames())
+            key.put(name, connectionProperties.getProperty(name));
+        SharedSession shared = byProperties.get(key);
+        if (shared == null) {
+            final JCSMPProperties solprops = new JCSMPProperties();
+            for (Map.Entry<String, String> property : key.entrySet())
+                solprops.setProperty(property.getKey(), property.getValue());
+            shared = new SharedSession(solprops);
+            byProperties.put(key, shared);
+            keys.put(shared, key);
+        }
+        shared.references++;
+        return shared;
+    }
+
+    /**
+     * Acquires the shared wrapper of an application's session, which is never closed by solft.
+     */
+    static synchronized SharedSession acquire(JCSMPSession session) {
+        SharedSession shared = bySession.get(session);
+        if (shared == null) {
+            shared = new SharedSession(session);
+            bySession.put(session, shared);
+        }
+        shared.references++;
+        return shared;
+    }
+
+    /**
+     * Releases a reference, closing the shared session's resources once no reference remains.
+     */
+    static void release(SharedSession shared) {
+        synchronized (SessionRegistry.class) {
+            if (--shared.references > 0)
+                return;
+            final Map<String, String> key = keys.remove(shared);
+            if (key != null)
+                byProperties.remove(key);
+            else
+                bySession.remove(shared.session());
+        }
+        shared.close();
+    }
+
+    /**
+     * Fans an event of an application's session out to every connection using it; ignored if none does.
+     */
+    static void sessionEvent(JCSMPSession session, SessionEventArgs args) {
+        final SharedSession shared;
+        synchronized (SessionRegistry.class) {
+            shared = bySession.get(session);
+        }
+        if (shared != null)
+            shared.sessionEvent(args);
+    }
+
+    /**
+     * Delivers a direct message received on an application's session to the subscriptions solft made on it.
+     * @return Whether any subscription matched; false if no connection uses the session.
+     */
+    static boolean directMessage(JCSMPSession session, BytesXMLMessage msg) {
+        final SharedSession shared;
+        synchronized (SessionRegistry.class) {
+            shared = bySession.get(session);
+        }
+        return shared != null && shared.deliver(msg);
+    }
+
+    /**
+     * @return The number of sessions currently held by the registry.
+     */
+    static synchronized int sessionCount() {
+        return byProperties.size() + bySession.size();
+    }
+
+    private static final Map<Map<String, String>, SharedSession> byProperties = new HashMap<>();
+    private static final Map<SharedSession, Map<String, String>> keys = new IdentityHashMap<>();
+    private static final Map<JCSMPSession, SharedSession> bySession = new IdentityHashMap<>();
+}
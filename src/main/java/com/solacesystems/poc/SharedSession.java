@@ -0,0 +1,242 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import com.solacesystems.jcsmp.JCSMPProperties;
+import com.solacesystems.jcsmp.JCSMPSession;
+import com.solacesystems.jcsmp.ProducerFlowProperties;
+import com.solacesystems.jcsmp.SessionEventArgs;
+import com.solacesystems.jcsmp.SessionEventHandler;
+import com.solacesystems.jcsmp.JCSMPStreamingPublishCorrelatingEventHandler;
+import com.solacesystems.jcsmp.XMLMessageConsumer;
+import com.solacesystems.jcsmp.XMLMessageListener;
+import com.solacesystems.jcsmp.XMLMessageProducer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Internal holder of one Solace session shared by every {@link com.solacesystems.poc.SolaceConnection} using it,
+ * together with solft's message producer and the direct message consumer, demultiplexed across every direct
+ * subscription made through the session. A small pool of state fetch
+ * threads per session serves every cluster and partition bound through it, so that the fetches of partitions
+ * failing over together run side by side rather than each waiting out the previous one's timeout. Reference counts
+ * are kept by the
+ * {@link com.solacesystems.poc.SessionRegistry}.
+ *
+ * <p>Session events of sessions created by solft are fanned out to every connection using the session, so that each
+ * can supervise its own flows. Events of an application's session go to the application's own handler instead, which
+ * forwards them through {@link FTMgr#sessionEvent(JCSMPSession, SessionEventArgs)}.</p>
+ *
+ * <p>JCSMP allows a single message consumer per session, and taking over the session's message producer would
+ * replace the handler of the application's own publish acknowledgements. On an application's session, solft
+ * therefore creates a producer of its own with {@link JCSMPSession#createProducer}, and never creates the message
+ * consumer: its direct subscriptions are added to the session, and the application's consumer forwards direct
+ * messages through {@link FTMgr#directMessage(JCSMPSession, BytesXMLMessage)}.</p>
+ */
+class SharedSession {
+    private static final Logger logger = LoggerFactory.getLogger(SharedSession.class);
+
+    // Fetches mostly wait on the broker, so a few threads are enough to overlap them; idle threads exit
+    private static final int STATE_FETCH_THREADS = 8;
+    private static final long STATE_FETCH_IDLE_SECONDS = 60;
+
+    /**
+     * Wraps an application's session, which is never connected or closed by solft.
+     * @param session The Solace session, already connected.
+     */
+    SharedSession(JCSMPSession session) {
+        this.session = session;
+        this.owned = false;
+    }
+
+    /**
+     * Creates and connects a session owned by solft, closed when the last reference is released.
+     * @param properties Solace session properties.
+     * @throws JCSMPException In the event of any error creating or connecting the session.
+     */
+    SharedSession(JCSMPProperties properties) throws JCSMPException {
+        this.session = JCSMPFactory.onlyInstance().createSession(properties, null, new SessionEventHandler() {
+            @Override
+            public void handleEvent(SessionEventArgs args) {
+                logger.info("Session event {}: {}", args.getEvent(), args.getInfo());
+                sessionEvent(args);
+            }
+        });
+        this.owned = true;
+        session.connect();
+    }
+
+    JCSMPSession session() {
+        return session;
+    }
+
+    ExecutorService stateFetcher() {
+        return stateFetcher;
+    }
+
+    private static ExecutorService newStateFetcher() {
+        final AtomicInteger threads = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(STATE_FETCH_THREADS, STATE_FETCH_THREADS,
+                STATE_FETCH_IDLE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            final Thread thread = new Thread(runnable, "solft-state-fetch-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    void addSessionListener(SessionEventHandler listener) {
+        sessionListeners.add(listener);
+    }
+
+    void removeSessionListener(SessionEventHandler listener) {
+        sessionListeners.remove(listener);
+    }
+
+    /**
+     * Fans a session event out to every connection using the session.
+     */
+    void sessionEvent(SessionEventArgs args) {
+        for (SessionEventHandler listener : sessionListeners)
+            listener.handleEvent(args);
+    }
+
+    /**
+     * Connects the session again after it went down, if solft owns it; an application's session is left to the
+     * application. Does nothing if the session is connected.
+     * @throws JCSMPException In the event of any error connecting the session.
+     */
+    synchronized void reconnect() throws JCSMPException {
+        if (owned)
+            session.connect();
+    }
+
+    /**
+     * Adds a direct subscription to the session, creating and starting its consumer on first use if solft owns the
+     * session; an application's session has its messages passed in through {@link #deliver(BytesXMLMessage)}.
+     */
+    synchronized void subscribe(DirectSubscription direct) throws JCSMPException {
+        if (owned && consumer == null) {
+            consumer = session.getMessageConsumer(new XMLMessageListener() {
+                @Override
+                public void onReceive(BytesXMLMessage msg) {
+                    deliver(msg);
+                }
+                @Override
+                public void onException(JCSMPException e) {
+                    logger.warn("Error receiving direct messages: {}", e.getMessage());
+                }
+            });
+            consumer.start();
+        }
+        directSubscriptions.add(direct);
+        session.addSubscription(JCSMPFactory.onlyInstance().createTopic(direct.subscription), false);
+    }
+
+    /**
+     * Delivers a direct message to every subscription it matches.
+     * @return Whether any subscription matched.
+     */
+    boolean deliver(BytesXMLMessage msg) {
+        if (msg.getDestination() == null)
+            return false;
+        final String topic = msg.getDestination().getName();
+        boolean matched = false;
+        for (DirectSubscription subscribed : directSubscriptions)
+            matched |= subscribed.deliver(topic, msg);
+        return matched;
+    }
+
+    /**
+     * Removes a direct subscription, leaving the session subscribed while other listeners still use it.
+     */
+    synchronized void unsubscribe(DirectSubscription direct) throws JCSMPException {
+        if (!directSubscriptions.remove(direct))
+            return;
+        for (DirectSubscription subscribed : directSubscriptions) {
+            if (subscribed.subscription.equals(direct.subscription))
+                return;
+        }
+        session.removeSubscription(JCSMPFactory.onlyInstance().createTopic(direct.subscription), false);
+    }
+
+    /**
+     * @return solft's message producer, created on first use: the session's own on a session solft owns, and a
+     *         separate one on an application's session, leaving the application's producer and its handler alone.
+     */
+    synchronized XMLMessageProducer producer() throws JCSMPException {
+        if (producer == null) {
+            final JCSMPStreamingPublishCorrelatingEventHandler handler = new JCSMPStreamingPublishCorrelatingEventHandler() {
+                @Override
+                public void responseReceivedEx(Object key) {
+                    if (key instanceof PublishAck)
+                        ((PublishAck) key).acked();
+                }
+                @Override
+                public void handleErrorEx(Object key, JCSMPException e, long timestamp) {
+                    if (key instanceof PublishAck)
+                        ((PublishAck) key).failed(e);
+                    else
+                        logger.warn("Error publishing guaranteed message: {}", e.getMessage());
+                }
+                @Override
+                public void responseReceived(String messageId) {
+                }
+                @Override
+                public void handleError(String messageId, JCSMPException e, long timestamp) {
+                }
+            };
+            producer = owned
+                    ? session.getMessageProducer(handler)
+                    : session.createProducer(new ProducerFlowProperties(), handler);
+        }
+        return producer;
+    }
+
+    /**
+     * Releases the session's resources once no connection uses it any more. An owned session is closed together
+     * with its consumer and producer. An application's session is left open: only solft's own producer is closed
+     * and the direct subscriptions solft added are removed.
+     */
+    synchronized void close() {
+        stateFetcher.shutdownNow();
+        if (owned) {
+            if (consumer != null)
+                consumer.close();
+            if (producer != null)
+                producer.close();
+            session.closeSession();
+            return;
+        }
+        if (producer != null)
+            producer.close();
+        for (DirectSubscription direct : directSubscriptions) {
+            try {
+                unsubscribe(direct);
+            }
+            catch (JCSMPException e) {
+                logger.warn("Error removing subscription {}: {}", direct.subscription, e.getMessage());
+            }
+        }
+    }
+
+    final private JCSMPSession session;
+    final private boolean owned;
+    final private List<DirectSubscription> directSubscriptions = new CopyOnWriteArrayList<>();
+    final private List<SessionEventHandler> sessionListeners = new CopyOnWriteArrayList<>();
+    private XMLMessageConsumer consumer;
+    private XMLMessageProducer producer;
+    final private ExecutorService stateFetcher = newStateFetcher();
+    int references;
+    volatile boolean capabilitiesValidated;
+}
@@ -5,25 +5,58 @@ import com.solacesystems.jcsmp.Queue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * This internal class provides the underlying Solace capabilities to implement application layer fault tolerant clustering.
  * Instances of this class are used by the {@link com.solacesystems.poc.FTMgr}. Applications should not need to
  * interact with this directly, they should merely instantiate one according to the available public constructors,
  * and pass the instance into the {@link com.solacesystems.poc.FTMgr#FTMgr(Properties)} constructor.
+ *
+ * <p>Sessions come from the {@link com.solacesystems.poc.SessionRegistry}, so every connection created with the same
+ * properties, or around the same application session, shares one session. Each connection tracks the flows it bound
+ * per cluster and the browsers it opened, and closes them when the cluster is unbound or the connection stopped;
+ * the session itself is only closed once no connection uses it, and never if it belongs to the application, whose
+ * message consumer and producer solft never takes over; see {@link SharedSession}.</p>
+ *
+ * <p>Solace exclusive queues promote Backups in the order they bound, so bind priority is applied on top: once its
+ * flow is started, every binding announces its priority on <code>solft/priority/clusterName</code>, and a Backup
+ * of a lower priority hearing it closes its flow and binds again, behind the announcer. Its own announcement then
+ * moves the Backups of lower priorities still behind it. The Active member never rebinds. Announcements are direct
+ * messages, so the ranking is best effort: a lost announcement leaves Backups in bind order.</p>
  */
-class SolaceConnection {
+class SolaceConnection implements FTBackend {
     private static final Logger logger = LoggerFactory.getLogger(SolaceConnection.class);
 
+    // Most messages JCSMP accepts in a single sendMultiple call
+    private static final int MAX_SEND_MULTIPLE = 50;
+
+    // User property of the end-of-queue markers sent ahead of every browse
+    static final String END_MARKER = "solft.browse.end";
+    // Markers a browser could not remove, e.g. of a process that died mid-browse, expire after this long
+    private static final long END_MARKER_TTL_MILLIS = 10 * 60 * 1000;
+    // Wait for each message while a browser closed early looks for its marker, unless its own wait was set
+    private static final int END_MARKER_DRAIN_MILLIS = 1000;
+
+    // Topic prefix of the bind priority announcements, followed by the cluster name
+    static final String PRIORITY_TOPIC_PREFIX = "solft/priority/";
+
     /**
      * Create a new {@link com.solacesystems.poc.SolaceConnection} wrapper around an existing Solace session instance.
      * @param sharedSession Shared Solace session to be used to join a FT-Cluster. This session is assumed to be already connected.
      * @throws JCSMPException In the event of any error validating the session's capabilities match those required by this object.
      */
     SolaceConnection(JCSMPSession sharedSession) throws JCSMPException {
-        session = sharedSession;
-        validateCapabilities();
+        this(SessionRegistry.acquire(sharedSession));
     }
 
     /**
@@ -32,18 +65,78 @@ class SolaceConnection {
      * @throws JCSMPException In the event of any error creating the session, connecting to a Solace Message bus, or validating the session's capabilities match those required by this object.
      */
     SolaceConnection(Properties connectionProperties) throws JCSMPException {
-        final JCSMPProperties solprops = new JCSMPProperties();
-        for (String name : connectionProperties.stringPropertyNames()) {
-            Object value = connectionProperties.getProperty(name);
-            solprops.setProperty(name, value);
+        this(SessionRegistry.acquire(connectionProperties));
+    }
+
+    private SolaceConnection(SharedSession shared) throws JCSMPException {
+        this.shared = shared;
+        this.session = shared.session();
+        try {
+            if (!shared.capabilitiesValidated) {
+                validateCapabilities();
+                shared.capabilitiesValidated = true;
+            }
         }
-        session = JCSMPFactory.onlyInstance().createSession(solprops);
-        session.connect();
-        validateCapabilities();
+        catch (JCSMPException e) {
+            SessionRegistry.release(shared);
+            throw e;
+        }
+        shared.addSessionListener(sessionListener);
     }
 
-    void stop() {
-        session.closeSession();
+    /**
+     * Closes every flow, browser and direct subscription of this connection and releases its session reference.
+     */
+    @Override
+    public void stop() {
+        shared.removeSessionListener(sessionListener);
+        final List<String> clusters;
+        synchronized (bindings) {
+            clusters = new ArrayList<>(bindings.keySet());
+            if (supervisor != null)
+                supervisor.shutdown();
+        }
+        for (String clusterName : clusters)
+            unbind(clusterName);
+        final List<Browser> browsers;
+        synchronized (openBrowsers) {
+            browsers = new ArrayList<>(openBrowsers);
+            openBrowsers.clear();
+        }
+        for (Browser browser : browsers)
+            browser.close();
+        final List<DirectSubscription> subscriptions;
+        synchronized (directSubscriptions) {
+            subscriptions = new ArrayList<>(directSubscriptions);
+            directSubscriptions.clear();
+        }
+        for (DirectSubscription direct : subscriptions) {
+            try {
+                shared.unsubscribe(direct);
+            }
+            catch (JCSMPException e) {
+                logger.warn("Error removing subscription {}: {}", direct.subscription, e.getMessage());
+            }
+        }
+        SessionRegistry.release(shared);
+    }
+
+    /**
+     * Closes the flows bound to one cluster, leaving the connection's other clusters bound.
+     * @param exclusiveClusterName Exclusive cluster to leave.
+     */
+    @Override
+    public void unbind(String exclusiveClusterName) {
+        final List<Binding> closing;
+        synchronized (bindings) {
+            closing = bindings.remove(exclusiveClusterName);
+            if (supervisor != null)
+                supervisor.cancel(exclusiveClusterName);
+        }
+        if (closing != null) {
+            for (Binding binding : closing)
+                binding.close();
+        }
     }
 
     /**
@@ -66,20 +159,436 @@ class SolaceConnection {
      * @param listener Event listener to be invoked for any FT state event changes.
      * @throws JCSMPException In the event of any error joining the FT-cluster.
      */
-    void bindExclusive(String exclusiveClusterName, final FTEventListener listener) throws JCSMPException {
+    @Override
+    public void bindExclusive(String exclusiveClusterName, final FTEventListener listener) throws JCSMPException {
+        bindExclusive(exclusiveClusterName, null, 0, listener);
+    }
+
+    /**
+     * Bind into an exclusive cluster as in {@link #bindExclusive(String, FTEventListener)}, subscribing the cluster's
+     * queue to the output subscription so that the last output message can be browsed by {@link #fetchLastValue(String, long)}.
+     * The flow is started like any other, so that flow events and failures still arrive, but it acknowledges
+     * messages explicitly and never does, leaving that message on the queue for the next Active member.
+     * @param exclusiveClusterName Exclusive cluster for FT-selection.
+     * @param outputSubscription Subscription to topic matching output from the Active FT-Cluster member.
+     * @param listener Event listener to be invoked for any FT state event changes.
+     * @throws JCSMPException In the event of any error joining the FT-cluster.
+     */
+    @Override
+    public void bindExclusive(final String exclusiveClusterName, String outputSubscription, final FTEventListener listener) throws JCSMPException {
+        bindExclusive(exclusiveClusterName, outputSubscription, 0, listener);
+    }
+
+    /**
+     * Bind into an exclusive cluster ranked among the Backups by priority: the flow is opened like any other, and
+     * Backups of a lower priority bind again behind this member once they hear its announcement; see the class
+     * description.
+     * @param exclusiveClusterName Exclusive cluster for FT-selection.
+     * @param outputSubscription Subscription to topic matching output from the Active FT-Cluster member, or null.
+     * @param priority Rank among the Backups; higher is first in line.
+     * @param listener Event listener to be invoked for any FT state event changes.
+     * @throws JCSMPException In the event of any error joining the FT-cluster.
+     */
+    @Override
+    public void bindExclusive(String exclusiveClusterName, String outputSubscription, int priority, FTEventListener listener) throws JCSMPException {
         provisionExclusiveQueue(exclusiveClusterName);
+        if (outputSubscription != null)
+            subscribeQueueToTopic(exclusiveClusterName, outputSubscription);
+        subscribePriorities();
+        openFlow(new Binding(exclusiveClusterName, outputSubscription != null, priority, listener));
+    }
+
+    /**
+     * Browses the cluster's queue for the last output message on one of the session's state fetch threads, so that
+     * the JCSMP context thread delivering flow events is never blocked waiting on the broker.
+     * @param exclusiveClusterName Exclusive cluster for FT-selection.
+     * @param timeoutMillis Maximum time to wait for the broker to return the message.
+     * @return A future completed with the last output message or <code>null</code> if none was found in time.
+     */
+    @Override
+    public CompletableFuture<BytesXMLMessage> fetchLastValue(final String exclusiveClusterName, final long timeoutMillis) {
+        final CompletableFuture<BytesXMLMessage> result = new CompletableFuture<>();
+        try {
+            shared.stateFetcher().execute(() -> {
+                try {
+                    result.complete(browseLastQueueValue(exclusiveClusterName, (int) Math.min(timeoutMillis, Integer.MAX_VALUE)));
+                }
+                catch (JCSMPException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Subscribes the session to direct messages matching the subscription. All direct subscriptions share the
+     * session's single message consumer, which is created on first use if solft owns the session; on an
+     * application's session, the application's consumer passes the messages on through
+     * {@link FTMgr#directMessage(JCSMPSession, BytesXMLMessage)}.
+     * @param subscription Topic subscription string, possibly including wildcards.
+     * @param listener Listener to be invoked for every matching message.
+     * @throws JCSMPException In the event of any error creating the consumer or adding the subscription.
+     */
+    @Override
+    public void subscribe(String subscription, FTMessageListener listener) throws JCSMPException {
+        final DirectSubscription direct = new DirectSubscription(subscription, listener);
+        synchronized (directSubscriptions) {
+            directSubscriptions.add(direct);
+        }
+        shared.subscribe(direct);
+    }
+
+    /**
+     * Removes a direct subscription, leaving the session subscribed while other listeners still use it.
+     * @param subscription Topic subscription string passed to subscribe.
+     * @param listener Listener passed to subscribe.
+     * @throws JCSMPException In the event of any error removing the subscription.
+     */
+    @Override
+    public void unsubscribe(String subscription, FTMessageListener listener) throws JCSMPException {
+        DirectSubscription removed = null;
+        synchronized (directSubscriptions) {
+            for (DirectSubscription direct : directSubscriptions) {
+                if (direct.isFor(subscription, listener)) {
+                    removed = direct;
+                    break;
+                }
+            }
+            directSubscriptions.remove(removed);
+        }
+        if (removed != null)
+            shared.unsubscribe(removed);
+    }
+
+    /**
+     * Create a non-exclusive queue with the default spool quota on the Solace message router, respecting message
+     * time-to-live so that stray browse end markers expire, ignoring any errors if the queue already exists, and
+     * subscribe it to the topic subscription.
+     * @param queueName Name of the Solace queue to provision on the Solace message router.
+     * @param subscription Topic subscription string to be mapped to the queue.
+     * @throws JCSMPException In the event of any error provisioning the queue on the Solace message router.
+     */
+    @Override
+    public void provisionQueue(String queueName, String subscription) throws JCSMPException {
+        final Queue queue = JCSMPFactory.onlyInstance().createQueue(queueName);
+        final EndpointProperties endpointProps = new EndpointProperties();
+        endpointProps.setPermission(EndpointProperties.PERMISSION_DELETE);
+        endpointProps.setAccessType(EndpointProperties.ACCESSTYPE_NONEXCLUSIVE);
+        endpointProps.setRespectsMsgTTL(true);
+        final Object event = FlightEvents.beginProvision(queueName, subscription);
+        session.provision(queue, endpointProps, JCSMPSession.FLAG_IGNORE_ALREADY_EXISTS);
+        FlightEvents.end(event);
+        subscribeQueueToTopic(queueName, subscription);
+    }
+
+    /**
+     * Publishes a persistent message on a topic through this session's message producer, which is created on first use.
+     * @param topic Topic to publish the message on.
+     * @param msg Message to publish.
+     * @throws JCSMPException In the event of any error creating the producer or sending the message.
+     */
+    @Override
+    public void publish(String topic, BytesXMLMessage msg) throws JCSMPException {
+        msg.setDeliveryMode(DeliveryMode.PERSISTENT);
+        shared.producer().send(msg, JCSMPFactory.onlyInstance().createTopic(topic));
+    }
+
+    /**
+     * Publishes a direct message through this session's message producer, without allocating once the topic was
+     * seen: destinations are cached per topic, so this is meant for a few fixed topics only.
+     * @param topic Topic to publish the message on.
+     * @param msg Message to publish.
+     */
+    @Override
+    public void publishDirect(String topic, BytesXMLMessage msg) throws JCSMPException {
+        Topic destination = directTopics.get(topic);
+        if (destination == null) {
+            destination = JCSMPFactory.onlyInstance().createTopic(topic);
+            directTopics.put(topic, destination);
+        }
+        msg.setDeliveryMode(DeliveryMode.DIRECT);
+        shared.producer().send(msg, destination);
+    }
+
+    /**
+     * Publishes a batch of persistent messages through this session's message producer with as few sends as
+     * possible, without waiting for the broker: each message carries the batch's correlation key, and the producer's
+     * event handler completes the returned future once every message was acknowledged.
+     * @param topics Topic to publish each message on.
+     * @param msgs Messages to publish.
+     * @return A future completed once the broker acknowledged every message, or exceptionally on the first error.
+     */
+    @Override
+    public CompletableFuture<Void> publishAll(List<String> topics, List<BytesXMLMessage> msgs) {
+        final PublishAck ack = new PublishAck(msgs.size());
+        try {
+            final XMLMessageProducer producer = shared.producer();
+            final JCSMPSendMultipleEntry[] entries = new JCSMPSendMultipleEntry[Math.min(msgs.size(), MAX_SEND_MULTIPLE)];
+            for (int start = 0; start < msgs.size(); start += entries.length) {
+                final int length = Math.min(entries.length, msgs.size() - start);
+                for (int i = 0; i < length; i++) {
+                    final BytesXMLMessage msg = msgs.get(start + i);
+                    msg.setDeliveryMode(DeliveryMode.PERSISTENT);
+                    msg.setCorrelationKey(ack);
+                    entries[i] = JCSMPFactory.onlyInstance().createSendMultipleEntry(msg, JCSMPFactory.onlyInstance().createTopic(topics.get(start + i)));
+                }
+                int sent = 0;
+                while (sent < length)
+                    sent += producer.sendMultiple(entries, sent, length - sent, 0);
+            }
+        }
+        catch (JCSMPException e) {
+            ack.failed(e);
+        }
+        return ack.future();
+    }
 
+    /**
+     * Opens a Solace queue browser over the named queue, tracked until closed so that stopping the connection
+     * closes any browser left open. A Solace browser cannot tell where a queue ends, and waits out its whole timeout
+     * there, so an end marker is sent to the queue first: once the browser reaches it, every message spooled before
+     * the browser was opened was returned, and the marker is removed. Markers of other browsers are skipped. A
+     * browser closed before reaching its marker browses on to it to remove it; markers left behind anyway expire,
+     * on queues provisioned by {@link #provisionQueue(String, String)}, which respect message time-to-live.
+     * @param queueName Name of the queue to browse.
+     * @return A new browser positioned before the oldest message.
+     * @throws JCSMPException In the event of any error creating the browser.
+     */
+    @Override
+    public FTBrowser browse(String queueName) throws JCSMPException {
+        final Queue queue = JCSMPFactory.onlyInstance().createQueue(queueName);
+        final String marker = UUID.randomUUID().toString();
+        final BytesXMLMessage end = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        final SDTMap props = JCSMPFactory.onlyInstance().createMap();
+        props.putString(END_MARKER, marker);
+        end.setProperties(props);
+        end.setDeliveryMode(DeliveryMode.PERSISTENT);
+        end.setTimeToLive(END_MARKER_TTL_MILLIS);
+        shared.producer().send(end, queue);
+        final BrowserProperties properties = new BrowserProperties();
+        properties.setEndpoint(queue);
+        final Browser browser = session.createBrowser(properties);
+        synchronized (openBrowsers) {
+            openBrowsers.add(browser);
+        }
+        return new FTBrowser() {
+            @Override
+            public BytesXMLMessage next(int timeoutMillis) throws JCSMPException {
+                lastTimeoutMillis = timeoutMillis;
+                while (!ended) {
+                    final BytesXMLMessage msg = browser.getNext(timeoutMillis);
+                    if (msg == null)
+                        return null;
+                    final String found = endMarker(msg);
+                    if (found == null)
+                        return msg;
+                    if (found.equals(marker)) {
+                        ended = true;
+                        browser.remove(msg);
+                    }
+                }
+                return null;
+            }
+            @Override
+            public void remove(BytesXMLMessage msg) throws JCSMPException {
+                browser.remove(msg);
+            }
+            @Override
+            public void close() {
+                try {
+                    // Otherwise every later browse would have to skip this browser's marker
+                    while (!ended && next(lastTimeoutMillis) != null) {
+                    }
+                }
+                catch (JCSMPException e) {
+                    logger.warn("Could not remove the end marker of a browse of {}: {}", queueName, e.getMessage());
+                }
+                finally {
+                    synchronized (openBrowsers) {
+                        openBrowsers.remove(browser);
+                    }
+                    browser.close();
+                }
+            }
+            private boolean ended;
+            private int lastTimeoutMillis = END_MARKER_DRAIN_MILLIS;
+        };
+    }
+
+    private static String endMarker(BytesXMLMessage msg) {
+        try {
+            return msg.getProperties() == null ? null : msg.getProperties().getString(END_MARKER);
+        }
+        catch (SDTException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Joins many clusters with their Solace round-trips pipelined: each cluster's queue is provisioned, subscribed to
+     * its output subscription and its flow created on a pool of <code>concurrency</code> threads, each cluster moving
+     * on as soon as its previous step is confirmed. Every flow created is then started together. Failures at any step,
+     * including subscription errors other than the subscription already existing, are collected per cluster.
+     * Backups are ranked by priority as by {@link #bindExclusive(String, String, int, FTEventListener)}.
+     * @param requests Clusters to join.
+     * @param concurrency Maximum number of clusters provisioned and bound concurrently.
+     * @return The outcome of every request.
+     */
+    @Override
+    public BindResult bindExclusiveAll(List<BindRequest> requests, int concurrency) {
+        final ExecutorService provisioner = Executors.newFixedThreadPool(Math.max(1, Math.min(concurrency, requests.size())), runnable -> {
+            final Thread thread = new Thread(runnable, "solft-provision");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final List<CompletableFuture<Binding>> created = new ArrayList<>();
+        subscribePriorities();
+        try {
+            for (final BindRequest request : requests) {
+                created.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        provisionExclusiveQueue(request.getClusterName());
+                        if (request.getOutputSubscription() != null)
+                            addQueueSubscription(request.getClusterName(), request.getOutputSubscription());
+                        final Binding binding = new Binding(request.getClusterName(), request.getOutputSubscription() != null,
+                                request.getPriority(), request.getListener());
+                        createFlow(binding);
+                        return binding;
+                    }
+                    catch (JCSMPException e) {
+                        throw new CompletionException(e);
+                    }
+                }, provisioner));
+            }
+            final List<String> bound = new ArrayList<>();
+            final Map<String, JCSMPException> failures = new LinkedHashMap<>();
+            for (int i = 0; i < requests.size(); i++) {
+                final String clusterName = requests.get(i).getClusterName();
+                try {
+                    startFlow(created.get(i).join());
+                    bound.add(clusterName);
+                }
+                catch (CompletionException e) {
+                    failures.put(clusterName, asJCSMPException(clusterName, e.getCause()));
+                }
+                catch (JCSMPException | RuntimeException e) {
+                    failures.put(clusterName, asJCSMPException(clusterName, e));
+                }
+            }
+            return new BindResult(bound, failures);
+        }
+        finally {
+            provisioner.shutdown();
+        }
+    }
+
+    private static JCSMPException asJCSMPException(String clusterName, Throwable error) {
+        return error instanceof JCSMPException
+                ? (JCSMPException) error
+                : new JCSMPException("Error binding to cluster " + clusterName, error);
+    }
+
+    /**
+     * Creates and starts the flow of a binding; see {@link #createFlow(Binding)}. A flow that fails to start is
+     * closed and its binding no longer tracked.
+     */
+    private void openFlow(final Binding binding) throws JCSMPException {
+        createFlow(binding);
+        startFlow(binding);
+    }
+
+    private void startFlow(final Binding binding) throws JCSMPException {
+        try {
+            binding.flow.start();
+        }
+        catch (JCSMPException | RuntimeException e) {
+            untrack(binding);
+            binding.close();
+            throw e;
+        }
+        announce(binding);
+    }
+
+    /**
+     * Subscribes this connection to the bind priority announcements of every cluster, once; a failure is only
+     * logged, leaving this connection's Backups in bind order, and retried on the next bind.
+     */
+    private void subscribePriorities() {
+        if (!subscribedPriorities.compareAndSet(false, true))
+            return;
+        try {
+            subscribe(PRIORITY_TOPIC_PREFIX + ">", priorities);
+        }
+        catch (JCSMPException e) {
+            subscribedPriorities.set(false);
+            logger.warn("Error subscribing to bind priorities, Backups are not ranked: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Announces the priority of a binding whose flow was just started, i.e. which is last in line.
+     */
+    private void announce(Binding binding) {
+        final byte[] id = connectionId.getBytes(StandardCharsets.UTF_8);
+        final BytesXMLMessage msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        msg.writeAttachment(ByteBuffer.allocate(4 + id.length).putInt(binding.priority).put(id).array());
+        try {
+            publishDirect(PRIORITY_TOPIC_PREFIX + binding.clusterName, msg);
+        }
+        catch (JCSMPException e) {
+            logger.warn("Error announcing the bind priority on cluster {}: {}", binding.clusterName, e.getMessage());
+        }
+    }
+
+    /**
+     * Closes the flow of a Backup and opens it again, behind a member of a higher priority that bound after it.
+     * Events of the closed flow are ignored from then on, so a promotion racing the close is never reported.
+     */
+    private void rankBehind(Binding binding) throws JCSMPException {
+        if (!binding.yield())
+            return;
+        logger.info("Binding to cluster {} again behind a Backup of a higher priority", binding.clusterName);
+        binding.close();
+        openFlow(binding);
+    }
+
+    private void untrack(Binding binding) {
+        synchronized (bindings) {
+            final List<Binding> clusterBindings = bindings.get(binding.clusterName);
+            if (clusterBindings != null && clusterBindings.remove(binding) && clusterBindings.isEmpty())
+                bindings.remove(binding.clusterName);
+        }
+    }
+
+    /**
+     * Creates the flow of a binding, stopped, tracking the binding under its cluster name. Every flow gets a message
+     * listener so that the flow's failure is reported to {@link #lost(Binding, String)}. Stateful flows acknowledge
+     * messages explicitly and never do, so that output retained on the queue is received but never consumed, and
+     * stays there for the next Active member.
+     */
+    private void createFlow(final Binding binding) throws JCSMPException {
+        final int generation = binding.generation();
         final ConsumerFlowProperties queueProps = new ConsumerFlowProperties();
-        queueProps.setEndpoint(JCSMPFactory.onlyInstance().createQueue(exclusiveClusterName));
+        queueProps.setEndpoint(JCSMPFactory.onlyInstance().createQueue(binding.clusterName));
         queueProps.setActiveFlowIndication(true);
-        session.createFlow(
+        if (binding.stateful) {
+            queueProps.setStartState(false);
+            queueProps.setAckMode(JCSMPProperties.SUPPORTED_MESSAGE_ACK_CLIENT);
+        }
+        final FlowReceiver flow = session.createFlow(
                 new XMLMessageListener() {
                     @Override
                     public void onReceive(BytesXMLMessage bytesXMLMessage) {
-                        // Reserved for future use
+                        // Reserved for future use; never acknowledged on stateful flows
                     }
                     @Override
                     public void onException(JCSMPException e) {
+                        if (binding.generation() == generation)
+                            lost(binding, e.getMessage());
                     }
                 },
                 queueProps,
@@ -88,41 +597,60 @@ class SolaceConnection {
                     @Override
                     public void handleEvent(Object o, FlowEventArgs args) {
                         if (args.getEvent().equals(FlowEvent.FLOW_ACTIVE)) {
-                            listener.onActive(null);
+                            if (binding.setActive(generation, true))
+                                binding.listener.onActive(null);
                         }
-                        else {
-                            listener.onBackup();
+                        else if (args.getEvent().equals(FlowEvent.FLOW_INACTIVE)) {
+                            if (binding.setActive(generation, false))
+                                binding.listener.onBackup();
                         }
+                        else
+                            logger.debug("Ignoring flow event {} on cluster {}", args.getEvent(), binding.clusterName);
                     }
-                })
-                .start();
+                });
+        synchronized (bindings) {
+            binding.flow = flow;
+            List<Binding> clusterBindings = bindings.get(binding.clusterName);
+            if (clusterBindings == null) {
+                clusterBindings = new ArrayList<>();
+                bindings.put(binding.clusterName, clusterBindings);
+            }
+            if (!clusterBindings.contains(binding))
+                clusterBindings.add(binding);
+        }
     }
 
-    void bindExclusiveWithState(final String exclusiveClusterName, String outputSubscription, final FTEventListener listener) throws JCSMPException {
-        provisionExclusiveQueue(exclusiveClusterName);
-        subscribeQueueToTopic(exclusiveClusterName, outputSubscription);
+    /**
+     * Handles the loss of a binding's flow: the member is told it is no longer Active, and the flow is re-created
+     * in the background with jittered backoff, reconnecting the session first if solft owns it.
+     */
+    private void lost(final Binding binding, String reason) {
+        final ReconnectSupervisor rebinder;
+        synchronized (bindings) {
+            final List<Binding> clusterBindings = bindings.get(binding.clusterName);
+            if (clusterBindings == null || !clusterBindings.contains(binding))
+                return;
+            rebinder = supervisor();
+        }
+        logger.warn("Lost binding to cluster {}: {}", binding.clusterName, reason);
+        binding.lost();
+        binding.close();
+        rebinder.rebind(binding.clusterName,
+                () -> {
+                    shared.reconnect();
+                    openFlow(binding);
+                },
+                binding::restored);
+    }
 
-        final ConsumerFlowProperties queueProps = new ConsumerFlowProperties();
-        queueProps.setEndpoint(JCSMPFactory.onlyInstance().createQueue(exclusiveClusterName));
-        queueProps.setActiveFlowIndication(true);
-        queueProps.setStartState(false);
-        session.createFlow(
-                null,
-                queueProps,
-                null,
-                new FlowEventHandler() {
-                    @Override
-                    public void handleEvent(Object o, FlowEventArgs args) {
-                        if (args.getEvent().equals(FlowEvent.FLOW_ACTIVE)) {
-                            final BytesXMLMessage lastMsg = browseLastQueueValue(exclusiveClusterName);
-                            listener.onActive(lastMsg);
-                        }
-                        else {
-                            listener.onBackup();
-                        }
-                    }
-                })
-                .start();
+    /**
+     * @return The reconnect supervisor, created on first use; called holding the bindings lock.
+     */
+    private ReconnectSupervisor supervisor() {
+        if (supervisor == null)
+            supervisor = new ReconnectSupervisor("solft-reconnect",
+                    ReconnectSupervisor.DEFAULT_INITIAL_DELAY_MILLIS, ReconnectSupervisor.DEFAULT_MAX_DELAY_MILLIS);
+        return supervisor;
     }
 
     /**
@@ -136,7 +664,9 @@ class SolaceConnection {
         endpointProps.setPermission(EndpointProperties.PERMISSION_DELETE);
         endpointProps.setAccessType(EndpointProperties.ACCESSTYPE_EXCLUSIVE);
         endpointProps.setQuota(0);
+        final Object event = FlightEvents.beginProvision(queueName, null);
         session.provision(queue, endpointProps, JCSMPSession.FLAG_IGNORE_ALREADY_EXISTS);
+        FlightEvents.end(event);
     }
 
     /**
@@ -146,10 +676,8 @@ class SolaceConnection {
      * @throws JCSMPException In the event of any error subscribing the queue on the Solace message router to the provided topic subscription string.
      */
     private void subscribeQueueToTopic(String queueName, String subscription) {
-        final Queue queue = JCSMPFactory.onlyInstance().createQueue(queueName);
-        final Topic topic = JCSMPFactory.onlyInstance().createTopic(subscription);
         try {
-            session.addSubscription(queue, topic, JCSMPSession.WAIT_FOR_CONFIRM);
+            addQueueSubscription(queueName, subscription);
         }
         catch(JCSMPException e) {
             // If the subscription was already there, no biggie just swallow it
@@ -159,25 +687,191 @@ class SolaceConnection {
     }
 
     /**
-     * Attempts to return a value from the named queue; returns null if no message was found.
+     * Subscribes the named queue to the topic subscription string, waiting for the broker's confirmation and
+     * ignoring the error of the subscription already existing.
+     * @throws JCSMPException In the event of any other error adding the subscription.
+     */
+    private void addQueueSubscription(String queueName, String subscription) throws JCSMPException {
+        final Queue queue = JCSMPFactory.onlyInstance().createQueue(queueName);
+        final Topic topic = JCSMPFactory.onlyInstance().createTopic(subscription);
+        final Object event = FlightEvents.beginSubscribe(queueName, subscription);
+        session.addSubscription(queue, topic, JCSMPSession.WAIT_FOR_CONFIRM | JCSMPSession.FLAG_IGNORE_ALREADY_EXISTS);
+        FlightEvents.end(event);
+    }
+
+    /**
+     * Attempts to return a value from the named queue; returns null if no message was found. The browser is
+     * closed before returning.
      * @param queueName Name of the queue to browse.
+     * @param timeoutMillis Maximum time to wait for the broker to return a message.
      * @return First message found on the queue or null if none is found.
      * @throws JCSMPException In the event of any error browsing the named queue.
      */
-    private BytesXMLMessage browseLastQueueValue(String queueName) {
+    private BytesXMLMessage browseLastQueueValue(String queueName, int timeoutMillis) throws JCSMPException {
+        final BrowserProperties properties = new BrowserProperties();
+        properties.setEndpoint(JCSMPFactory.onlyInstance().createQueue(queueName));
+        properties.setTransportWindowSize(1);
+        properties.setWaitTimeout(timeoutMillis);
+        final Object event = FlightEvents.beginBrowse(queueName);
+        BytesXMLMessage msg = null;
+        final Browser browser = session.createBrowser(properties);
         try {
-            final BrowserProperties properties = new BrowserProperties();
-            properties.setEndpoint(JCSMPFactory.onlyInstance().createQueue(queueName));
-            properties.setTransportWindowSize(1);
-            properties.setWaitTimeout(1000);
-            final Browser browser = session.createBrowser(properties);
-            return browser.getNext();
+            msg = browser.getNext(timeoutMillis);
+            return msg;
         }
-        catch (JCSMPException e) {
-            e.printStackTrace();
+        finally {
+            browser.close();
+            FlightEvents.endBrowse(event, msg != null);
         }
-        return null;
     }
 
+    /**
+     * One flow bound to a cluster, together with what is needed to re-create it.
+     */
+    private static class Binding {
+        Binding(String clusterName, boolean stateful, int priority, FTEventListener listener) {
+            this.clusterName = clusterName;
+            this.stateful = stateful;
+            this.priority = priority;
+            this.listener = listener;
+        }
+
+        synchronized int generation() {
+            return generation;
+        }
+
+        /**
+         * Records a flow event, unless it comes from a flow closed by {@link #yield()}.
+         * @return Whether the event is to be passed on to the listener.
+         */
+        synchronized boolean setActive(int flowGeneration, boolean active) {
+            if (flowGeneration != generation)
+                return false;
+            this.active = active;
+            return true;
+        }
+
+        /**
+         * @return Whether this binding is a Backup whose flow may be closed to bind again behind a higher priority.
+         */
+        synchronized boolean isBackup() {
+            return !active && !isLost;
+        }
+
+        /**
+         * Disowns the current flow so that it can be closed, unless this binding became Active or was lost meanwhile.
+         * @return Whether the flow was disowned.
+         */
+        synchronized boolean yield() {
+            if (active || isLost)
+                return false;
+            generation++;
+            return true;
+        }
+
+        synchronized void lost() {
+            if (isLost)
+                return;
+            isLost = true;
+            active = false;
+            if (listener instanceof BindingListener)
+                ((BindingListener) listener).onBindingLost();
+            else
+                listener.onBackup();
+        }
+
+        synchronized void restored() {
+            if (!isLost)
+                return;
+            isLost = false;
+            if (listener instanceof BindingListener)
+                ((BindingListener) listener).onBindingRestored();
+        }
+
+        void close() {
+            final FlowReceiver closing = flow;
+            if (closing != null)
+                closing.close();
+        }
+
+        final String clusterName;
+        final boolean stateful;
+        final int priority;
+        final FTEventListener listener;
+        volatile FlowReceiver flow;
+        private boolean isLost;
+        private boolean active;
+        private int generation;
+    }
+
+    /**
+     * Moves this connection's Backups behind a member announcing a higher priority on their cluster. The rebind is
+     * run by the reconnect supervisor, as the flow cannot be closed on the JCSMP thread delivering the announcement,
+     * and is skipped if a lost binding is being restored already.
+     */
+    final private FTMessageListener priorities = new FTMessageListener() {
+        @Override
+        public void onMessage(String topic, BytesXMLMessage msg) {
+            final byte[] payload = new byte[msg.getAttachmentContentLength()];
+            msg.readAttachmentBytes(payload);
+            if (payload.length < 4 || connectionId.equals(new String(payload, 4, payload.length - 4, StandardCharsets.UTF_8)))
+                return;
+            final int announced = ByteBuffer.wrap(payload).getInt();
+            final String clusterName = topic.substring(PRIORITY_TOPIC_PREFIX.length());
+            Binding behind = null;
+            final ReconnectSupervisor rebinder;
+            synchronized (bindings) {
+                final List<Binding> clusterBindings = bindings.get(clusterName);
+                if (clusterBindings == null)
+                    return;
+                for (Binding binding : clusterBindings) {
+                    if (binding.priority < announced && binding.isBackup())
+                        behind = binding;
+                }
+                if (behind == null)
+                    return;
+                rebinder = supervisor();
+            }
+            final Binding ranked = behind;
+            rebinder.rebind(clusterName, () -> rankBehind(ranked), ranked::restored);
+        }
+    };
+
+    /**
+     * Supervises session-wide failures. While JCSMP retries a dropped connection every binding is considered lost,
+     * as the broker may already have promoted another member; JCSMP re-binds the flows itself once reconnected.
+     * If the session gives up, the flows are re-created by the reconnect supervisor.
+     */
+    final private SessionEventHandler sessionListener = new SessionEventHandler() {
+        @Override
+        public void handleEvent(SessionEventArgs args) {
+            final List<Binding> affected = new ArrayList<>();
+            synchronized (bindings) {
+                for (List<Binding> clusterBindings : bindings.values())
+                    affected.addAll(clusterBindings);
+            }
+            if (args.getEvent() == SessionEvent.RECONNECTING) {
+                for (Binding binding : affected)
+                    binding.lost();
+            }
+            else if (args.getEvent() == SessionEvent.RECONNECTED) {
+                for (Binding binding : affected)
+                    binding.restored();
+            }
+            else if (args.getEvent() == SessionEvent.DOWN_ERROR) {
+                for (Binding binding : affected)
+                    lost(binding, args.getInfo());
+            }
+        }
+    };
+
+    final private SharedSession shared;
     final private JCSMPSession session;
+    final private Map<String, List<Binding>> bindings = new HashMap<>();
+    private ReconnectSupervisor supervisor;
+    final private Set<Browser> openBrowsers = Collections.newSetFromMap(new IdentityHashMap<Browser, Boolean>());
+    final private List<DirectSubscription> directSubscriptions = new ArrayList<>();
+    final private Map<String, Topic> directTopics = new ConcurrentHashMap<>();
+    final private String connectionId = UUID.randomUUID().toString();
+    final private AtomicBoolean subscribedPriorities = new AtomicBoolean();
 }
@@ -0,0 +1,110 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Interface converting the state handed over between Active members to and from the bytes of an output message,
+ * for applications joining a FT-Cluster through
+ * {@link com.solacesystems.poc.FTMgr#startStateful(String, String, StateCodec, TypedFTEventListener)}.
+ *
+ * <p>Decoding reads a read-only view of the message's attachment in place, so the state goes from the broker to
+ * the application's own type without intermediate copies. The Active member builds its output messages with
+ * {@link #toMessage(Object)}, so that Backups can decode them with the same codec.</p>
+ *
+ * @param <T> Type of the state.
+ */
+public interface StateCodec<T> {
+    /**
+     * Codec handing over the raw attachment bytes, as a read-only view valid only for the duration of the
+     * listener's call.
+     */
+    StateCodec<ByteBuffer> RAW = new StateCodec<ByteBuffer>() {
+        @Override
+        public ByteBuffer encode(ByteBuffer value) {
+            return value.duplicate();
+        }
+        @Override
+        public ByteBuffer decode(ByteBuffer state) {
+            return state;
+        }
+    };
+
+    /**
+     * Codec handing over state as UTF-8 text.
+     */
+    StateCodec<String> UTF8 = new StateCodec<String>() {
+        @Override
+        public ByteBuffer encode(String value) {
+            return StandardCharsets.UTF_8.encode(value);
+        }
+        @Override
+        public String decode(ByteBuffer state) {
+            return StandardCharsets.UTF_8.decode(state).toString();
+        }
+    };
+
+    /**
+     * Encodes state into the bytes of an output message.
+     * @param value State to encode.
+     * @return The encoded bytes, from the buffer's position to its limit.
+     * @throws IOException In the event of any error encoding the state.
+     */
+    public ByteBuffer encode(T value) throws IOException;
+
+    /**
+     * Decodes state from the bytes of an output message.
+     * @param state Read-only view of the bytes, valid only for the duration of the call.
+     * @return The decoded state.
+     * @throws IOException In the event of any error decoding the state.
+     */
+    public T decode(ByteBuffer state) throws IOException;
+
+    /**
+     * Builds an output message carrying encoded state, to be published by the Active member.
+     * @param value State to encode.
+     * @return A new message whose attachment holds the encoded state.
+     * @throws IOException In the event of any error encoding the state.
+     */
+    default BytesXMLMessage toMessage(T value) throws IOException {
+        final ByteBuffer encoded = encode(value);
+        final BytesXMLMessage msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        if (encoded.hasArray()) {
+            msg.writeAttachment(encoded.array(), encoded.arrayOffset() + encoded.position(), encoded.remaining());
+        }
+        else {
+            final byte[] bytes = new byte[encoded.remaining()];
+            encoded.get(bytes);
+            msg.writeAttachment(bytes);
+        }
+        return msg;
+    }
+
+    /**
+     * Decodes the state carried by an output message, reading its attachment in place.
+     * @param msg Output message, or null.
+     * @return The decoded state, or null if the message is null.
+     * @throws IOException In the event of any error decoding the state.
+     */
+    default T fromMessage(BytesXMLMessage msg) throws IOException {
+        if (msg == null)
+            return null;
+        final ByteBuffer attachment = msg.getAttachmentByteBuffer();
+        return decode(attachment == null ? ByteBuffer.allocate(0) : attachment.asReadOnlyBuffer());
+    }
+
+    /**
+     * Wraps a codec to compress the encoded bytes with DEFLATE, trading CPU time for smaller output messages;
+     * worthwhile for large, repetitive state.
+     * @param codec Codec encoding the state before compression.
+     * @param <T> Type of the state.
+     * @return A codec compressing the given codec's bytes.
+     */
+    static <T> StateCodec<T> compressed(StateCodec<T> codec) {
+        return new CompressedStateCodec<>(codec);
+    }
+}
@@ -0,0 +1,76 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Internal last-value mirror of the Active member's output, kept by a hot-standby Backup through a direct
+ * subscription to the output topics, so that on promotion the state can be handed over without any I/O.
+ * The mirror only subscribes while attached, i.e. while its member is a Backup.
+ */
+class StateMirror implements FTMessageListener {
+    private static final Logger logger = LoggerFactory.getLogger(StateMirror.class);
+
+    StateMirror(FTBackend backend, String outputSubscription) {
+        this.backend = backend;
+        this.outputSubscription = outputSubscription;
+    }
+
+    @Override
+    public void onMessage(String topic, BytesXMLMessage msg) {
+        last = msg;
+    }
+
+    /**
+     * @return The latest output seen since the mirror was last attached, or null if none was seen.
+     */
+    BytesXMLMessage last() {
+        return last;
+    }
+
+    /**
+     * Starts mirroring from scratch, discarding anything seen before; does nothing if already attached.
+     */
+    synchronized void attach() {
+        if (attached)
+            return;
+        last = null;
+        try {
+            backend.subscribe(outputSubscription, this);
+            attached = true;
+        }
+        catch (JCSMPException e) {
+            logger.warn("Error subscribing hot-standby mirror to {}: {}", outputSubscription, e.getMessage());
+        }
+    }
+
+    /**
+     * Forgets anything mirrored so far while staying attached, e.g. once the binding was lost and output published
+     * meanwhile may have been missed; activation then fetches the state until a message is mirrored again.
+     */
+    synchronized void reset() {
+        last = null;
+    }
+
+    /**
+     * Stops mirroring; does nothing if not attached.
+     */
+    synchronized void detach() {
+        if (!attached)
+            return;
+        attached = false;
+        try {
+            backend.unsubscribe(outputSubscription, this);
+        }
+        catch (JCSMPException e) {
+            logger.warn("Error unsubscribing hot-standby mirror from {}: {}", outputSubscription, e.getMessage());
+        }
+    }
+
+    final private FTBackend backend;
+    final private String outputSubscription;
+    private volatile BytesXMLMessage last;
+    private boolean attached;
+}
@@ -0,0 +1,46 @@
+package com.solacesystems.poc;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Internal helper bounding how long a future may take, and delaying tasks, on a single shared daemon timer thread.
+ */
+final class Timeouts {
+    private Timeouts() {}
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "solft-timeouts");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Returns a future completed like the given one, or exceptionally with a {@link TimeoutException} if the
+     * given future has not completed within the timeout.
+     */
+    static <T> CompletableFuture<T> within(CompletableFuture<T> future, long timeout, TimeUnit unit) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        future.whenComplete((value, error) -> {
+            if (error != null)
+                result.completeExceptionally(error);
+            else
+                result.complete(value);
+        });
+        if (!result.isDone()) {
+            timer.schedule(() -> result.completeExceptionally(new TimeoutException()), timeout, unit);
+        }
+        return result;
+    }
+
+    /**
+     * Runs a short task on the timer thread once the delay has elapsed.
+     */
+    static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return timer.schedule(task, delay, unit);
+    }
+}
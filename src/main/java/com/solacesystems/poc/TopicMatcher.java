@@ -0,0 +1,46 @@
+package com.solacesystems.poc;
+
+/**
+ * Internal helper implementing Solace topic subscription matching, for backends that route messages
+ * without a Solace Message Broker. Topic levels are separated by '/'; a level of '*' matches exactly one level,
+ * a level ending in '*' matches any level with that prefix, and a final level of '&gt;' matches one or more levels.
+ */
+final class TopicMatcher {
+    private TopicMatcher() {}
+
+    /**
+     * Tests whether a topic matches a subscription.
+     * @param subscription Topic subscription string, possibly including wildcards.
+     * @param topic Topic the message was published on.
+     * @return true if the subscription matches the topic.
+     */
+    static boolean matches(String subscription, String topic) {
+        int s = 0, t = 0;
+        final int slen = subscription.length(), tlen = topic.length();
+        while (s < slen) {
+            int send = subscription.indexOf('/', s);
+            if (send < 0) send = slen;
+            if (t > tlen) return false;
+            int tend = topic.indexOf('/', t);
+            if (tend < 0) tend = tlen;
+
+            final int levelLen = send - s;
+            if (levelLen == 1 && subscription.charAt(s) == '>' && send == slen) {
+                // '>' must match at least one more level
+                return t < tlen;
+            }
+            if (levelLen > 0 && subscription.charAt(send - 1) == '*') {
+                final int prefixLen = levelLen - 1;
+                if (tend - t < prefixLen || !subscription.regionMatches(s, topic, t, prefixLen))
+                    return false;
+            }
+            else if (tend - t != levelLen || !subscription.regionMatches(s, topic, t, levelLen)) {
+                return false;
+            }
+            s = send + 1;
+            t = tend + 1;
+        }
+        // both subscription and topic must be exhausted at the same level
+        return t == tlen + 1;
+    }
+}
@@ -0,0 +1,24 @@
+package com.solacesystems.poc;
+
+/**
+ * Interface for applications joining a FT-Cluster through
+ * {@link com.solacesystems.poc.FTMgr#startStateful(String, String, StateCodec, TypedFTEventListener)} and receiving,
+ * on activation, the previous Active member's last output already decoded by a {@link StateCodec}.
+ *
+ * See also {@link com.solacesystems.poc.FTEventListener}
+ *
+ * @param <T> Type of the state.
+ */
+public interface TypedFTEventListener<T> {
+    /**
+     * Invoked by the {@link FTMgr} when this listening application becomes the Active member of the cluster.
+     * @param state The previous Active member's last output, decoded; <code>null</code> if none was found or it
+     *              could not be decoded.
+     */
+    public void onActive(T state);
+
+    /**
+     * Invoked by the {@link FTMgr} when this listening application changes to become a Backup member of the cluster.
+     */
+    public void onBackup();
+}
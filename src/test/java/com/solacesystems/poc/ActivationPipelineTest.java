@@ -0,0 +1,77 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ActivationPipelineTest {
+
+    @Test
+    public void staleActivationInBurstTest() throws Exception {
+        final ArrayDeque<CompletableFuture<Long>> epochs = new ArrayDeque<>();
+        final RecordingListener listener = new RecordingListener();
+        final ActivationPipeline pipeline = new ActivationPipeline(new LoopbackConnection(new LoopbackBroker()),
+                "MyAppCluster", false, 0, Runnable::run, 100, null, null,
+                () -> {
+                    final CompletableFuture<Long> epoch = new CompletableFuture<>();
+                    epochs.add(epoch);
+                    return epoch;
+                },
+                new FTMetrics("MyAppCluster", null), listener);
+
+        pipeline.onActive(null);
+        epochs.poll().complete(1L);
+        awaitEvents(listener, 1);
+        assertEquals("active 1", listener.events.get(0));
+        assertTrue(listener.promoted);
+
+        pipeline.onBackup();
+        assertFalse("The member is deposed as soon as the flow event arrives", listener.promoted);
+        pipeline.onActive(null);
+        pipeline.onBackup();
+        epochs.poll().complete(2L);
+        awaitEvents(listener, 2);
+        assertEquals("An activation completing after a later Backup never replaces it", "backup", listener.events.get(1));
+        Thread.sleep(200);
+        assertEquals(2, listener.events.size());
+        assertFalse(listener.promoted);
+    }
+
+    private static void awaitEvents(RecordingListener listener, int count) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (listener.events.size() < count && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        assertEquals(count, listener.events.size());
+    }
+
+    static class RecordingListener implements RoleListener {
+        @Override
+        public void onPromoted(long epoch) {
+            promoted = true;
+        }
+        @Override
+        public void onActive(BytesXMLMessage msg, long epoch) {
+            events.add("active " + epoch);
+        }
+        @Override
+        public void onDeposed() {
+            promoted = false;
+        }
+        @Override
+        public void onBackup() {
+            events.add("backup");
+        }
+
+        final List<String> events = new CopyOnWriteArrayList<>();
+        volatile boolean promoted;
+    }
+}
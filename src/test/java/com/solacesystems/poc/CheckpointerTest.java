@@ -0,0 +1,176 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CheckpointerTest {
+
+    final private LoopbackBroker broker = new LoopbackBroker();
+
+    @Test
+    public void snapshotPlusDeltaRecoveryTest() throws Exception {
+        final FTMgr fred = activeMember(new LoopbackConnection(broker));
+        final Checkpointer active = fred.createCheckpointer("AKNA/ckpt");
+        active.setChunkSize(64 * 1024);
+        active.appendDelta("d1".getBytes());
+        active.appendDelta("d2".getBytes());
+
+        final byte[] state = new byte[200 * 1024];
+        new Random(7).nextBytes(state);
+        active.writeSnapshot(new ByteArrayInputStream(state));
+        active.appendDelta("d3".getBytes());
+        active.appendDelta("d4".getBytes());
+
+        final byte[] restored = new byte[state.length];
+        final List<String> replayed = new ArrayList<>();
+        final ExecutorService pool = Executors.newFixedThreadPool(4);
+        fred.stop();
+        final Checkpointer successor = activeMember(new LoopbackConnection(broker)).createCheckpointer("AKNA/ckpt");
+        final long recovered = successor.recover(new CheckpointHandler() {
+            @Override
+            public void onSnapshotChunk(long snapshotId, int chunkIndex, ByteBuffer chunk) {
+                final ByteBuffer target = ByteBuffer.wrap(restored);
+                target.position(chunkIndex * 64 * 1024);
+                target.put(chunk);
+            }
+            @Override
+            public void onDelta(long sequence, ByteBuffer delta) {
+                final byte[] bytes = new byte[delta.remaining()];
+                delta.get(bytes);
+                replayed.add(sequence + ":" + new String(bytes));
+            }
+        }, pool, 2);
+        pool.shutdown();
+
+        assertArrayEquals(state, restored);
+        assertEquals("Only deltas after the snapshot are replayed", 2, replayed.size());
+        assertEquals("3:d3", replayed.get(0));
+        assertEquals("4:d4", replayed.get(1));
+        assertEquals(4, recovered);
+        assertEquals(5, successor.appendDelta("d5".getBytes()));
+    }
+
+    @Test
+    public void trimOnSnapshotTest() throws Exception {
+        final LoopbackConnection connection = new LoopbackConnection(broker);
+        final Checkpointer checkpointer = activeMember(connection).createCheckpointer("AKNA/ckpt");
+        checkpointer.setChunkSize(4);
+        checkpointer.appendDelta("d1".getBytes());
+        checkpointer.writeSnapshot(new ByteArrayInputStream("0123456789".getBytes()));
+        checkpointer.appendDelta("d2".getBytes());
+        checkpointer.writeSnapshot(new ByteArrayInputStream("abcdefgh".getBytes()));
+
+        assertEquals("Only the latest snapshot's chunks remain", 2, broker.spooled("AKNA/ckpt/snapshot").size());
+        assertEquals(1, broker.spooled("AKNA/ckpt/manifest").size());
+        assertEquals("Covered deltas are trimmed", 0, broker.spooled("AKNA/ckpt/delta").size());
+    }
+
+    @Test
+    public void rejectedManifestKeepsPreviousSnapshotTest() throws Exception {
+        final Checkpointer checkpointer = activeMember(new LoopbackConnection(broker) {
+            @Override
+            public CompletableFuture<Void> publishAll(List<String> topics, List<BytesXMLMessage> msgs) {
+                if (rejecting && topics.contains("AKNA/ckpt/manifest")) {
+                    final CompletableFuture<Void> rejected = new CompletableFuture<>();
+                    rejected.completeExceptionally(new JCSMPException("Spool full"));
+                    return rejected;
+                }
+                return super.publishAll(topics, msgs);
+            }
+        }).createCheckpointer("AKNA/ckpt");
+        checkpointer.setChunkSize(4);
+        checkpointer.appendDelta("d1".getBytes());
+        checkpointer.writeSnapshot(new ByteArrayInputStream("0123456789".getBytes()));
+        checkpointer.appendDelta("d2".getBytes());
+
+        rejecting = true;
+        try {
+            checkpointer.writeSnapshot(new ByteArrayInputStream("abcdefgh".getBytes()));
+            fail("The rejected manifest fails the snapshot");
+        }
+        catch (JCSMPException e) {
+            // expected
+        }
+        assertEquals("The committed snapshot is kept", 1, broker.spooled("AKNA/ckpt/manifest").size());
+        assertEquals("Deltas after it are kept", 1, broker.spooled("AKNA/ckpt/delta").size());
+    }
+
+    @Test
+    public void unacknowledgedSnapshotTimesOutTest() throws Exception {
+        final Checkpointer checkpointer = activeMember(new LoopbackConnection(broker) {
+            @Override
+            public CompletableFuture<Void> publishAll(List<String> topics, List<BytesXMLMessage> msgs) {
+                // The broker never acknowledges, e.g. because the producer's acknowledgements go elsewhere
+                return new CompletableFuture<>();
+            }
+        }).createCheckpointer("AKNA/ckpt");
+        checkpointer.setAckTimeout(100);
+        try {
+            checkpointer.writeSnapshot(new ByteArrayInputStream("0123456789".getBytes()));
+            fail("An unacknowledged snapshot fails rather than waiting forever");
+        }
+        catch (JCSMPException e) {
+            // expected
+        }
+        assertEquals("Nothing is committed", 0, broker.spooled("AKNA/ckpt/manifest").size());
+    }
+
+    @Test
+    public void deposedMemberCannotWriteTest() throws Exception {
+        final FTMgr fred = activeMember(new LoopbackConnection(broker));
+        final Checkpointer checkpointer = fred.createCheckpointer("AKNA/ckpt");
+        checkpointer.setChunkSize(4);
+        checkpointer.appendDelta("d1".getBytes());
+        checkpointer.writeSnapshot(new ByteArrayInputStream("0123456789".getBytes()));
+        fred.stop();
+
+        try {
+            checkpointer.appendDelta("d2".getBytes());
+            fail("A deposed member's delta is refused");
+        }
+        catch (JCSMPException e) {
+            // expected
+        }
+        try {
+            checkpointer.writeSnapshot(new ByteArrayInputStream("abcdefgh".getBytes()));
+            fail("A deposed member's snapshot is refused");
+        }
+        catch (JCSMPException e) {
+            // expected
+        }
+        assertEquals(3, broker.spooled("AKNA/ckpt/snapshot").size());
+        assertEquals(1, broker.spooled("AKNA/ckpt/manifest").size());
+    }
+
+    private FTMgr activeMember(LoopbackConnection connection) throws Exception {
+        final FTMgr member = new FTMgr(connection);
+        member.start("MyAppCluster", new FTEventListener() {
+            @Override
+            public void onActive(BytesXMLMessage msg) {
+            }
+            @Override
+            public void onBackup() {
+            }
+        });
+        assertTrue(member.awaitActive(5, TimeUnit.SECONDS));
+        return member;
+    }
+
+    private volatile boolean rejecting;
+}
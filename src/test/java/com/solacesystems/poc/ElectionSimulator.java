@@ -0,0 +1,542 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Deterministic simulation of many FT-Clusters, driving real {@link FTMgr} instances and their activation pipelines
+ * against a simulated broker on a single thread and in virtual time. Every delay, fault and message loss is drawn
+ * from one seeded {@link Random}, so a seed always replays the same run, however many clusters it simulates.
+ *
+ * <p>The simulated broker keeps an exclusive queue per cluster: the head binding is Active, and when it goes the next
+ * one is told so by a flow event. Flow events travel over an in-order channel per binding with random latency; a
+ * lost event is retransmitted, delaying every later event on that channel. Listeners run on an executor adding
+ * their processing time, occasionally much longer for a slow listener.</p>
+ *
+ * <p>Faults are crashes (the broker unbinds the member once it detects the dead session), disconnects (both sides
+ * detect the failure independently, and the member rebinds once the network is back), and graceful restarts.
+ * The report measures what the applications believed: windows with no Active member, windows with more than one,
+ * and how long after the last fault every cluster again had exactly one Active member, the broker's choice.</p>
+ */
+class ElectionSimulator {
+
+    ElectionSimulator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /** Flow event latency, drawn uniformly; defaults to 1-5ms. */
+    void setEventLatency(long minMillis, long maxMillis) {
+        this.minLatencyMillis = minMillis;
+        this.maxLatencyMillis = maxMillis;
+    }
+
+    /** Probability of a flow event being lost and retransmitted after the given delay; defaults to none. */
+    void setMessageLoss(double rate, long retransmitMillis) {
+        this.lossRate = rate;
+        this.retransmitMillis = retransmitMillis;
+    }
+
+    /** Time for the broker to detect a dead session, and for a member to detect its own dropped session. */
+    void setDetection(long brokerMillis, long memberMillis) {
+        this.brokerDetectMillis = brokerMillis;
+        this.memberDetectMillis = memberMillis;
+    }
+
+    /** Listener processing time, and the probability and processing time of a slow listener call. */
+    void setListenerTime(long millis, double slowRate, long slowMillis) {
+        this.listenerMillis = millis;
+        this.slowRate = slowRate;
+        this.slowMillis = slowMillis;
+    }
+
+    /**
+     * Adds clusters, each joined by the given number of members in a random order within the first 100ms.
+     */
+    void addClusters(int clusters, int membersPerCluster) {
+        for (int c = 0; c < clusters; c++) {
+            final ClusterState cluster = new ClusterState("sim/" + c);
+            this.clusters.add(cluster);
+            for (int m = 0; m < membersPerCluster; m++) {
+                final Member member = new Member(cluster, m);
+                members.add(member);
+                schedule(random.nextInt(100), member::start);
+            }
+        }
+    }
+
+    /**
+     * Schedules faults on random members at random times within the window, each a crash followed by a restart,
+     * a disconnect, or a graceful restart, with equal probability.
+     */
+    void storm(long fromMillis, long toMillis, int faults, long downMillis) {
+        for (int i = 0; i < faults; i++) {
+            final Member member = members.get(random.nextInt(members.size()));
+            final long at = fromMillis + (long) (random.nextDouble() * (toMillis - fromMillis));
+            final int kind = random.nextInt(3);
+            schedule(at - now, () -> {
+                if (kind == 0)
+                    crash(member, downMillis);
+                else if (kind == 1)
+                    disconnect(member, downMillis);
+                else
+                    restart(member, downMillis);
+            });
+        }
+    }
+
+    /**
+     * Schedules a graceful restart of every member, one after another: the first member of every cluster, then the
+     * second, and so on, as a deployment rolling over one host at a time would.
+     */
+    void rollingRestart(long fromMillis, long intervalMillis, long downMillis) {
+        final List<Member> ordered = new ArrayList<>(members);
+        ordered.sort((a, b) -> Integer.compare(a.index, b.index));
+        long at = fromMillis;
+        for (final Member member : ordered) {
+            schedule(at - now, () -> restart(member, downMillis));
+            at += intervalMillis;
+        }
+    }
+
+    /**
+     * Runs the simulation up to the given virtual time.
+     */
+    Report run(long untilMillis) {
+        while (!events.isEmpty() && events.peek().at <= untilMillis) {
+            final Scheduled event = events.poll();
+            now = event.at;
+            event.task.run();
+            processed++;
+        }
+        now = untilMillis;
+        for (ClusterState cluster : clusters)
+            cluster.observe();
+        int converged = 0;
+        for (ClusterState cluster : clusters) {
+            if (cluster.isConverged())
+                converged++;
+        }
+        return new Report(clusters.size(), converged, Math.max(0, lastTransition - lastFault), leaderlessMillis,
+                maxLeaderlessMillis, doubleActiveViolations, doubleActiveMillis, processed);
+    }
+
+    /**
+     * Stops every member still up, releasing the resources of their managers.
+     */
+    void stop() {
+        for (Member member : members) {
+            if (member.up)
+                member.listenerExecutor.stop(member.ftMgr);
+            member.up = false;
+        }
+        events.clear();
+    }
+
+    private void crash(Member member, long downMillis) {
+        if (!member.up)
+            return;
+        fault();
+        member.up = false;
+        member.believe(false);
+        final FTMgr crashed = member.ftMgr;
+        final ListenerExecutor crashedExecutor = member.listenerExecutor;
+        final int incarnation = member.incarnation;
+        schedule(brokerDetectMillis, () -> {
+            member.cluster.unbindAll(member, incarnation);
+            // Free the dead process's resources without touching the broker again
+            crashedExecutor.stop(crashed);
+        });
+        schedule(downMillis, member::start);
+    }
+
+    private void disconnect(final Member member, long downMillis) {
+        if (!member.up || !member.connected)
+            return;
+        fault();
+        member.connected = false;
+        final int incarnation = member.incarnation;
+        schedule(brokerDetectMillis, () -> member.cluster.unbindAll(member, incarnation));
+        schedule(memberDetectMillis, () -> {
+            if (member.isIncarnation(incarnation) && member.bound != null)
+                member.bound.onBindingLost();
+        });
+        schedule(Math.max(downMillis, Math.max(brokerDetectMillis, memberDetectMillis)), () -> {
+            if (!member.isIncarnation(incarnation))
+                return;
+            member.connected = true;
+            if (member.bound != null) {
+                member.cluster.bind(member, member.bound);
+                member.bound.onBindingRestored();
+            }
+        });
+    }
+
+    private void restart(Member member, long downMillis) {
+        if (!member.up)
+            return;
+        fault();
+        member.listenerExecutor.stop(member.ftMgr);
+        member.up = false;
+        schedule(downMillis, member::start);
+    }
+
+    private void fault() {
+        lastFault = now;
+    }
+
+    private void schedule(long delayMillis, Runnable task) {
+        events.add(new Scheduled(now + Math.max(0, delayMillis), sequence++, task));
+    }
+
+    private long latency() {
+        long latency = minLatencyMillis + (long) (random.nextDouble() * (maxLatencyMillis - minLatencyMillis));
+        while (lossRate > 0 && random.nextDouble() < lossRate)
+            latency += retransmitMillis;
+        return latency;
+    }
+
+    /**
+     * Outcome of a simulation run.
+     */
+    static final class Report {
+        Report(int clusters, int converged, long convergenceMillis, long leaderlessMillis, long maxLeaderlessMillis,
+               int doubleActiveViolations, long doubleActiveMillis, long events) {
+            this.clusters = clusters;
+            this.converged = converged;
+            this.convergenceMillis = convergenceMillis;
+            this.leaderlessMillis = leaderlessMillis;
+            this.maxLeaderlessMillis = maxLeaderlessMillis;
+            this.doubleActiveViolations = doubleActiveViolations;
+            this.doubleActiveMillis = doubleActiveMillis;
+            this.events = events;
+        }
+
+        @Override
+        public String toString() {
+            return "clusters=" + clusters + " converged=" + converged + " convergence=" + convergenceMillis + "ms"
+                    + " leaderless=" + leaderlessMillis + "ms (max " + maxLeaderlessMillis + "ms)"
+                    + " doubleActive=" + doubleActiveViolations + " (" + doubleActiveMillis + "ms)"
+                    + " events=" + events;
+        }
+
+        final int clusters;
+        final int converged;
+        /** Time from the last fault until the last change of any cluster's Active member. */
+        final long convergenceMillis;
+        /** Total time clusters that had been led spent with no member believing it is Active. */
+        final long leaderlessMillis;
+        final long maxLeaderlessMillis;
+        /** Number of times a second member of a cluster believed it was Active. */
+        final int doubleActiveViolations;
+        final long doubleActiveMillis;
+        final long events;
+    }
+
+    /**
+     * One application instance: an FTMgr per incarnation, joined to its cluster through a simulated connection.
+     */
+    private class Member {
+        Member(ClusterState cluster, int index) {
+            this.cluster = cluster;
+            this.index = index;
+        }
+
+        void start() {
+            up = true;
+            connected = true;
+            final int started = ++incarnation;
+            bound = null;
+            ftMgr = new FTMgr(new SimConnection(this, started));
+            listenerExecutor = new ListenerExecutor();
+            ftMgr.setListenerExecutor(listenerExecutor);
+            try {
+                // Callbacks of a crashed incarnation no longer reach the application
+                ftMgr.start(cluster.name, new FTEventListener() {
+                    @Override
+                    public void onActive(BytesXMLMessage msg) {
+                        if (isIncarnation(started))
+                            believe(true);
+                    }
+                    @Override
+                    public void onBackup() {
+                        if (isIncarnation(started))
+                            believe(false);
+                    }
+                });
+            }
+            catch (JCSMPException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void believe(boolean active) {
+            if (active != believesActive) {
+                believesActive = active;
+                cluster.believers += active ? 1 : -1;
+                cluster.observe();
+            }
+        }
+
+        boolean isIncarnation(int incarnation) {
+            return up && this.incarnation == incarnation;
+        }
+
+        final private ClusterState cluster;
+        final private int index;
+        private FTMgr ftMgr;
+        private ListenerExecutor listenerExecutor;
+        private BindingListener bound;
+        private int incarnation;
+        private boolean up;
+        private boolean connected;
+        private boolean believesActive;
+    }
+
+    /**
+     * The broker's exclusive queue of one cluster, and what its members believe.
+     */
+    private class ClusterState {
+        ClusterState(String name) {
+            this.name = name;
+        }
+
+        void bind(Member member, BindingListener listener) {
+            final Binding binding = new Binding(member, member.incarnation, listener);
+            queue.add(binding);
+            if (queue.size() == 1)
+                binding.sendActive();
+            observe();
+        }
+
+        void unbindAll(Member member, int incarnation) {
+            final boolean wasHead = !queue.isEmpty() && queue.get(0).isOf(member, incarnation);
+            for (Binding binding : queue) {
+                if (binding.isOf(member, incarnation))
+                    binding.open = false;
+            }
+            queue.removeIf(binding -> binding.isOf(member, incarnation));
+            if (wasHead && !queue.isEmpty())
+                queue.get(0).sendActive();
+            observe();
+        }
+
+        boolean isConverged() {
+            if (believers != 1 || queue.isEmpty())
+                return false;
+            final Member head = queue.get(0).member;
+            return head.up && head.believesActive;
+        }
+
+        /**
+         * Accounts for the time spent in the previous state, on every change of believers or broker queue.
+         */
+        void observe() {
+            final long elapsed = now - since;
+            if (led && leaderlessFrom < 0 && believers == 0)
+                leaderlessFrom = now;
+            else if (leaderlessFrom >= 0 && believers > 0) {
+                final long window = now - leaderlessFrom;
+                leaderlessMillis += window;
+                maxLeaderlessMillis = Math.max(maxLeaderlessMillis, window);
+                leaderlessFrom = -1;
+            }
+            if (lastBelievers > 1)
+                doubleActiveMillis += elapsed;
+            if (believers > 1 && lastBelievers <= 1)
+                doubleActiveViolations++;
+            if (believers > 0)
+                led = true;
+            final Member head = queue.isEmpty() ? null : queue.get(0).member;
+            if (believers != lastBelievers || head != lastHead)
+                lastTransition = now;
+            lastBelievers = believers;
+            lastHead = head;
+            since = now;
+        }
+
+        final private String name;
+        final private List<Binding> queue = new ArrayList<>();
+        private int believers;
+        private int lastBelievers;
+        private Member lastHead;
+        private boolean led;
+        private long leaderlessFrom = -1;
+        private long since;
+    }
+
+    /**
+     * A member's flow on a cluster queue, delivering flow events in order over a lossy channel.
+     */
+    private class Binding {
+        Binding(Member member, int incarnation, BindingListener listener) {
+            this.member = member;
+            this.incarnation = incarnation;
+            this.listener = listener;
+        }
+
+        boolean isOf(Member member, int incarnation) {
+            return this.member == member && this.incarnation == incarnation;
+        }
+
+        void sendActive() {
+            final long at = Math.max(lastDelivery, now + latency());
+            lastDelivery = at;
+            schedule(at - now, () -> {
+                // Nothing reaches a member while its network is down
+                if (open && member.connected)
+                    listener.onActive(null);
+            });
+        }
+
+        final private Member member;
+        final private int incarnation;
+        final private BindingListener listener;
+        private boolean open = true;
+        private long lastDelivery;
+    }
+
+    /**
+     * The backend one incarnation of a member joins its cluster through.
+     */
+    private class SimConnection implements FTBackend {
+        SimConnection(Member member, int incarnation) {
+            this.member = member;
+            this.incarnation = incarnation;
+        }
+
+        @Override
+        public void bindExclusive(String clusterName, FTEventListener listener) throws JCSMPException {
+            if (!member.connected)
+                throw new JCSMPException("Simulated network is down");
+            member.bound = (BindingListener) listener;
+            member.cluster.bind(member, member.bound);
+        }
+
+        @Override
+        public void bindExclusive(String clusterName, String outputSubscription, FTEventListener listener) throws JCSMPException {
+            bindExclusive(clusterName, listener);
+        }
+
+        @Override
+        public CompletableFuture<BytesXMLMessage> fetchLastValue(String clusterName, long timeoutMillis) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void subscribe(String subscription, FTMessageListener listener) {
+        }
+
+        @Override
+        public void unsubscribe(String subscription, FTMessageListener listener) {
+        }
+
+        @Override
+        public void provisionQueue(String queueName, String subscription) {
+        }
+
+        @Override
+        public void publish(String topic, BytesXMLMessage msg) {
+        }
+
+        @Override
+        public FTBrowser browse(String queueName) throws JCSMPException {
+            throw new JCSMPException("Not simulated");
+        }
+
+        @Override
+        public void unbind(String clusterName) {
+            // A crashed incarnation is unbound by the broker once it detects the dead session
+            if (member.isIncarnation(incarnation)) {
+                member.bound = null;
+                member.cluster.unbindAll(member, incarnation);
+            }
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        final private Member member;
+        final private int incarnation;
+    }
+
+    /**
+     * Listener executor of one incarnation, running every task after the listener's processing time. Stopping a
+     * manager waits for its listener, which the simulation's single thread cannot do in virtual time, so the tasks
+     * still pending for a manager being stopped run straight away instead, in order.
+     */
+    private class ListenerExecutor implements Executor {
+        @Override
+        public void execute(final Runnable task) {
+            if (stopping) {
+                task.run();
+                return;
+            }
+            pending.add(task);
+            schedule(random.nextDouble() < slowRate ? slowMillis : listenerMillis, () -> {
+                if (pending.remove(task))
+                    task.run();
+            });
+        }
+
+        void stop(FTMgr ftMgr) {
+            stopping = true;
+            final List<Runnable> due = new ArrayList<>(pending);
+            pending.clear();
+            for (Runnable task : due)
+                task.run();
+            ftMgr.stop();
+        }
+
+        final private List<Runnable> pending = new ArrayList<>();
+        private boolean stopping;
+    }
+
+    private static final class Scheduled implements Comparable<Scheduled> {
+        Scheduled(long at, long sequence, Runnable task) {
+            this.at = at;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Scheduled other) {
+            final int byTime = Long.compare(at, other.at);
+            return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+        }
+
+        final long at;
+        final long sequence;
+        final Runnable task;
+    }
+
+    final private Random random;
+    final private PriorityQueue<Scheduled> events = new PriorityQueue<>();
+    final private List<ClusterState> clusters = new ArrayList<>();
+    final private List<Member> members = new ArrayList<>();
+    private long now;
+    private long sequence;
+    private long processed;
+    private long minLatencyMillis = 1;
+    private long maxLatencyMillis = 5;
+    private double lossRate;
+    private long retransmitMillis = 50;
+    private long brokerDetectMillis = 300;
+    private long memberDetectMillis = 100;
+    private long listenerMillis = 1;
+    private double slowRate;
+    private long slowMillis = 500;
+    private long lastFault;
+    private long lastTransition;
+    private long leaderlessMillis;
+    private long maxLeaderlessMillis;
+    private int doubleActiveViolations;
+    private long doubleActiveMillis;
+}
@@ -0,0 +1,79 @@
+package com.solacesystems.poc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ElectionSimulatorTest {
+
+    @Test
+    public void failoverStormTest() {
+        final ElectionSimulator sim = new ElectionSimulator(42);
+        sim.addClusters(1000, 2);
+        sim.setMessageLoss(0.01, 50);
+        sim.storm(1000, 20000, 2000, 1000);
+        final ElectionSimulator.Report report = sim.run(60000);
+        sim.stop();
+
+        assertEquals("Every cluster converges: " + report, report.clusters, report.converged);
+        assertEquals("Members detecting their own failures first never overlap: " + report, 0, report.doubleActiveViolations);
+        assertTrue("Convergence is bounded: " + report, report.convergenceMillis < 5000);
+    }
+
+    @Test
+    public void slowListenerDoubleActiveTest() {
+        final ElectionSimulator sim = new ElectionSimulator(42);
+        sim.addClusters(1000, 2);
+        sim.setListenerTime(1, 0.05, 500);
+        sim.storm(1000, 20000, 2000, 1000);
+        final ElectionSimulator.Report report = sim.run(60000);
+        sim.stop();
+
+        assertEquals(report.clusters, report.converged);
+        assertTrue("A listener slower than the broker's failure detection overlaps its successor: " + report,
+                report.doubleActiveViolations > 0);
+    }
+
+    @Test
+    public void slowDetectionDoubleActiveTest() {
+        final ElectionSimulator sim = new ElectionSimulator(7);
+        sim.addClusters(200, 2);
+        sim.setDetection(100, 1000);
+        sim.storm(1000, 10000, 200, 2000);
+        final ElectionSimulator.Report report = sim.run(30000);
+        sim.stop();
+
+        assertEquals(report.clusters, report.converged);
+        assertTrue("A member slower than the broker to detect a disconnect overlaps its successor: " + report,
+                report.doubleActiveViolations > 0);
+    }
+
+    @Test
+    public void rollingRestartTest() {
+        final ElectionSimulator sim = new ElectionSimulator(3);
+        sim.addClusters(500, 3);
+        sim.rollingRestart(1000, 5, 200);
+        final ElectionSimulator.Report report = sim.run(20000);
+        sim.stop();
+
+        assertEquals(report.clusters, report.converged);
+        assertEquals(0, report.doubleActiveViolations);
+        assertTrue("Graceful restarts hand over within a few flow event latencies: " + report, report.maxLeaderlessMillis < 50);
+    }
+
+    @Test
+    public void deterministicReplayTest() {
+        final String[] reports = new String[2];
+        for (int run = 0; run < reports.length; run++) {
+            final ElectionSimulator sim = new ElectionSimulator(11);
+            sim.addClusters(100, 3);
+            sim.setMessageLoss(0.05, 20);
+            sim.setListenerTime(2, 0.05, 300);
+            sim.storm(500, 5000, 300, 500);
+            reports[run] = sim.run(15000).toString();
+            sim.stop();
+        }
+        assertEquals(reports[0], reports[1]);
+    }
+}
@@ -0,0 +1,65 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FTMetricsTest {
+
+    final private LoopbackBroker broker = new LoopbackBroker();
+
+    @Test
+    public void failoverMetricsTest() throws Exception {
+        final FTEventListener listener = new FTEventListener() {
+            @Override
+            public void onActive(BytesXMLMessage msg) {
+            }
+            @Override
+            public void onBackup() {
+            }
+        };
+        final AtomicIntegerArray recorded = new AtomicIntegerArray(FTMetric.values().length);
+        FTMgr fred = new FTMgr(new LoopbackConnection(broker));
+        fred.startStateful("MetricsCluster", "AKNA/>", listener);
+        FTMgr barney = new FTMgr(new LoopbackConnection(broker));
+        barney.setMetricsSink((cluster, metric, value) -> recorded.incrementAndGet(metric.ordinal()));
+        barney.startStateful("MetricsCluster", "AKNA/>", listener);
+        broker.publish("AKNA/3/IGALUK/OTD", "fred-1".getBytes());
+
+        final ObjectName fredName = fred.getMetrics().getObjectName();
+        final ObjectName barneyName = barney.getMetrics().getObjectName();
+        assertNotNull(fredName);
+        assertNotEquals("Members in one JVM get distinct names", fredName, barneyName);
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(1L, server.getAttribute(fredName, "ActivationCount"));
+        assertEquals(true, server.getAttribute(fredName, "Active"));
+
+        fred.stop();
+        assertFalse(server.isRegistered(fredName));
+        assertTrue(barney.isActive());
+
+        final FTMetrics metrics = barney.getMetrics();
+        assertEquals(1, metrics.getActivationCount());
+        assertEquals(1, metrics.getStateFetchCount());
+        assertEquals(0, metrics.getStateFetchFailureCount());
+        assertEquals(1, metrics.getDispatchLatency().getTotalCount());
+        assertEquals(1, metrics.getListenerTime().getTotalCount());
+        assertEquals(1, recorded.get(FTMetric.ROLE_ACTIVE.ordinal()));
+        assertEquals(1, recorded.get(FTMetric.STATE_FETCH.ordinal()));
+        assertEquals(1, recorded.get(FTMetric.DISPATCH_LATENCY.ordinal()));
+
+        barney.stop();
+        assertEquals(1, metrics.getDeactivationCount());
+        assertFalse(server.isRegistered(barneyName));
+    }
+}
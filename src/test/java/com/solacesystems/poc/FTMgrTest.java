@@ -2,17 +2,32 @@ package com.solacesystems.poc;
 
 import com.solacesystems.jcsmp.BytesXMLMessage;
 import com.solacesystems.jcsmp.JCSMPException;
-import com.solacesystems.jcsmp.JCSMPProperties;
+import com.solacesystems.jcsmp.JCSMPFactory;
 import org.junit.Test;
 
-import java.util.Properties;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static junit.framework.TestCase.assertFalse;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class FTMgrTest {
 
-    //@Test
+    final private LoopbackBroker broker = new LoopbackBroker();
+
+    @Test
     public void sampleFTAppTest() {
         SampleApplication fred = new SampleApplication("FRED");
         fred.start();
@@ -34,10 +49,682 @@ public class FTMgrTest {
         assertFalse("Barney should be Backup", barney.isActive());
     }
 
+    @Test
+    public void statefulPromotionTest() {
+        SampleApplication fred = new SampleApplication("FRED");
+        fred.startStateful("AKNA/>");
+        SampleApplication barney = new SampleApplication("BARNEY");
+        barney.startStateful("AKNA/>");
+
+        assertTrue("Fred should be Active", fred.isActive());
+        assertNull("No output published yet", fred.lastState());
+
+        broker.publish("AKNA/3/IGALUK/OTD", "fred-1".getBytes());
+        broker.publish("OTHER/3/IGALUK/OTD", "other".getBytes());
+        broker.publish("AKNA/3/IGALUK/OTD", "fred-2".getBytes());
+
+        fred.stop();
+
+        assertTrue("Barney should be Active", barney.isActive());
+        assertEquals("fred-2", attachmentString(barney.lastState()));
+        barney.stop();
+    }
+
+    @Test
+    public void asyncStatefulActivationTest() throws Exception {
+        final CompletableFuture<BytesXMLMessage> pendingFetch = new CompletableFuture<>();
+        final ExecutorService listenerThread = Executors.newSingleThreadExecutor();
+        SampleApplication fred = new SampleApplication("FRED");
+        fred.startStateful("AKNA/>");
+        SampleApplication barney = new SampleApplication("BARNEY");
+        barney.ftMgr = new FTMgr(new LoopbackConnection(broker) {
+            @Override
+            public CompletableFuture<BytesXMLMessage> fetchLastValue(String clusterName, long timeoutMillis) {
+                return pendingFetch;
+            }
+        });
+        barney.ftMgr.setListenerExecutor(listenerThread);
+        barney.ftMgr.startStateful("MyAppCluster", "AKNA/>", barney);
+        final CompletableFuture<BytesXMLMessage> activation = barney.ftMgr.whenActive();
+
+        fred.stop();
+        assertFalse("Barney is not Active until its state arrives", activation.isDone());
+
+        final BytesXMLMessage state = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        pendingFetch.complete(state);
+        assertEquals(state, activation.get(1, TimeUnit.SECONDS));
+        assertTrue("Barney should be Active", barney.isActive());
+
+        barney.stop();
+        listenerThread.shutdown();
+    }
+
+    @Test
+    public void hotStandbyTest() throws Exception {
+        final AtomicInteger fetches = new AtomicInteger();
+        SampleApplication fred = new SampleApplication("FRED");
+        fred.startStateful("AKNA/>");
+        SampleApplication barney = new SampleApplication("BARNEY");
+        barney.ftMgr = new FTMgr(new LoopbackConnection(broker) {
+            @Override
+            public CompletableFuture<BytesXMLMessage> fetchLastValue(String clusterName, long timeoutMillis) {
+                fetches.incrementAndGet();
+                return super.fetchLastValue(clusterName, timeoutMillis);
+            }
+        });
+        barney.ftMgr.setHotStandby(true);
+        barney.ftMgr.startStateful("MyAppCluster", "AKNA/>", barney);
+
+        broker.publish("AKNA/3/IGALUK/OTD", "fred-1".getBytes());
+        broker.publish("AKNA/3/IGALUK/OTD", "fred-2".getBytes());
+        fred.stop();
+
+        assertTrue("Barney should be Active", barney.isActive());
+        assertEquals("fred-2", attachmentString(barney.lastState()));
+        assertEquals("Mirrored state needs no fetch", 0, fetches.get());
+        barney.stop();
+    }
+
+    @Test
+    public void hotStandbyFallbackTest() throws Exception {
+        SampleApplication fred = new SampleApplication("FRED");
+        fred.startStateful("AKNA/>");
+        broker.publish("AKNA/3/IGALUK/OTD", "before-barney".getBytes());
+
+        SampleApplication barney = new SampleApplication("BARNEY");
+        barney.ftMgr = new FTMgr(new LoopbackConnection(broker));
+        barney.ftMgr.setHotStandby(true);
+        barney.ftMgr.startStateful("MyAppCluster", "AKNA/>", barney);
+        fred.stop();
+
+        assertEquals("before-barney", attachmentString(barney.lastState()));
+        barney.stop();
+    }
+
+    @Test
+    public void hotStandbyBindingLostTest() throws Exception {
+        final AtomicInteger fetches = new AtomicInteger();
+        SampleApplication fred = new SampleApplication("FRED");
+        fred.startStateful("AKNA/>");
+        final LoopbackConnection barneyConnection = new LoopbackConnection(broker) {
+            @Override
+            public CompletableFuture<BytesXMLMessage> fetchLastValue(String clusterName, long timeoutMillis) {
+                fetches.incrementAndGet();
+                return super.fetchLastValue(clusterName, timeoutMillis);
+            }
+        };
+        barneyConnection.setReconnectBackoff(5, 20);
+        SampleApplication barney = new SampleApplication("BARNEY");
+        barney.ftMgr = new FTMgr(barneyConnection);
+        barney.ftMgr.setHotStandby(true);
+        barney.ftMgr.startStateful("MyAppCluster", "AKNA/>", barney);
+        broker.publish("AKNA/3/IGALUK/OTD", "fred-1".getBytes());
+
+        barneyConnection.disconnect();
+        barneyConnection.reconnect();
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (broker.boundCount("MyAppCluster") < 2 && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+        fred.stop();
+
+        assertTrue("Barney should be Active", barney.isActive());
+        assertEquals("fred-1", attachmentString(barney.lastState()));
+        assertEquals("Output may have been missed while the binding was lost, so the state is fetched", 1, fetches.get());
+        barney.stop();
+    }
+
+    @Test
+    public void keyedStateTest() throws Exception {
+        SampleApplication fred = new SampleApplication("FRED");
+        fred.startStateful("AKNA/>");
+        final KeyedState[] handedOver = new KeyedState[1];
+        FTMgr barney = new FTMgr(new LoopbackConnection(broker));
+        barney.startKeyed("MyAppCluster", "AKNA/>", new KeyedFTEventListener() {
+            @Override
+            public void onActive(KeyedState state) {
+                handedOver[0] = state;
+            }
+            @Override
+            public void onBackup() {
+            }
+        });
+
+        broker.publish("AKNA/3/IGALUK/OTD", "igaluk-1".getBytes());
+        broker.publish("AKNA/3/NUUK/OTD", "nuuk-1".getBytes());
+        broker.publish("AKNA/3/IGALUK/OTD", "igaluk-2".getBytes());
+        broker.publish("AKNA/3/QAQORTOQ/OTD", "qaqortoq-1".getBytes());
+        broker.publish("AKNA/3/QAQORTOQ/OTD", new byte[0]);
+        fred.stop();
+
+        assertEquals(2, handedOver[0].size());
+        assertEquals("igaluk-2", StandardCharsets.UTF_8.decode(handedOver[0].get("AKNA/3/IGALUK/OTD")).toString());
+        assertEquals("nuuk-1", StandardCharsets.UTF_8.decode(handedOver[0].get("AKNA/3/NUUK/OTD")).toString());
+        assertTrue(handedOver[0].isComplete());
+        barney.stop();
+    }
+
+    @Test
+    public void keyedStateLoadTest() throws Exception {
+        SampleApplication fred = new SampleApplication("FRED");
+        fred.startStateful("AKNA/>");
+        FTMgr wilma = new FTMgr(new LoopbackConnection(broker));
+        wilma.startKeyed("MyAppCluster", "AKNA/>", new KeyedFTEventListener() {
+            @Override
+            public void onActive(KeyedState state) {
+            }
+            @Override
+            public void onBackup() {
+            }
+        });
+
+        broker.publish("AKNA/3/IGALUK/OTD", "igaluk-1".getBytes());
+        broker.publish("AKNA/3/NUUK/OTD", "nuuk-1".getBytes());
+        broker.publish("AKNA/3/IGALUK/OTD", "igaluk-2".getBytes());
+        broker.publish("AKNA/3/QAQORTOQ/OTD", "qaqortoq-1".getBytes());
+        broker.publish("AKNA/3/QAQORTOQ/OTD", new byte[0]);
+
+        // Barney joins after the output was published, as a restarted Backup would
+        final KeyedState[] handedOver = new KeyedState[1];
+        FTMgr barney = new FTMgr(new LoopbackConnection(broker));
+        barney.startKeyed("MyAppCluster", "AKNA/>", new KeyedFTEventListener() {
+            @Override
+            public void onActive(KeyedState state) {
+                handedOver[0] = state;
+            }
+            @Override
+            public void onBackup() {
+            }
+        });
+        assertEquals("Loading compacts the retained output", 2, broker.spooled("MyAppCluster/keyed").size());
+        broker.publish("AKNA/3/NUUK/OTD", "nuuk-2".getBytes());
+        wilma.stop();
+        fred.stop();
+
+        assertTrue(barney.awaitActive(5, TimeUnit.SECONDS));
+        assertTrue("Output retained before Barney started is loaded", handedOver[0].isComplete());
+        assertEquals(2, handedOver[0].size());
+        assertEquals("igaluk-2", StandardCharsets.UTF_8.decode(handedOver[0].get("AKNA/3/IGALUK/OTD")).toString());
+        assertEquals("nuuk-2", StandardCharsets.UTF_8.decode(handedOver[0].get("AKNA/3/NUUK/OTD")).toString());
+        barney.stop();
+    }
+
+    @Test
+    public void epochFencingTest() throws Exception {
+        FTMgr fred = new FTMgr(new LoopbackConnection(broker));
+        fred.setPersistentEpochs(true);
+        fred.start("MyAppCluster", new SampleApplication("FRED"));
+        FTMgr barney = new FTMgr(new LoopbackConnection(broker));
+        barney.setPersistentEpochs(true);
+        barney.start("MyAppCluster", new SampleApplication("BARNEY"));
+
+        assertTrue("Fred should be Active", fred.awaitActive(5, TimeUnit.SECONDS));
+        final long fredEpoch = fred.getEpoch();
+        final BytesXMLMessage fredOutput = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        assertEquals(fredEpoch, fred.stampEpoch(fredOutput));
+        assertFalse("Barney should be Backup", barney.isActive());
+
+        fred.stop();
+        assertTrue("Barney should be Active", barney.awaitActive(5, TimeUnit.SECONDS));
+        assertFalse("Fred's epoch has ended", fred.checkEpoch(fredEpoch));
+        assertTrue("Barney's epoch should be newer", barney.getEpoch() > fredEpoch);
+        assertTrue(barney.checkEpoch(barney.getEpoch()));
+
+        final BytesXMLMessage barneyOutput = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        barney.stampEpoch(barneyOutput);
+        final EpochFence fence = new EpochFence();
+        assertTrue(fence.accept(barneyOutput));
+        assertFalse("Stale output should be fenced", fence.accept(fredOutput));
+        assertEquals(barney.getEpoch(), fence.getHighestEpoch());
+        barney.stop();
+    }
+
+    @Test
+    public void unrecordedEpochTest() throws Exception {
+        FTMgr barney = new FTMgr(new LoopbackConnection(broker));
+        barney.setPersistentEpochs(true);
+        barney.start("MyAppCluster", new SampleApplication("BARNEY"));
+        assertTrue("Barney should be Active", barney.awaitActive(5, TimeUnit.SECONDS));
+
+        final AtomicInteger recorded = new AtomicInteger();
+        FTMgr fred = new FTMgr(new LoopbackConnection(broker) {
+            @Override
+            public CompletableFuture<Void> publishAll(List<String> topics, List<BytesXMLMessage> msgs) {
+                if (recorded.getAndIncrement() == 0) {
+                    final CompletableFuture<Void> failed = new CompletableFuture<>();
+                    failed.completeExceptionally(new JCSMPException("Spool full"));
+                    return failed;
+                }
+                return super.publishAll(topics, msgs);
+            }
+        });
+        fred.setPersistentEpochs(true);
+        fred.start("MyAppCluster", new SampleApplication("FRED"));
+        final long barneyEpoch = barney.getEpoch();
+        barney.stop();
+
+        assertTrue("Fred should be Active", fred.awaitActive(5, TimeUnit.SECONDS));
+        assertEquals("Fred's first activation failed to record its epoch", 2, recorded.get());
+        assertTrue("Fred never reuses Barney's epoch", fred.getEpoch() > barneyEpoch);
+        fred.stop();
+    }
+
+    @Test
+    public void awaitActiveTimeoutTest() throws Exception {
+        SampleApplication fred = new SampleApplication("FRED");
+        fred.start();
+        FTMgr barney = new FTMgr(new LoopbackConnection(broker));
+        barney.start("MyAppCluster", new SampleApplication("BARNEY"));
+
+        assertFalse(barney.awaitActive(10, TimeUnit.MILLISECONDS));
+        final CompletableFuture<BytesXMLMessage> activation = barney.awaitActiveAsync(5, TimeUnit.SECONDS);
+        fred.stop();
+        activation.get(5, TimeUnit.SECONDS);
+        assertTrue(barney.isActive());
+        assertEquals("Local epochs count this member's own activations", 1, barney.getEpoch());
+        barney.stop();
+        assertFalse(barney.isActive());
+    }
+
+    @Test
+    public void warmUpBeforeBindTest() throws Exception {
+        final CompletableFuture<Void> warmUp = new CompletableFuture<>();
+        SampleApplication fred = new SampleApplication("FRED");
+        fred.start();
+        final boolean[] barneyActive = new boolean[1];
+        FTMgr barney = new FTMgr(new LoopbackConnection(broker));
+        barney.start("MyAppCluster", new FTLifecycleListener() {
+            @Override
+            public CompletableFuture<Void> onStandbyReady() {
+                return warmUp;
+            }
+            @Override
+            public void onActive(BytesXMLMessage msg) {
+                barneyActive[0] = true;
+            }
+            @Override
+            public void onBackup() {
+                barneyActive[0] = false;
+            }
+        });
+
+        assertEquals("Barney should not bind while warming up", 1, broker.boundCount("MyAppCluster"));
+        fred.stop();
+        assertFalse(barneyActive[0]);
+        assertFalse(barney.whenBound().isDone());
+
+        warmUp.complete(null);
+        barney.whenBound().get(5, TimeUnit.SECONDS);
+        assertTrue("Barney should be Active once warm", barneyActive[0]);
+        barney.stop();
+    }
+
+    @Test
+    public void bindPriorityTest() throws Exception {
+        SampleApplication fred = new SampleApplication("FRED");
+        fred.start();
+        SampleApplication barney = new SampleApplication("BARNEY");
+        barney.start();
+        SampleApplication wilma = new SampleApplication("WILMA");
+        wilma.ftMgr = new FTMgr(new LoopbackConnection(broker));
+        wilma.ftMgr.setBindPriority(5);
+        wilma.ftMgr.start("MyAppCluster", wilma);
+
+        assertTrue("Fred keeps Active despite a higher priority Backup", fred.isActive());
+        fred.stop();
+        assertTrue("Wilma should be first in line", wilma.isActive());
+        assertFalse(barney.isActive());
+        wilma.stop();
+        assertTrue(barney.isActive());
+        barney.stop();
+    }
+
+    @Test
+    public void sharedBackendTest() throws Exception {
+        final LoopbackConnection shared = new LoopbackConnection(broker);
+        FTMgr orders = new FTMgr(shared);
+        orders.start("Orders", new SampleApplication("ORDERS"));
+        FTMgr quotes = new FTMgr(shared);
+        quotes.start("Quotes", new SampleApplication("QUOTES"));
+
+        orders.stop();
+        assertEquals("Stopping one cluster should only unbind its own flow", 0, broker.boundCount("Orders"));
+        assertEquals(1, broker.boundCount("Quotes"));
+        assertTrue(quotes.isActive());
+        quotes.stop();
+        assertEquals(0, broker.boundCount("Quotes"));
+    }
+
+    @Test
+    public void rebindAfterDisconnectTest() throws Exception {
+        final LoopbackConnection fredConnection = new LoopbackConnection(broker);
+        fredConnection.setReconnectBackoff(5, 20);
+        SampleApplication fred = new SampleApplication("FRED");
+        fred.ftMgr = new FTMgr(fredConnection);
+        fred.ftMgr.startStateful("MyAppCluster", "AKNA/>", fred);
+        broker.publish("AKNA/3/IGALUK/OTD", "fred-1".getBytes());
+
+        fredConnection.disconnect();
+        assertFalse("Fred lost his binding", fred.isActive());
+        assertEquals("The cluster is leaderless while Fred is down", 0, broker.boundCount("MyAppCluster"));
+        Thread.sleep(50);
+        assertEquals("No rebind while disconnected", 0, broker.boundCount("MyAppCluster"));
+
+        fredConnection.reconnect();
+        fred.ftMgr.whenActive().get(5, TimeUnit.SECONDS);
+        assertTrue(fred.isActive());
+        assertEquals("State-aware activation resumes", "fred-1", attachmentString(fred.lastState()));
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (fred.ftMgr.getMetrics().getRecoveryCount() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+        assertEquals(1, fred.ftMgr.getMetrics().getRecoveryCount());
+        fred.stop();
+    }
+
+    @Test
+    public void failoverOnDisconnectTest() throws Exception {
+        final LoopbackConnection fredConnection = new LoopbackConnection(broker);
+        fredConnection.setReconnectBackoff(5, 20);
+        SampleApplication fred = new SampleApplication("FRED");
+        fred.ftMgr = new FTMgr(fredConnection);
+        fred.ftMgr.start("MyAppCluster", fred);
+        SampleApplication barney = new SampleApplication("BARNEY");
+        barney.start();
+
+        fredConnection.disconnect();
+        assertFalse(fred.isActive());
+        assertTrue("Barney takes over while Fred is down", barney.isActive());
+
+        fredConnection.reconnect();
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (broker.boundCount("MyAppCluster") < 2 && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+        assertEquals("Fred rebinds as Backup", 2, broker.boundCount("MyAppCluster"));
+        assertFalse(fred.isActive());
+        barney.stop();
+        assertTrue(fred.isActive());
+        fred.stop();
+    }
+
+    @Test
+    public void coalesceFlapTest() throws Exception {
+        final AtomicReference<FTEventListener> flows = new AtomicReference<>();
+        final FTMgr ftMgr = new FTMgr(new LoopbackConnection(broker) {
+            @Override
+            public void bindExclusive(String clusterName, String outputSubscription, int priority, FTEventListener listener) {
+                flows.set(listener);
+            }
+        });
+        ftMgr.setCoalesceWindow(50);
+        final AtomicInteger actives = new AtomicInteger();
+        final AtomicInteger backups = new AtomicInteger();
+        ftMgr.start("MyAppCluster", new FTEventListener() {
+            @Override
+            public void onActive(BytesXMLMessage msg) {
+                actives.incrementAndGet();
+            }
+            @Override
+            public void onBackup() {
+                backups.incrementAndGet();
+            }
+        });
+        backups.set(0);
+
+        flows.get().onActive(null);
+        flows.get().onBackup();
+        flows.get().onActive(null);
+        assertTrue(ftMgr.awaitActive(5, TimeUnit.SECONDS));
+        assertEquals("One activation for the whole burst", 1, actives.get());
+        assertEquals(0, backups.get());
+
+        flows.get().onBackup();
+        flows.get().onActive(null);
+        Thread.sleep(200);
+        assertEquals("A flap ending Active is not delivered", 1, actives.get());
+        assertEquals(0, backups.get());
+        assertTrue(ftMgr.isActive());
+        assertEquals("The flap still starts a new epoch", 3, ftMgr.getEpoch());
+        ftMgr.stop();
+    }
+
+    @Test
+    public void slowListenerTest() throws Exception {
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger fredActivations = new AtomicInteger();
+        final FTMgr fred = new FTMgr(new LoopbackConnection(broker));
+        fred.setListenerExecutor(executor);
+        fred.start("SlowCluster", new FTEventListener() {
+            @Override
+            public void onActive(BytesXMLMessage msg) {
+                fredActivations.incrementAndGet();
+                try { release.await(); } catch (InterruptedException e) {}
+            }
+            @Override
+            public void onBackup() {
+            }
+        });
+        assertTrue(fred.whenBound().isDone());
+
+        SampleApplication barney = new SampleApplication("BARNEY");
+        barney.ftMgr = new FTMgr(new LoopbackConnection(broker));
+        barney.ftMgr.setListenerExecutor(executor);
+        barney.ftMgr.start("MyAppCluster", barney);
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!barney.isActive() && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+        assertTrue("Another cluster is not held up by a slow listener", barney.isActive());
+        assertEquals(1, fredActivations.get());
+
+        release.countDown();
+        assertTrue(fred.awaitActive(5, TimeUnit.SECONDS));
+        fred.stop();
+        barney.stop();
+        executor.shutdown();
+    }
+
+    @Test
+    public void stopWaitsForListenerTest() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final List<String> calls = new CopyOnWriteArrayList<>();
+        final AtomicReference<Thread> backupThread = new AtomicReference<>();
+        final FTMgr fred = new FTMgr(new LoopbackConnection(broker));
+        fred.setListenerExecutor(executor);
+        fred.start("MyAppCluster", new FTEventListener() {
+            @Override
+            public void onActive(BytesXMLMessage msg) {
+                entered.countDown();
+                try { Thread.sleep(200); } catch (InterruptedException e) {}
+                calls.add("active");
+            }
+            @Override
+            public void onBackup() {
+                calls.add("backup");
+                backupThread.set(Thread.currentThread());
+            }
+        });
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        calls.clear();
+        fred.stop();
+        assertFalse("Output is fenced once stopped", fred.isActive());
+        assertEquals("Backup follows the activation in progress, before stop returns", 2, calls.size());
+        assertEquals("active", calls.get(0));
+        assertEquals("backup", calls.get(1));
+        assertTrue("Backup runs on the listener's executor", backupThread.get() != Thread.currentThread());
+        executor.shutdown();
+    }
+
+    @Test
+    public void outputPublisherTest() throws Exception {
+        SampleApplication fred = new SampleApplication("FRED");
+        fred.startStateful("AKNA/>");
+        SampleApplication barney = new SampleApplication("BARNEY");
+        barney.startStateful("AKNA/>");
+
+        final OutputPublisher publisher = fred.ftMgr.createPublisher();
+        publisher.setBatchSize(4);
+        publisher.setLinger(1000);
+        CompletableFuture<Void> acked = null;
+        for (int i = 1; i <= 8; i++)
+            acked = publisher.publish("AKNA/3/OTD", message("fred-" + i));
+        acked.get(5, TimeUnit.SECONDS);
+        assertEquals(0, publisher.getUnacknowledged());
+
+        final CompletableFuture<Void> unsent = publisher.publish("AKNA/3/OTD", message("fred-9"));
+        fred.stop();
+        publisher.flush();
+        assertTrue("Output still pending when leadership is lost is refused", unsent.isCompletedExceptionally());
+        assertTrue(publisher.publish("AKNA/3/OTD", message("fred-10")).isCompletedExceptionally());
+
+        try { Thread.sleep(100); } catch(InterruptedException e) {}
+        assertTrue(barney.isActive());
+        assertEquals("fred-8", attachmentString(barney.lastState()));
+        barney.stop();
+    }
+
+    @Test
+    public void unacknowledgedOutputTimesOutTest() throws Exception {
+        final FTMgr fred = new FTMgr(new LoopbackConnection(broker) {
+            @Override
+            public CompletableFuture<Void> publishAll(List<String> topics, List<BytesXMLMessage> msgs) {
+                // The broker never acknowledges, e.g. because the producer's acknowledgements go elsewhere
+                return new CompletableFuture<>();
+            }
+        });
+        fred.startStateful("MyAppCluster", "AKNA/>", new SampleApplication("FRED"));
+        assertTrue(fred.isActive());
+
+        final OutputPublisher publisher = fred.createPublisher();
+        publisher.setAckTimeout(100);
+        final CompletableFuture<Void> acked = publisher.publish("AKNA/3/OTD", message("fred-1"));
+        publisher.flush();
+        try {
+            acked.get(5, TimeUnit.SECONDS);
+            fail("Unacknowledged output fails rather than waiting forever");
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof JCSMPException);
+        }
+        assertEquals("The window opens again", 0, publisher.getUnacknowledged());
+        fred.stop();
+    }
+
+    @Test
+    public void gracefulHandoffTest() throws Exception {
+        final FTMgr fred = new FTMgr(new LoopbackConnection(broker));
+        fred.setGracefulHandoff(true);
+        final SampleApplication fredApp = new SampleApplication("FRED");
+        fred.startStateful("MyAppCluster", "AKNA/>", fredApp);
+        assertTrue(fred.isActive());
+
+        final OutputPublisher publisher = fred.createPublisher();
+        publisher.setLinger(1000);
+        for (int i = 1; i <= 5; i++)
+            publisher.publish("AKNA/3/OTD", message("fred-" + i));
+        assertFalse("Nobody to hand over to", fred.handoff(100, TimeUnit.MILLISECONDS));
+        assertTrue("Still Active after an abandoned handoff", fred.isActive());
+        assertFalse(publisher.publish("AKNA/3/OTD", message("fred-6")).isCompletedExceptionally());
+
+        final FTMgr barney = new FTMgr(new LoopbackConnection(broker));
+        barney.setGracefulHandoff(true);
+        final SampleApplication barneyApp = new SampleApplication("BARNEY");
+        barney.startStateful("MyAppCluster", "AKNA/>", barneyApp);
+        for (int i = 7; i <= 9; i++)
+            publisher.publish("AKNA/3/OTD", message("fred-" + i));
+
+        assertTrue(fred.handoff(5, TimeUnit.SECONDS));
+        assertFalse(fred.isActive());
+        assertEquals("Every output was sent before releasing the cluster", 0, publisher.getUnacknowledged());
+        assertTrue("Output after the handoff started is refused", publisher.publish("AKNA/3/OTD", message("fred-10")).isCompletedExceptionally());
+
+        assertTrue(barney.awaitActive(5, TimeUnit.SECONDS));
+        assertEquals("fred-9", attachmentString(barneyApp.lastState()));
+        assertEquals("Final state handed over without fetching it", 0, barney.getMetrics().getStateFetchCount());
+        barney.stop();
+    }
+
+    @Test
+    public void handoffStateScopedTest() throws Exception {
+        final FTMgr fred = new FTMgr(new LoopbackConnection(broker));
+        fred.setGracefulHandoff(true);
+        fred.startStateful("MyAppCluster", "AKNA/>", new SampleApplication("FRED"));
+        final FTMgr barney = new FTMgr(new LoopbackConnection(broker));
+        barney.setGracefulHandoff(true);
+        final SampleApplication barneyApp = new SampleApplication("BARNEY");
+        barney.startStateful("MyAppCluster", "AKNA/>", barneyApp);
+        final FTMgr wilma = new FTMgr(new LoopbackConnection(broker));
+        wilma.setGracefulHandoff(true);
+        final SampleApplication wilmaApp = new SampleApplication("WILMA");
+        wilma.startStateful("MyAppCluster", "AKNA/>", wilmaApp);
+
+        final BytesXMLMessage fredOutput = message("fred-1");
+        fredOutput.setCorrelationKey("acknowledged");
+        fred.createPublisher().publish("AKNA/3/OTD", fredOutput).get(5, TimeUnit.SECONDS);
+        assertTrue(fred.handoff(5, TimeUnit.SECONDS));
+        assertTrue(barney.awaitActive(5, TimeUnit.SECONDS));
+        assertEquals("fred-1", attachmentString(barneyApp.lastState()));
+        assertNull("A fresh copy is handed over", barneyApp.lastState().getCorrelationKey());
+
+        barney.createPublisher().publish("AKNA/3/OTD", message("barney-1")).get(5, TimeUnit.SECONDS);
+        barney.stop();
+        assertTrue(wilma.awaitActive(5, TimeUnit.SECONDS));
+        assertEquals("State handed over to Barney is spent", "barney-1", attachmentString(wilmaApp.lastState()));
+        assertEquals(1, wilma.getMetrics().getStateFetchCount());
+        wilma.stop();
+    }
+
+    @Test
+    public void heartbeatWatchdogTest() throws Exception {
+        final FTMgr fred = new FTMgr(new LoopbackConnection(broker));
+        fred.setHeartbeat(20, 200);
+        fred.start("MyAppCluster", new SampleApplication("FRED"));
+        final FTMgr barney = new FTMgr(new LoopbackConnection(broker));
+        barney.setHeartbeat(20, 200);
+        barney.start("MyAppCluster", new SampleApplication("BARNEY"));
+        assertTrue(fred.isActive());
+
+        // Fred keeps reporting progress, and Barney keeps hearing its heartbeats
+        for (int i = 0; i < 20; i++) {
+            fred.reportAlive();
+            Thread.sleep(20);
+        }
+        assertTrue(fred.isActive());
+        assertEquals(0, fred.getHeartbeatSilence());
+        assertTrue("Backup hears the Active heartbeat: " + barney.getHeartbeatSilence(), barney.getHeartbeatSilence() < 200);
+
+        // Then Fred hangs while still bound
+        assertTrue("Hung Active relinquishes to a healthy Backup", barney.awaitActive(5, TimeUnit.SECONDS));
+        assertFalse(fred.isActive());
+        // Fred binds again on its heartbeat thread, which may still be running
+        for (int i = 0; i < 500 && broker.boundCount("MyAppCluster") < 2; i++)
+            Thread.sleep(10);
+        assertEquals("Hung member binds again as Backup", 2, broker.boundCount("MyAppCluster"));
+
+        // Barney never reports progress, so only a stalled JVM makes it relinquish
+        Thread.sleep(400);
+        assertTrue(barney.isActive());
+        assertTrue(fred.getHeartbeatSilence() < 200);
+        fred.stop();
+        barney.stop();
+    }
+
+    static BytesXMLMessage message(String text) {
+        final BytesXMLMessage msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        msg.writeAttachment(text.getBytes(StandardCharsets.UTF_8));
+        return msg;
+    }
+
+    static String attachmentString(BytesXMLMessage msg) {
+        final byte[] bytes = new byte[msg.getAttachmentContentLength()];
+        msg.readAttachmentBytes(bytes);
+        return new String(bytes);
+    }
+
     class SampleApplication implements  FTEventListener {
         final private String clusterName = "MyAppCluster";
         final private String instance;
-        private boolean isActive;
+        private volatile boolean isActive;
+        private volatile BytesXMLMessage lastState;
         private FTMgr ftMgr;
 
         public SampleApplication(String instance) {
@@ -48,6 +735,7 @@ public class FTMgrTest {
         public void onActive(BytesXMLMessage msg) {
             System.out.println(instance + " BECOMING MASTER");
             isActive = true;
+            lastState = msg;
         }
         @Override
         public void onBackup() {
@@ -57,9 +745,11 @@ public class FTMgrTest {
 
         public boolean isActive() { return isActive; }
 
+        public BytesXMLMessage lastState() { return lastState; }
+
         public void start() {
             try {
-                this.ftMgr = new FTMgr(getSampleProps());
+                this.ftMgr = new FTMgr(new LoopbackConnection(broker));
                 this.ftMgr.start(clusterName, this);
             }
             catch(JCSMPException e) {
@@ -67,16 +757,18 @@ public class FTMgrTest {
             }
         }
 
-        public void stop() {
-            this.ftMgr.stop();
+        public void startStateful(String outputSubscription) {
+            try {
+                this.ftMgr = new FTMgr(new LoopbackConnection(broker));
+                this.ftMgr.startStateful(clusterName, outputSubscription, this);
+            }
+            catch(JCSMPException e) {
+                e.printStackTrace();
+            }
         }
 
-        private Properties getSampleProps() {
-            Properties properties = new Properties();
-            properties.setProperty(JCSMPProperties.HOST, "192.168.56.103,192.168.56.104");
-            properties.setProperty(JCSMPProperties.USERNAME, "default");
-            properties.setProperty(JCSMPProperties.VPN_NAME, "default");
-            return properties;
+        public void stop() {
+            this.ftMgr.stop();
         }
     }
 }
@@ -0,0 +1,84 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class FlightEventsTest {
+
+    final private LoopbackBroker broker = new LoopbackBroker();
+
+    @Test
+    public void failoverTimelineTest() throws Exception {
+        Assume.assumeTrue(FlightEvents.AVAILABLE);
+        final List<RecordedEvent> events = new ArrayList<>();
+        final Path file = Files.createTempFile("solft", ".jfr");
+        try (Recording recording = new Recording()) {
+            for (String name : new String[] { "FlowEvent", "StateFetch", "Listener", "Stop" })
+                recording.enable("com.solacesystems.poc." + name).withoutThreshold();
+            recording.start();
+
+            final FTMgr fred = new FTMgr(new LoopbackConnection(broker));
+            fred.startStateful("MyAppCluster", "AKNA/>", new NoopListener());
+            final FTMgr barney = new FTMgr(new LoopbackConnection(broker));
+            barney.startStateful("MyAppCluster", "AKNA/>", new NoopListener());
+            fred.stop();
+            barney.stop();
+
+            recording.stop();
+            recording.dump(file);
+            events.addAll(RecordingFile.readAllEvents(file));
+        }
+        finally {
+            Files.deleteIfExists(file);
+        }
+
+        int flows = 0, fetches = 0, activeListeners = 0, backupListeners = 0, stops = 0;
+        for (RecordedEvent event : events) {
+            assertEquals("MyAppCluster", event.getString("cluster"));
+            final String type = event.getEventType().getName();
+            if (type.endsWith("FlowEvent")) {
+                assertEquals("ACTIVE", event.getString("role"));
+                flows++;
+            }
+            else if (type.endsWith("StateFetch")) {
+                fetches++;
+            }
+            else if (type.endsWith("Listener")) {
+                if ("ACTIVE".equals(event.getString("role")))
+                    activeListeners++;
+                else
+                    backupListeners++;
+            }
+            else if (type.endsWith("Stop")) {
+                assertEquals("Each member stops while Active", "ACTIVE", event.getString("role"));
+                assertEquals(1, event.getLong("epoch"));
+                stops++;
+            }
+        }
+        assertEquals("Two activations", 2, flows);
+        assertEquals(2, fetches);
+        assertEquals(2, activeListeners);
+        assertEquals("Stopping tells each listener it is Backup through the pipeline", 2, backupListeners);
+        assertEquals(2, stops);
+    }
+
+    static class NoopListener implements FTEventListener {
+        @Override
+        public void onActive(BytesXMLMessage msg) {
+        }
+        @Override
+        public void onBackup() {
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.solacesystems.poc;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LastValueStoreTest {
+
+    @Test
+    public void matchesReferenceMapTest() {
+        final LastValueStore store = new LastValueStore(100000);
+        final Map<String, Integer> reference = new HashMap<>();
+        final Random random = new Random(42);
+        for (int op = 0; op < 200000; op++) {
+            final String key = "AKNA/" + random.nextInt(5000) + "/IGALUK/OTD";
+            if (random.nextInt(4) == 0) {
+                assertEquals(reference.remove(key) != null, store.remove(key));
+            }
+            else {
+                final int value = random.nextInt();
+                reference.put(key, value);
+                assertTrue(store.put(key, ByteBuffer.allocate(4).putInt(value).array()));
+            }
+        }
+        assertEquals(reference.size(), store.size());
+        for (Map.Entry<String, Integer> entry : reference.entrySet())
+            assertEquals(entry.getValue().intValue(), store.get(entry.getKey()).getInt());
+
+        final KeyedState snapshot = store.snapshot();
+        assertEquals(reference.size(), snapshot.size());
+        final int[] seen = new int[1];
+        snapshot.forEach((key, value) -> {
+            assertEquals(reference.get(key).intValue(), value.getInt());
+            seen[0]++;
+        });
+        assertEquals(reference.size(), seen[0]);
+    }
+
+    @Test
+    public void boundedKeysTest() {
+        final LastValueStore store = new LastValueStore(3);
+        assertTrue(store.put("a", new byte[]{1}));
+        assertTrue(store.put("b", new byte[]{2}));
+        assertTrue(store.put("c", new byte[]{3}));
+        assertFalse("New keys are rejected when full", store.put("d", new byte[]{4}));
+        assertTrue("Existing keys still update when full", store.put("a", new byte[]{5}));
+        assertEquals(1, store.getRejectedCount());
+        assertEquals(5, store.get("a").get());
+
+        assertTrue("An empty value removes its key", store.put("b", new byte[0]));
+        assertNull(store.get("b"));
+        assertTrue(store.put("d", new byte[]{4}));
+    }
+
+    @Test
+    public void snapshotIsolationTest() {
+        final LastValueStore store = new LastValueStore(10);
+        store.put("a", new byte[]{1});
+        final KeyedState snapshot = store.snapshot();
+        store.put("a", new byte[]{2});
+        store.put("b", new byte[]{3});
+
+        assertEquals(1, snapshot.size());
+        assertEquals(1, snapshot.get("a").get());
+        assertNull(snapshot.get("b"));
+        assertTrue(snapshot.iterator().hasNext());
+        assertEquals("a", snapshot.iterator().next().getKey());
+    }
+}
@@ -0,0 +1,109 @@
+package com.solacesystems.poc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LeaderStatusFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    final private LoopbackBroker broker = new LoopbackBroker();
+
+    @Test
+    public void sidecarRolesTest() throws Exception {
+        final Path path = folder.getRoot().toPath().resolve("solft.status");
+        final LeaderSidecar host1 = new LeaderSidecar(LeaderStatusFile.create(path, Arrays.asList("ORDERS", "PRICES")));
+        host1.join(new FTMgr(new LoopbackConnection(broker)), "ORDERS");
+        host1.join(new FTMgr(new LoopbackConnection(broker)), "PRICES");
+
+        final Path otherPath = folder.getRoot().toPath().resolve("other.status");
+        final LeaderSidecar host2 = new LeaderSidecar(LeaderStatusFile.create(otherPath, Arrays.asList("PRICES")));
+        final FTMgr prices2 = new FTMgr(new LoopbackConnection(broker));
+        host2.join(prices2, "PRICES");
+
+        final LeaderStatusFile status = LeaderStatusFile.open(path);
+        assertEquals(2, status.getSlotCount());
+        assertEquals(-1, status.slot("UNKNOWN"));
+        final int orders = status.slot("ORDERS");
+        final int prices = status.slot("PRICES");
+        assertTrue(status.isActive(orders));
+        assertTrue(status.isActive(prices));
+        final long epoch = status.getEpoch(prices);
+        assertTrue(status.checkEpoch(prices, epoch));
+
+        final LeaderStatusFile otherStatus = LeaderStatusFile.open(otherPath);
+        assertFalse(otherStatus.isActive(0));
+
+        host1.stop();
+        assertTrue(prices2.awaitActive(5, TimeUnit.SECONDS));
+        assertFalse("Stopped sidecar leaves every slot Backup", status.isActive(prices));
+        assertFalse(status.checkEpoch(prices, epoch));
+        awaitActive(otherStatus, 0);
+        host2.stop();
+    }
+
+    @Test
+    public void concurrentReadTest() throws Exception {
+        final Path path = folder.getRoot().toPath().resolve("solft.status");
+        final LeaderStatusFile writer = LeaderStatusFile.create(path, Arrays.asList("ORDERS"));
+        final LeaderStatusFile reader = LeaderStatusFile.open(path);
+        final Thread writing = new Thread(() -> {
+            for (long epoch = 1; epoch <= 200000; epoch++)
+                writer.update(0, true, epoch);
+        });
+        writing.start();
+        long last = 0;
+        while (writing.isAlive()) {
+            final long epoch = reader.getEpoch(0);
+            assertTrue("Epochs never go backwards", epoch >= last);
+            last = epoch;
+        }
+        writing.join();
+        assertEquals(200000, reader.getEpoch(0));
+        assertTrue(reader.getUpdated(0) > 0);
+    }
+
+    @Test
+    public void staleSlotTest() throws Exception {
+        final Path path = folder.getRoot().toPath().resolve("solft.status");
+        final LeaderStatusFile writer = LeaderStatusFile.create(path, Arrays.asList("ORDERS"));
+        writer.update(0, true, 7);
+        final LeaderStatusFile reader = LeaderStatusFile.open(path);
+        assertTrue(reader.isActive(0));
+        assertTrue(reader.checkEpoch(0, 7));
+
+        // A sidecar that stopped refreshing the slot, leaving it Active
+        final ByteBuffer updated = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        updated.putLong(0, System.currentTimeMillis() - LeaderStatusFile.STALE_MILLIS - 1);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(updated, LeaderStatusFile.HEADER_SIZE + 16);
+        }
+        assertFalse("A stale slot reads as Backup", reader.isActive(0));
+        assertFalse(reader.checkEpoch(0, 7));
+        assertEquals("The epoch of a stale slot is still readable", 7, reader.getEpoch(0));
+
+        writer.touch(0);
+        assertTrue(reader.isActive(0));
+        assertTrue(reader.checkEpoch(0, 7));
+    }
+
+    private static void awaitActive(LeaderStatusFile status, int slot) throws InterruptedException {
+        for (int i = 0; i < 500 && !status.isActive(slot); i++)
+            Thread.sleep(10);
+        assertTrue(status.isActive(slot));
+    }
+}
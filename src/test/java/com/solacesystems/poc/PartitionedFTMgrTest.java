@@ -0,0 +1,202 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPException;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PartitionedFTMgrTest {
+
+    final private LoopbackBroker broker = new LoopbackBroker();
+
+    @Test
+    public void partitionFailoverTest() throws JCSMPException {
+        final int partitions = 130; // spans three bitset words
+        RecordingListener fredEvents = new RecordingListener();
+        PartitionedFTMgr fred = new PartitionedFTMgr(new LoopbackConnection(broker));
+        fred.start("myapp/shard", partitions, fredEvents);
+
+        RecordingListener barneyEvents = new RecordingListener();
+        PartitionedFTMgr barney = new PartitionedFTMgr(new LoopbackConnection(broker));
+        barney.start("myapp/shard", partitions, barneyEvents);
+
+        assertEquals(partitions, fred.getActiveCount());
+        assertEquals(partitions, fred.getActivePartitions().cardinality());
+        assertTrue(fred.isActive(129));
+        assertEquals(0, barney.getActiveCount());
+        assertFalse(barney.isActive(0));
+
+        fred.stop();
+
+        assertEquals(0, fred.getActiveCount());
+        assertEquals(partitions, barney.getActiveCount());
+        assertEquals(partitions, barneyEvents.activations.size());
+
+        barney.stop();
+        assertEquals(0, barney.getActivePartitions().cardinality());
+    }
+
+    @Test
+    public void bulkStartOutcomeTest() throws JCSMPException {
+        PartitionedFTMgr fred = new PartitionedFTMgr(new LoopbackConnection(broker) {
+            @Override
+            public void bindExclusive(String clusterName, String outputSubscription, int priority, FTEventListener listener) throws JCSMPException {
+                if (clusterName.equals("myapp/shard/3"))
+                    throw new JCSMPException("Permission denied");
+                super.bindExclusive(clusterName, outputSubscription, priority, listener);
+            }
+        });
+        final BindResult result = fred.start("myapp/shard", 8, new RecordingListener());
+
+        assertFalse(result.isComplete());
+        assertEquals(7, result.getBound().size());
+        assertEquals("Permission denied", result.getFailures().get("myapp/shard/3").getMessage());
+        assertEquals("Other partitions are still joined", 7, fred.getActiveCount());
+        assertFalse(fred.isActive(3));
+        fred.stop();
+    }
+
+    @Test
+    public void balancedOwnershipTest() throws Exception {
+        final int partitions = 64;
+        final String[] ids = { "fred", "barney", "wilma" };
+        final PartitionedFTMgr[] members = new PartitionedFTMgr[ids.length];
+        for (int m = 0; m < ids.length; m++) {
+            members[m] = new PartitionedFTMgr(new LoopbackConnection(broker));
+            members[m].setMemberId(ids[m]);
+            members[m].setHeartbeatInterval(20);
+            members[m].startBalanced("myapp/shard", partitions, 2, new RecordingListener());
+        }
+
+        final List<String> all = Arrays.asList(ids);
+        awaitPlacement(members, ids, all, partitions);
+        for (PartitionedFTMgr member : members)
+            assertTrue("Ownership is spread over every member", member.getActiveCount() > partitions / 6);
+
+        // Only wilma's partitions move when it leaves
+        final BitSet fredBefore = members[0].getActivePartitions();
+        members[2].stop();
+        awaitPlacement(members, ids, all.subList(0, 2), partitions);
+        final BitSet fredAfter = members[0].getActivePartitions();
+        fredAfter.and(fredBefore);
+        assertEquals(fredBefore, fredAfter);
+
+        members[0].stop();
+        members[1].stop();
+    }
+
+    @Test
+    public void handoverGoesStraightToOwnerTest() throws Exception {
+        final int partitions = 64;
+        final String[] ids = { "fred", "barney", "wilma" };
+        final PartitionedFTMgr[] members = new PartitionedFTMgr[ids.length];
+        final RecordingListener[] events = new RecordingListener[ids.length];
+        for (int m = 0; m < ids.length; m++) {
+            members[m] = new PartitionedFTMgr(new LoopbackConnection(broker));
+            members[m].setMemberId(ids[m]);
+            members[m].setHeartbeatInterval(20);
+            events[m] = new RecordingListener();
+        }
+        // With three replicas, fred and barney both bind to every partition before wilma joins
+        members[0].startBalanced("myapp/shard", partitions, 3, events[0]);
+        members[1].startBalanced("myapp/shard", partitions, 3, events[1]);
+        final List<String> all = Arrays.asList(ids);
+        awaitPlacement(members, ids, all.subList(0, 2), partitions);
+        events[0].promoted.clear();
+        events[1].promoted.clear();
+
+        members[2].startBalanced("myapp/shard", partitions, 3, events[2]);
+        awaitPlacement(members, ids, all, partitions);
+        int moved = 0;
+        for (int p = 0; p < partitions; p++) {
+            if (!PartitionOwnership.rank(all, p, 1).get(0).equals("wilma"))
+                continue;
+            moved++;
+            assertFalse("Partition " + p + " is not promoted on its way to wilma",
+                    events[0].promoted.contains(p) || events[1].promoted.contains(p));
+        }
+        assertTrue("Wilma gained partitions", moved > 0);
+
+        for (PartitionedFTMgr member : members)
+            member.stop();
+    }
+
+    private static void awaitPlacement(PartitionedFTMgr[] members, String[] ids, List<String> live, int partitions) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        boolean placed = false;
+        while (!placed && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            placed = true;
+            for (int p = 0; p < partitions && placed; p++) {
+                final String owner = PartitionOwnership.rank(live, p, 1).get(0);
+                for (int m = 0; m < members.length; m++) {
+                    if (live.contains(ids[m]) && members[m].isActive(p) != owner.equals(ids[m]))
+                        placed = false;
+                }
+            }
+        }
+        assertTrue("Every partition is Active on its owner only", placed);
+    }
+
+    @Test
+    public void minimalMovementTest() {
+        final List<String> three = Arrays.asList("fred", "barney", "wilma");
+        final List<String> four = Arrays.asList("fred", "barney", "wilma", "betty");
+        int moved = 0;
+        for (int p = 0; p < 1000; p++) {
+            final String before = PartitionOwnership.rank(three, p, 1).get(0);
+            final String after = PartitionOwnership.rank(four, p, 1).get(0);
+            if (!before.equals(after)) {
+                assertEquals("Partitions only move to the new member", "betty", after);
+                moved++;
+            }
+            assertEquals(PartitionOwnership.rank(four, p, 3).subList(0, 1), PartitionOwnership.rank(four, p, 1));
+        }
+        assertTrue("About a quarter of the partitions move: " + moved, moved > 200 && moved < 300);
+    }
+
+    @Test
+    public void statefulPartitionTest() throws JCSMPException {
+        PartitionedFTMgr fred = new PartitionedFTMgr(new LoopbackConnection(broker));
+        fred.startStateful("myapp/shard", 8, "myapp/out", new RecordingListener());
+        RecordingListener barneyEvents = new RecordingListener();
+        PartitionedFTMgr barney = new PartitionedFTMgr(new LoopbackConnection(broker));
+        barney.startStateful("myapp/shard", 8, "myapp/out", barneyEvents);
+
+        broker.publish("myapp/out/5/OTD", "five".getBytes());
+        fred.stop();
+
+        assertEquals("five", FTMgrTest.attachmentString(barneyEvents.activations.get(5)));
+        assertNull(barneyEvents.activations.get(4));
+        assertTrue(barneyEvents.activations.containsKey(4));
+        barney.stop();
+    }
+
+    static class RecordingListener implements PartitionedFTEventListener {
+        final Map<Integer, BytesXMLMessage> activations = new HashMap<>();
+        final Set<Integer> promoted = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public void onActive(int partition, BytesXMLMessage msg) {
+            activations.put(partition, msg);
+            promoted.add(partition);
+        }
+
+        @Override
+        public void onBackup(int partition) {
+            activations.remove(partition);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.JCSMPFactory;
+import com.solacesystems.jcsmp.JCSMPProperties;
+import com.solacesystems.jcsmp.JCSMPSession;
+import com.solacesystems.jcsmp.SessionEvent;
+import com.solacesystems.jcsmp.SessionEventArgs;
+import com.solacesystems.jcsmp.SessionEventHandler;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class SessionRegistryTest {
+
+    @Test
+    public void applicationSessionIsSharedAndNeverClosedTest() throws Exception {
+        final JCSMPProperties props = new JCSMPProperties();
+        props.setProperty(JCSMPProperties.HOST, "localhost");
+        props.setProperty(JCSMPProperties.USERNAME, "default");
+        props.setProperty(JCSMPProperties.VPN_NAME, "default");
+        final JCSMPSession session = JCSMPFactory.onlyInstance().createSession(props);
+        final int before = SessionRegistry.sessionCount();
+
+        final SharedSession first = SessionRegistry.acquire(session);
+        final SharedSession second = SessionRegistry.acquire(session);
+        assertSame(first, second);
+        assertEquals(before + 1, SessionRegistry.sessionCount());
+
+        SessionRegistry.release(first);
+        assertEquals(before + 1, SessionRegistry.sessionCount());
+        SessionRegistry.release(second);
+        assertEquals(before, SessionRegistry.sessionCount());
+        assertFalse("The application's session must stay open", session.isClosed());
+    }
+
+    @Test
+    public void applicationSessionEventsAreFannedOutTest() throws Exception {
+        final JCSMPProperties props = new JCSMPProperties();
+        props.setProperty(JCSMPProperties.HOST, "localhost");
+        props.setProperty(JCSMPProperties.USERNAME, "default");
+        props.setProperty(JCSMPProperties.VPN_NAME, "default");
+        final JCSMPSession session = JCSMPFactory.onlyInstance().createSession(props);
+        final SessionEventArgs down = new SessionEventArgs(SessionEvent.DOWN_ERROR, "down", null, 0) {};
+        final AtomicInteger received = new AtomicInteger();
+        final SessionEventHandler listener = args -> received.incrementAndGet();
+
+        FTMgr.sessionEvent(session, down);
+        final SharedSession shared = SessionRegistry.acquire(session);
+        shared.addSessionListener(listener);
+        FTMgr.sessionEvent(session, down);
+        assertEquals("Only events of a session in use reach its connections", 1, received.get());
+
+        shared.removeSessionListener(listener);
+        SessionRegistry.release(shared);
+        FTMgr.sessionEvent(session, down);
+        assertEquals(1, received.get());
+    }
+}
@@ -0,0 +1,107 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StateCodecTest {
+
+    final private LoopbackBroker broker = new LoopbackBroker();
+
+    @Test
+    public void compressedRoundTripTest() throws Exception {
+        final char[] text = new char[100 * 1024];
+        Arrays.fill(text, 'x');
+        final String state = "AKNA:" + new String(text);
+        final StateCodec<String> codec = StateCodec.compressed(StateCodec.UTF8);
+
+        final BytesXMLMessage msg = codec.toMessage(state);
+        assertTrue("Repetitive state compresses", msg.getAttachmentContentLength() < state.length() / 10);
+        assertEquals(state, codec.fromMessage(msg));
+        assertNull(codec.fromMessage(null));
+    }
+
+    @Test
+    public void messageDecodedInPlaceTest() throws Exception {
+        final boolean[] fromArray = new boolean[1];
+        final StateCodec<String> codec = new CompressedStateCodec<String>(StateCodec.UTF8) {
+            @Override
+            public String decode(ByteBuffer state) throws IOException {
+                fromArray[0] = state.hasArray();
+                return super.decode(state);
+            }
+        };
+        final BytesXMLMessage msg = codec.toMessage("AKNA:state");
+        assertEquals("AKNA:state", codec.fromMessage(msg));
+        assertTrue("The attachment's array is inflated without copying", fromArray[0]);
+        assertTrue("The attachment is left unchanged", msg.getAttachmentByteBuffer().remaining() > 4);
+        assertEquals("AKNA:state", codec.fromMessage(msg));
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptStateTest() throws Exception {
+        StateCodec.compressed(StateCodec.RAW).decode(ByteBuffer.wrap(new byte[] { 0, 0, 0, 9, 1, 2, 3 }));
+    }
+
+    @Test(expected = IOException.class)
+    public void oversizedLengthTest() throws Exception {
+        // Rejected before allocating the 2GB the prefix claims
+        StateCodec.compressed(StateCodec.RAW).decode(ByteBuffer.wrap(new byte[] { 0x7f, -1, -1, -1, 1, 2, 3 }));
+    }
+
+    @Test
+    public void bufferLayoutRoundTripTest() throws Exception {
+        final StateCodec<String> codec = StateCodec.compressed(StateCodec.UTF8);
+        final ByteBuffer encoded = codec.encode("AKNA:state");
+        final ByteBuffer offset = ByteBuffer.allocate(encoded.remaining() + 8);
+        offset.position(8);
+        offset.put(encoded.duplicate());
+        offset.position(8);
+        assertEquals("A slice of a larger array", "AKNA:state", codec.decode(offset.slice()));
+        final ByteBuffer direct = ByteBuffer.allocateDirect(encoded.remaining());
+        direct.put(encoded.duplicate());
+        direct.flip();
+        assertEquals("AKNA:state", codec.decode(direct));
+    }
+
+    @Test
+    public void typedActivationTest() throws Exception {
+        final FTMgr fred = new FTMgr(new LoopbackConnection(broker));
+        fred.startStateful("MyAppCluster", "AKNA/>", StateCodec.UTF8, new TypedFTEventListener<String>() {
+            @Override
+            public void onActive(String state) {
+            }
+            @Override
+            public void onBackup() {
+            }
+        });
+        final FTMgr barney = new FTMgr(new LoopbackConnection(broker));
+        final StringBuilder handedOver = new StringBuilder();
+        final StateCodec<ByteBuffer> raw = StateCodec.compressed(StateCodec.RAW);
+        barney.startStateful("MyAppCluster", "AKNA/>", raw, new TypedFTEventListener<ByteBuffer>() {
+            @Override
+            public void onActive(ByteBuffer state) {
+                assertTrue(state.isReadOnly());
+                handedOver.append(StandardCharsets.UTF_8.decode(state));
+            }
+            @Override
+            public void onBackup() {
+            }
+        });
+
+        broker.publish("AKNA/1", raw.toMessage(StateCodec.UTF8.encode("fred-1")));
+        fred.stop();
+        assertTrue(barney.awaitActive(5, TimeUnit.SECONDS));
+        assertEquals("fred-1", handedOver.toString());
+        barney.stop();
+    }
+}
@@ -0,0 +1,33 @@
+package com.solacesystems.poc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TopicMatcherTest {
+
+    @Test
+    public void literalTopicsTest() {
+        assertTrue(TopicMatcher.matches("AKNA/3/IGALUK/OTD", "AKNA/3/IGALUK/OTD"));
+        assertFalse(TopicMatcher.matches("AKNA/3/IGALUK/OTD", "AKNA/3/IGALUK"));
+        assertFalse(TopicMatcher.matches("AKNA/3/IGALUK", "AKNA/3/IGALUK/OTD"));
+        assertFalse(TopicMatcher.matches("AKNA/3", "AKNA/4"));
+    }
+
+    @Test
+    public void singleLevelWildcardTest() {
+        assertTrue(TopicMatcher.matches("AKNA/*/IGALUK/OTD", "AKNA/3/IGALUK/OTD"));
+        assertTrue(TopicMatcher.matches("AKNA/3/IG*/OTD", "AKNA/3/IGALUK/OTD"));
+        assertFalse(TopicMatcher.matches("AKNA/3/IQ*/OTD", "AKNA/3/IGALUK/OTD"));
+        assertFalse(TopicMatcher.matches("AKNA/*", "AKNA/3/IGALUK"));
+    }
+
+    @Test
+    public void multiLevelWildcardTest() {
+        assertTrue(TopicMatcher.matches("AKNA/>", "AKNA/3"));
+        assertTrue(TopicMatcher.matches("AKNA/>", "AKNA/3/IGALUK/OTD"));
+        assertFalse(TopicMatcher.matches("AKNA/>", "AKNA"));
+        assertFalse(TopicMatcher.matches("AKNA/>", "OTHER/3"));
+    }
+}